@@ -10,9 +10,12 @@ import com.google.common.base.Suppliers;
 import org.apache.commons.codec.binary.Base64;
 import play.Play;
 import play.api.libs.Crypto;
+import play.libs.F;
+import play.libs.F.Promise;
 import play.libs.Json;
 import play.mvc.Http;
 
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
@@ -36,7 +39,7 @@ public final class AC
 
     // TODO: DI of some sort would be nice
     private static final JwtAuthorizationGenerator jwtAuthorisationGenerator = JwtAuthConfig.getJwtAuthorizationGenerator();
-    private static final AcHostService acHostService = InjectorFactory.getAcHostService();
+    static AcHostService acHostService = InjectorFactory.getAcHostService();
 
     public static boolean isDev()
     {
@@ -46,14 +49,36 @@ public final class AC
                 || Boolean.getBoolean(AC_DEV);
     }
 
+    /**
+     * @return the host and user of the current request, once it is authenticated
+     */
+    public static Optional<AcRequestContext> getRequestContext()
+    {
+        return Optional.ofNullable((AcRequestContext) getHttpContext().args.get(AC_REQUEST_CONTEXT_PARAM));
+    }
+
+    @SuppressWarnings("deprecation")
+    public static void setRequestContext(AcRequestContext requestContext)
+    {
+        final Map<String, Object> args = getHttpContext().args;
+        args.put(AC_REQUEST_CONTEXT_PARAM, checkNotNull(requestContext));
+
+        // still set for add-ons reading them from the context's args, until those are removed
+        if (requestContext.getAcHost() != null)
+        {
+            args.put(AC_HOST_PARAM, requestContext.getAcHost());
+        }
+        requestContext.getUserAccountId().ifPresent(accountId -> args.put(AC_USER_ACCOUNT_ID_PARAM, accountId));
+    }
+
     public static Optional<String> getUserAccountId()
     {
-        return Optional.ofNullable((String) getHttpContext().args.get(AC_USER_ACCOUNT_ID_PARAM));
+        return getRequestContext().flatMap(AcRequestContext::getUserAccountId);
     }
 
     public static void setUserAccountId(String accountId)
     {
-        getHttpContext().args.put(AC_USER_ACCOUNT_ID_PARAM, accountId);
+        setRequestContext(requestContextOrEmpty().withUserAccountId(accountId));
     }
 
     private static String getAbsoluteUrl(String url, AcHost acHost) {
@@ -70,9 +95,15 @@ public final class AC
         return absoluteUrl;
     }
 
+    /**
+     * @return the host of the current request, falling back to the one set as {@link Constants#AC_HOST_PARAM} by add-ons
+     * that don't set a request context
+     */
+    @SuppressWarnings("deprecation")
     public static AcHost getAcHost()
     {
-        return (AcHost) getHttpContext().args.get(AC_HOST_PARAM);
+        return getRequestContext().map(AcRequestContext::getAcHost)
+                .orElseGet(() -> (AcHost) getHttpContext().args.get(AC_HOST_PARAM));
     }
 
     public static AcHost getAcHostOrThrow()
@@ -86,7 +117,63 @@ public final class AC
         return setAcHost(getAcHost(consumerKey).getOrError(Suppliers.ofInstance("An error occurred getting the host application")));
     }
 
+    /**
+     * Looks up the host with the given key. Within a request the result is remembered, so that validating the JWT
+     * issuer, retrieving its shared secret and setting the request's host share a single lookup.
+     */
+    @SuppressWarnings("unchecked")
     public static Option<AcHost> getAcHost(final String consumerKey)
+    {
+        final Http.Context context = Http.Context.current.get();
+        if (context == null)
+        {
+            return findAcHost(consumerKey);
+        }
+
+        final String lookupParam = lookupParam(consumerKey);
+        Option<AcHost> acHost = (Option<AcHost>) context.args.get(lookupParam);
+        if (acHost == null)
+        {
+            acHost = findAcHost(consumerKey);
+            context.args.put(lookupParam, acHost);
+        }
+        return acHost;
+    }
+
+    /**
+     * Like {@link #getAcHost(String)}, without blocking the calling thread on the host repository. The result is
+     * remembered in the current request as well.
+     */
+    @SuppressWarnings("unchecked")
+    public static Promise<Option<AcHost>> getAcHostAsync(final String consumerKey)
+    {
+        final Http.Context context = Http.Context.current.get();
+        final String lookupParam = lookupParam(consumerKey);
+        if (context != null && context.args.containsKey(lookupParam))
+        {
+            return Promise.pure((Option<AcHost>) context.args.get(lookupParam));
+        }
+
+        return acHostService.findByKeyAsync(consumerKey).map(new F.Function<Option<AcHost>, Option<AcHost>>()
+        {
+            @Override
+            public Option<AcHost> apply(Option<AcHost> acHost)
+            {
+                if (context != null)
+                {
+                    context.args.put(lookupParam, acHost);
+                }
+                return acHost;
+            }
+        });
+    }
+
+    private static String lookupParam(String consumerKey)
+    {
+        return AC_HOST_LOOKUP_PARAM_PREFIX + consumerKey;
+    }
+
+    private static Option<AcHost> findAcHost(final String consumerKey)
     {
         try
         {
@@ -102,10 +189,16 @@ public final class AC
     {
         final Token token = new Token(AC.getAcHost().getKey(), AC.getUserAccountId(), System.currentTimeMillis(), allowInsecurePolling);
 
-        final String jsonToken = Base64.encodeBase64String(token.toJson().toString().getBytes());
-        final String encryptedToken = Crypto.encryptAES(jsonToken);
+        getHttpContext().args.put(AC_TOKEN, encryptToken(token));
+    }
 
-        getHttpContext().args.put(AC_TOKEN, encryptedToken);
+    /**
+     * @return the token, encrypted as expected by {@link #validateToken(String, boolean)}
+     */
+    public static String encryptToken(Token token)
+    {
+        final String jsonToken = Base64.encodeBase64String(token.toJson().toString().getBytes());
+        return Crypto.encryptAES(jsonToken);
     }
 
     public static Option<Token> validateToken(final String encryptedToken, final boolean allowInsecurePolling)
@@ -141,10 +234,15 @@ public final class AC
 
     static AcHost setAcHost(AcHost host)
     {
-        getHttpContext().args.put(AC_HOST_PARAM, host);
+        setRequestContext(requestContextOrEmpty().withAcHost(host));
         return host;
     }
 
+    private static AcRequestContext requestContextOrEmpty()
+    {
+        return getRequestContext().orElse(AcRequestContext.fromJwt(null, null, null, null));
+    }
+
     private static Http.Context getHttpContext()
     {
         return Http.Context.current();
@@ -2,12 +2,14 @@ package com.atlassian.connect.play.java;
 
 import com.google.common.annotations.VisibleForTesting;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
@@ -15,17 +17,31 @@ import static play.data.validation.Constraints.MaxLength;
 import static play.data.validation.Constraints.Required;
 
 /**
- * This represents the host application of the remote app plugin
+ * This represents the host application of the remote app plugin.
+ * <p/>
+ * Hosts and the lookups by key and url are cached by Hibernate's second-level and query caches, when these are enabled
+ * in the persistence unit along with a region factory (see the README). They aren't cached otherwise.
  */
 @Entity
 @Table (name = "ac_host")
+@Cacheable
 @NamedQueries ({
         @NamedQuery (name = "AcHost.findAll", query = "SELECT a FROM AcHost a"),
-        @NamedQuery (name = "AcHost.findByKey", query = "SELECT a FROM AcHost a where a.key = :key"),
-        @NamedQuery (name = "AcHost.findByUrl", query = "SELECT a FROM AcHost a where a.baseUrl = :baseUrl")
+        @NamedQuery (name = "AcHost.findPage", query = "SELECT a FROM AcHost a where a.id > :afterId order by a.id"),
+        @NamedQuery (name = "AcHost.findByKey", query = "SELECT a FROM AcHost a where a.key = :key", hints = {
+                @QueryHint (name = "org.hibernate.cacheable", value = "true"),
+                @QueryHint (name = "org.hibernate.cacheRegion", value = AcHost.QUERY_CACHE_REGION)
+        }),
+        @NamedQuery (name = "AcHost.findByUrl", query = "SELECT a FROM AcHost a where a.baseUrl = :baseUrl", hints = {
+                @QueryHint (name = "org.hibernate.cacheable", value = "true"),
+                @QueryHint (name = "org.hibernate.cacheRegion", value = AcHost.QUERY_CACHE_REGION)
+        })
 })
 public final class AcHost
 {
+    public static final String CACHE_REGION = "ac_host";
+    public static final String QUERY_CACHE_REGION = "ac_host.queries";
+
     @VisibleForTesting
     public static final String CONSUMER_INFO_URL = "/plugins/servlet/oauth/consumer-info";
 
@@ -116,4 +132,8 @@ public final class AcHost
     public void setName(String name) {
         this.name = name;
     }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
 }
@@ -0,0 +1,201 @@
+package com.atlassian.connect.play.java;
+
+import com.atlassian.connect.play.java.token.Token;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * What is known of the current request once it is authenticated, by JWT or page token: its host and user. See
+ * {@link AC#getRequestContext()}.
+ * <p/>
+ * The claims of a JWT that aren't already at hand, such as the user's account id, are read from its payload when first
+ * asked for, in a single pass that only keeps those claims.
+ */
+public final class AcRequestContext
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final AcHost acHost;
+    private final String issuer;
+    private final String subject;
+    private final String jsonPayload;
+
+    private volatile Claims claims;
+
+    private AcRequestContext(AcHost acHost, String issuer, String subject, String jsonPayload, Claims claims)
+    {
+        this.acHost = acHost;
+        this.issuer = issuer;
+        this.subject = subject;
+        this.jsonPayload = jsonPayload;
+        this.claims = claims;
+    }
+
+    /**
+     * @param jsonPayload the verified payload of the JWT, only read when one of its other claims is asked for
+     */
+    public static AcRequestContext fromJwt(AcHost acHost, String issuer, String subject, String jsonPayload)
+    {
+        return new AcRequestContext(acHost, issuer, subject, jsonPayload, null);
+    }
+
+    public static AcRequestContext fromToken(AcHost acHost, Token token)
+    {
+        return new AcRequestContext(acHost, token.getAcHost(), null, null,
+                new Claims(token.getUserAccountId().orElse(null), null, null));
+    }
+
+    public AcHost getAcHost()
+    {
+        return acHost;
+    }
+
+    /**
+     * @return the client key of the host that sent the request
+     */
+    public String getIssuer()
+    {
+        return issuer;
+    }
+
+    public Optional<String> getSubject()
+    {
+        return Optional.ofNullable(subject);
+    }
+
+    /**
+     * @return the account id of the user in the JWT's {@code context}, or, for JWTs without a user context, its subject
+     */
+    public Optional<String> getUserAccountId()
+    {
+        return Optional.ofNullable(claims().userAccountId);
+    }
+
+    public Optional<Long> getIssuedAt()
+    {
+        return Optional.ofNullable(claims().issuedAt);
+    }
+
+    public Optional<Long> getExpiresAt()
+    {
+        return Optional.ofNullable(claims().expiresAt);
+    }
+
+    AcRequestContext withAcHost(AcHost acHost)
+    {
+        return new AcRequestContext(acHost, issuer, subject, jsonPayload, claims);
+    }
+
+    AcRequestContext withUserAccountId(String userAccountId)
+    {
+        final Claims claims = claims();
+        return new AcRequestContext(acHost, issuer, subject, jsonPayload,
+                new Claims(userAccountId, claims.issuedAt, claims.expiresAt));
+    }
+
+    private Claims claims()
+    {
+        Claims claims = this.claims;
+        if (claims == null)
+        {
+            // reading twice on a race is harmless, the payload doesn't change
+            claims = jsonPayload == null ? new Claims(subject, null, null) : readClaims(jsonPayload, subject);
+            this.claims = claims;
+        }
+        return claims;
+    }
+
+    static Claims readClaims(String jsonPayload, String subject)
+    {
+        try (JsonParser parser = JSON_FACTORY.createParser(jsonPayload))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return new Claims(subject, null, null);
+            }
+
+            boolean hasUser = false;
+            String userAccountId = null;
+            Long issuedAt = null;
+            Long expiresAt = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("context".equals(name) && value == JsonToken.START_OBJECT)
+                {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME)
+                    {
+                        final String contextName = parser.getCurrentName();
+                        final JsonToken contextValue = parser.nextToken();
+                        if ("user".equals(contextName) && contextValue != JsonToken.VALUE_NULL)
+                        {
+                            hasUser = true;
+                            if (contextValue == JsonToken.START_OBJECT)
+                            {
+                                userAccountId = readAccountId(parser);
+                                continue;
+                            }
+                        }
+                        parser.skipChildren();
+                    }
+                }
+                else if ("iat".equals(name) && value.isNumeric())
+                {
+                    issuedAt = parser.getLongValue();
+                }
+                else if ("exp".equals(name) && value.isNumeric())
+                {
+                    expiresAt = parser.getLongValue();
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            return new Claims(hasUser ? userAccountId : subject, issuedAt, expiresAt);
+        }
+        catch (IOException e)
+        {
+            // the payload was verified, and so parsed, already
+            throw new IllegalStateException("Could not read the claims of a verified JWT", e);
+        }
+    }
+
+    private static String readAccountId(JsonParser parser) throws IOException
+    {
+        String accountId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("accountId".equals(name) && value.isScalarValue() && value != JsonToken.VALUE_NULL)
+            {
+                accountId = parser.getText();
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+        return accountId;
+    }
+
+    static final class Claims
+    {
+        final String userAccountId;
+        final Long issuedAt;
+        final Long expiresAt;
+
+        Claims(String userAccountId, Long issuedAt, Long expiresAt)
+        {
+            this.userAccountId = userAccountId;
+            this.issuedAt = issuedAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
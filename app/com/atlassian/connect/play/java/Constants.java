@@ -7,7 +7,17 @@ public class Constants
     public static final String AC_PLUGIN_KEY = "ac.key";
     public static final String AC_PLUGIN_NAME = "ac.name";
 
+    public static final String AC_REQUEST_CONTEXT_PARAM = "ac_request_context";
+    /**
+     * @deprecated read the user's account id from {@link AC#getUserAccountId()} or {@link AC#getRequestContext()}
+     */
+    @Deprecated
     public static final String AC_USER_ACCOUNT_ID_PARAM = "account_id";
+    /**
+     * @deprecated read the host from {@link AC#getAcHost()} or {@link AC#getRequestContext()}
+     */
+    @Deprecated
     public static final String AC_HOST_PARAM = "ac_host";
+    public static final String AC_HOST_LOOKUP_PARAM_PREFIX = "ac_host_lookup:";
     public static final String AC_TOKEN = "ac_token";
 }
@@ -0,0 +1,93 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Counts JWT authentication failures by key, e.g. the issuer or client address of the failed request, in a token
+ * bucket for each key: a key may fail {@code failures} times in a row, then once every {@code seconds / failures}
+ * seconds. Requests for a key that ran out of failures are throttled, so that they can be turned away before their host
+ * is looked up or their signature checked.
+ * <p/>
+ * Each bucket is a single timestamp updated with compare-and-set, the time at which it will be full again (the
+ * <em>generic cell rate algorithm</em>), so neither checking nor counting takes a lock once the bucket exists. Buckets
+ * are only created for keys that fail, and are dropped once idle for long enough to be full again, when dropping them
+ * loses nothing. Their number is bounded as well, by the maximum size of the cache holding them.
+ */
+final class AuthenticationFailureThrottle {
+    private final long failureIntervalNanos;
+    private final long burstNanos;
+    private final Ticker ticker;
+    private final Cache<String, AtomicLong> buckets;
+
+    AuthenticationFailureThrottle(int failures, long seconds, long maximumKeys) {
+        this(failures, seconds, maximumKeys, Ticker.systemTicker());
+    }
+
+    AuthenticationFailureThrottle(int failures, long seconds, long maximumKeys, Ticker ticker) {
+        checkArgument(failures > 0, "At least one failure must be allowed");
+        checkArgument(seconds > 0, "Failures must be counted over some time");
+        this.failureIntervalNanos = TimeUnit.SECONDS.toNanos(seconds) / failures;
+        this.burstNanos = failureIntervalNanos * failures;
+        this.ticker = checkNotNull(ticker);
+        // a bucket not failed for that long is full again, as good as no bucket
+        this.buckets = CacheBuilder.newBuilder()
+                .maximumSize(maximumKeys)
+                .expireAfterAccess(burstNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @return the number of seconds until the key may fail again, 0 if it isn't throttled
+     */
+    long retryAfterSeconds(String key) {
+        final AtomicLong bucket = buckets.getIfPresent(key);
+        if (bucket == null) {
+            return 0;
+        }
+        // throttled while another failure would take the bucket past empty
+        final long throttledNanos = bucket.get() + failureIntervalNanos - burstNanos - ticker.read();
+        return throttledNanos <= 0 ? 0 : TimeUnit.NANOSECONDS.toSeconds(throttledNanos - 1) + 1;
+    }
+
+    void recordFailure(String key) {
+        final AtomicLong bucket = bucket(key);
+        while (true) {
+            final long now = ticker.read();
+            final long fullAt = bucket.get();
+            // never further than a burst ahead, however many failures are recorded at once
+            final long nextFullAt = Math.min(Math.max(fullAt, now) + failureIntervalNanos, now + burstNanos);
+            if (bucket.compareAndSet(fullAt, nextFullAt)) {
+                return;
+            }
+        }
+    }
+
+    private AtomicLong bucket(String key) {
+        final AtomicLong bucket = buckets.getIfPresent(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        try {
+            return buckets.get(key, new Callable<AtomicLong>() {
+                @Override
+                public AtomicLong call() {
+                    return new AtomicLong(ticker.read());
+                }
+            });
+        } catch (ExecutionException e) {
+            // creating a bucket doesn't throw
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import play.libs.F;
+import play.mvc.Http;
+import play.mvc.Result;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static play.libs.F.Either;
+import static play.libs.F.Promise;
+import static play.mvc.Http.Context;
+import static play.mvc.Results.status;
+
+/**
+ * Runs the verification of JWTs on a bounded {@link MeteredExecutor} rather than on Play's dispatcher, as it is CPU
+ * bound. When too many JWTs are waiting to be verified, requests are turned away straight away with a
+ * {@code 503 Service Unavailable} and a {@code Retry-After} header, rather than queueing up.
+ */
+final class BoundedJwtVerification
+{
+    // verifying a JWT takes well under a millisecond, a full queue drains within a second
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    private final MeteredExecutor executor;
+
+    BoundedJwtVerification(MeteredExecutor executor)
+    {
+        this.executor = checkNotNull(executor);
+    }
+
+    /**
+     * Runs the verification with the request as the current context, e.g. so that the host looked up ahead of
+     * verification is found.
+     *
+     * @return a promise of the result of the verification, or of the result turning the request away
+     */
+    <A> Promise<Either<Result, A>> verify(final Context context, final F.Function0<Either<Result, A>> verification)
+    {
+        return executor.promise(new F.Function0<Either<Result, A>>()
+        {
+            @Override
+            public Either<Result, A> apply() throws Throwable
+            {
+                Context.current.set(context);
+                try
+                {
+                    return verification.apply();
+                }
+                finally
+                {
+                    Context.current.remove();
+                }
+            }
+        }).recover(new F.Function<Throwable, Either<Result, A>>()
+        {
+            @Override
+            public Either<Result, A> apply(Throwable throwable) throws Throwable
+            {
+                if (throwable instanceof RejectedExecutionException)
+                {
+                    LOGGER.debug("Too many JWTs waiting for verification, rejecting request to " + context.request().path());
+                    context.response().setHeader(Http.HeaderNames.RETRY_AFTER, RETRY_AFTER_SECONDS);
+                    return Either.Left((Result) status(Http.Status.SERVICE_UNAVAILABLE, "Too many requests being authenticated"));
+                }
+                throw throwable;
+            }
+        });
+    }
+}
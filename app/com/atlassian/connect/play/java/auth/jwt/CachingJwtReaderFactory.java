@@ -0,0 +1,120 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.fugue.Option;
+import com.atlassian.jwt.core.SystemClock;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.core.reader.JwtIssuerValidator;
+import com.atlassian.jwt.core.reader.NimbusJwtReader;
+import com.atlassian.jwt.core.reader.NimbusJwtReaderFactory;
+import com.atlassian.jwt.exception.JwtIssuerLacksSharedSecretException;
+import com.atlassian.jwt.exception.JwtParseException;
+import com.atlassian.jwt.exception.JwtUnknownIssuerException;
+import com.atlassian.jwt.reader.JwtReader;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.ReadOnlyJWSHeader;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.util.Base64URL;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * A {@link NimbusJwtReaderFactory} keeping the reader, and so the verifier, of each issuer, rather than validating the
+ * issuer and setting up a new verifier for every JWT. A reader is only reused while its issuer's shared secret is the
+ * one it was set up with, so a host registering again with a new secret gets a new reader.
+ * <p/>
+ * The readers verify {@code HS256} signatures with a {@link Mac} initialised once per thread, like the writers of
+ * {@link HmacJwtWriterFactory}, rather than setting one up for every JWT. The issuer is the one read by
+ * {@link JwtPrecheck} when the request remembers it, so the JWT isn't read again to find it.
+ */
+public class CachingJwtReaderFactory extends NimbusJwtReaderFactory {
+    private static final int MAXIMUM_CACHED_READERS = 10000;
+
+    private final JwtIssuerSharedSecretService sharedSecretService;
+    private final Cache<String, IssuerReader> readersByIssuer = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_READERS)
+            .build();
+
+    public CachingJwtReaderFactory(JwtIssuerValidator issuerValidator, JwtIssuerSharedSecretService sharedSecretService) {
+        super(issuerValidator, sharedSecretService);
+        this.sharedSecretService = sharedSecretService;
+    }
+
+    @Override
+    public JwtReader getReader(String jwt) throws JwtParseException, JwtUnknownIssuerException,
+            JwtIssuerLacksSharedSecretException {
+        final Option<String> issuer = UnverifiedJwtClaims.issuer(jwt);
+        if (issuer.isEmpty()) {
+            return super.getReader(jwt);
+        }
+        final String sharedSecret = sharedSecretService.getSharedSecret(issuer.get());
+        if (sharedSecret == null) {
+            // let the reader report the unknown issuer
+            readersByIssuer.invalidate(issuer.get());
+            return super.getReader(jwt);
+        }
+
+        final IssuerReader cached = readersByIssuer.getIfPresent(issuer.get());
+        if (cached != null && cached.sharedSecret.equals(sharedSecret)) {
+            return cached.reader;
+        }
+        // validates the issuer and algorithm, and reports why they aren't valid
+        super.getReader(jwt);
+        final JwtReader reader = new NimbusJwtReader(new HmacSha256Verifier(sharedSecret), SystemClock.getInstance());
+        readersByIssuer.put(issuer.get(), new IssuerReader(sharedSecret, reader));
+        return reader;
+    }
+
+    private static final class IssuerReader {
+        final String sharedSecret;
+        final JwtReader reader;
+
+        IssuerReader(String sharedSecret, JwtReader reader) {
+            this.sharedSecret = sharedSecret;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * Verifies {@code HS256} signatures with a {@link Mac} kept per thread. Other algorithms are left to Nimbus.
+     */
+    static final class HmacSha256Verifier extends MACVerifier {
+        private static final String MAC_ALGORITHM = "HmacSHA256";
+
+        private final SecretKeySpec key;
+        private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                    mac.init(key);
+                    return mac;
+                } catch (GeneralSecurityException e) {
+                    // HmacSHA256 is available on every JVM, and takes keys of any length
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+
+        HmacSha256Verifier(String sharedSecret) {
+            super(sharedSecret);
+            this.key = new SecretKeySpec(sharedSecret.getBytes(Charsets.UTF_8), MAC_ALGORITHM);
+        }
+
+        @Override
+        public boolean verify(ReadOnlyJWSHeader header, byte[] signedContent, Base64URL signature)
+                throws JOSEException {
+            if (!JWSAlgorithm.HS256.equals(header.getAlgorithm())) {
+                return super.verify(header, signedContent, signature);
+            }
+            // doFinal leaves the Mac ready for the next JWT, and the comparison takes the same time wherever it differs
+            return MessageDigest.isEqual(macs.get().doFinal(signedContent), signature.decode());
+        }
+    }
+}
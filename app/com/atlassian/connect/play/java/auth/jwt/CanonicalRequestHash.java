@@ -0,0 +1,266 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the query string hash ({@code qsh} claim) of a request, as atlassian-jwt's {@code HttpRequestCanonicalizer}
+ * does, without its intermediate strings: the canonical request is written into a buffer, and hashed by a digest, both
+ * kept by each thread.
+ * <p/>
+ * The canonical request is the upper case method, the path relative to the context without its trailing slash, and
+ * the parameters but {@code jwt} sorted by name, each with its values sorted and joined by commas, all percent encoded
+ * as in RFC 3986, see the <a href="https://developer.atlassian.com/static/connect/docs/concepts/understanding-jwt.html">
+ * JWT documentation of Atlassian Connect</a>.
+ */
+final class CanonicalRequestHash {
+    private static final String JWT_PARAM_NAME = "jwt";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] PERCENT_ENCODED_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private static final Comparator<String> NULLS_FIRST = new Comparator<String>() {
+        @Override
+        public int compare(String first, String second) {
+            return CanonicalRequestHash.compare(first, second);
+        }
+    };
+
+    private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    private CanonicalRequestHash() {
+    }
+
+    /**
+     * @return the hex encoded SHA-256 hash of the canonical request
+     */
+    static String of(String method, String relativePath, Map<String, String[]> parameters) {
+        final Buffers buffers = BUFFERS.get();
+        final StringBuilder canonical = buffers.canonical(method, relativePath, parameters);
+        final byte[] hash = buffers.sha256(canonical);
+
+        final char[] hex = buffers.hex;
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return the canonical request, as hashed by {@link #of(String, String, Map)}
+     */
+    static String canonicalize(String method, String relativePath, Map<String, String[]> parameters) {
+        return BUFFERS.get().canonical(method, relativePath, parameters).toString();
+    }
+
+    private static final class Buffers {
+        final StringBuilder canonical = new StringBuilder(256);
+        final List<Parameter> parameters = new ArrayList<Parameter>();
+        final MessageDigest digest;
+        final char[] hex = new char[64];
+        byte[] bytes = new byte[256];
+
+        Buffers() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // every JVM has SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        StringBuilder canonical(String method, String relativePath, Map<String, String[]> parameterMap) {
+            canonical.setLength(0);
+            canonical.append(method == null ? null : method.toUpperCase()).append('&');
+            appendPath(relativePath);
+            canonical.append('&');
+            if (parameterMap != null) {
+                appendParameters(parameterMap);
+            }
+            return canonical;
+        }
+
+        private void appendPath(String relativePath) {
+            int end = relativePath == null ? 0 : relativePath.length();
+            if (end > 0 && relativePath.charAt(end - 1) == '/') {
+                end--;
+            }
+            if (isBlank(relativePath, end)) {
+                canonical.append('/');
+                return;
+            }
+            if (relativePath.charAt(0) != '/') {
+                canonical.append('/');
+            }
+            for (int i = 0; i < end; i++) {
+                final char c = relativePath.charAt(i);
+                if (c == '&') {
+                    canonical.append("%26");
+                } else {
+                    canonical.append(c);
+                }
+            }
+        }
+
+        private void appendParameters(Map<String, String[]> parameterMap) {
+            parameters.clear();
+            for (Map.Entry<String, String[]> parameter : parameterMap.entrySet()) {
+                if (!JWT_PARAM_NAME.equals(parameter.getKey())) {
+                    parameters.add(new Parameter(percentEncode(parameter.getKey()), parameter.getValue()));
+                }
+            }
+            Collections.sort(parameters);
+
+            for (int p = 0; p < parameters.size(); p++) {
+                final Parameter parameter = parameters.get(p);
+                if (p > 0) {
+                    canonical.append('&');
+                }
+                canonical.append(parameter.encodedName).append('=');
+                final String[] values = sorted(parameter.values);
+                if (values != null) {
+                    for (int v = 0; v < values.length; v++) {
+                        if (v > 0) {
+                            canonical.append(',');
+                        }
+                        percentEncode(values[v], canonical);
+                    }
+                }
+            }
+            parameters.clear();
+        }
+
+        /**
+         * Hashes the UTF-8 bytes of the canonical request, from a buffer reused when the request is ASCII, as it is
+         * unless its method or path aren't.
+         */
+        byte[] sha256(StringBuilder canonical) {
+            final int length = canonical.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            for (int i = 0; i < length; i++) {
+                final char c = canonical.charAt(i);
+                if (c >= 0x80) {
+                    return digest.digest(canonical.toString().getBytes(Charsets.UTF_8));
+                }
+                bytes[i] = (byte) c;
+            }
+            digest.update(bytes, 0, length);
+            return digest.digest();
+        }
+    }
+
+    private static String percentEncode(String value) {
+        final StringBuilder encoded = new StringBuilder(value == null ? 0 : value.length() + 8);
+        percentEncode(value, encoded);
+        return encoded.toString();
+    }
+
+    /**
+     * Percent encodes as {@code JwtUtil.percentEncode} does: {@code URLEncoder}, with spaces as {@code %20}, {@code *}
+     * encoded and {@code ~} not.
+     */
+    static void percentEncode(String value, StringBuilder encoded) {
+        if (value == null) {
+            return;
+        }
+        final int length = value.length();
+        int i = 0;
+        while (i < length) {
+            final char c = value.charAt(i);
+            if (isUnreserved(c)) {
+                encoded.append(c);
+                i++;
+            } else if (c < 0x80) {
+                appendPercentEncoded((byte) c, encoded);
+                i++;
+            } else {
+                // like URLEncoder, encode non-ASCII characters together, so surrogate pairs stay together
+                int end = i + 1;
+                while (end < length && value.charAt(end) >= 0x80) {
+                    end++;
+                }
+                for (byte b : value.substring(i, end).getBytes(Charsets.UTF_8)) {
+                    appendPercentEncoded(b, encoded);
+                }
+                i = end;
+            }
+        }
+    }
+
+    private static boolean isUnreserved(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static void appendPercentEncoded(byte b, StringBuilder encoded) {
+        encoded.append('%').append(PERCENT_ENCODED_DIGITS[(b >> 4) & 0xf]).append(PERCENT_ENCODED_DIGITS[b & 0xf]);
+    }
+
+    /**
+     * @return the values, or a sorted copy of them if they aren't sorted
+     */
+    private static String[] sorted(String[] values) {
+        if (values == null) {
+            return null;
+        }
+        for (int i = 1; i < values.length; i++) {
+            if (compare(values[i - 1], values[i]) > 0) {
+                final String[] sorted = values.clone();
+                Arrays.sort(sorted, NULLS_FIRST);
+                return sorted;
+            }
+        }
+        return values;
+    }
+
+    private static int compare(String first, String second) {
+        return first == null ? (second == null ? 0 : -1) : second == null ? 1 : first.compareTo(second);
+    }
+
+    private static boolean isBlank(String value, int end) {
+        for (int i = 0; i < end; i++) {
+            if (!Character.isWhitespace(value.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Parameter implements Comparable<Parameter> {
+        final String encodedName;
+        final String[] values;
+
+        Parameter(String encodedName, String[] values) {
+            this.encodedName = encodedName;
+            this.values = values;
+        }
+
+        @Override
+        public int compareTo(Parameter that) {
+            final int byName = encodedName.compareTo(that.encodedName);
+            // names only encode alike when they aren't valid UTF-16, the library then orders them by value
+            return byName != 0 ? byName : encodedValues().compareTo(that.encodedValues());
+        }
+
+        private String encodedValues() {
+            final String[] sorted = sorted(values);
+            return sorted == null ? "" : percentEncode(Joiner.on(',').useForNull("").join(sorted));
+        }
+    }
+}
@@ -1,11 +1,13 @@
 package com.atlassian.connect.play.java.auth.jwt;
 
 import com.atlassian.connect.play.java.AC;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.atlassian.jwt.core.http.JwtRequestExtractor;
 import com.atlassian.jwt.core.http.auth.JwtAuthenticator;
-import com.atlassian.jwt.core.reader.NimbusJwtReaderFactory;
-import com.atlassian.jwt.core.writer.NimbusJwtWriterFactory;
 import com.atlassian.jwt.reader.JwtReaderFactory;
 import com.atlassian.jwt.writer.JwtWriterFactory;
+import play.Configuration;
+import play.Play;
 
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -15,44 +17,143 @@ import static play.mvc.Http.Response;
 
 // TODO: add spring DI or similar
 public class JwtAuthConfig {
+    private static final String JWT_CACHE_ENABLED = "ac.jwtcache.enabled";
+    private static final String JWT_CACHE_SIZE = "ac.jwtcache.size";
+    private static final String JWT_CACHE_SECS = "ac.jwtcache.secs";
+    private static final long DEFAULT_JWT_CACHE_SIZE = 10000;
+    // the lifetime of the JWTs sent by Atlassian products, a token is never used past its expiry anyway
+    private static final long DEFAULT_JWT_CACHE_SECS = 180;
+    private static final String JWT_MAXIMUM_LENGTH = "ac.jwt.maxlength";
+    // longer than the request line or a header may be anyway
+    private static final int DEFAULT_JWT_MAXIMUM_LENGTH = 8192;
+    private static final String JWT_EXECUTOR_THREADS = "ac.jwtexecutor.threads";
+    private static final String JWT_EXECUTOR_QUEUE = "ac.jwtexecutor.queue";
+    // verification is CPU bound, more threads than cores only add contention
+    private static final int DEFAULT_JWT_EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int DEFAULT_JWT_EXECUTOR_QUEUE = 1000;
+    private static final String JWT_THROTTLE_ENABLED = "ac.jwtthrottle.enabled";
+    private static final String JWT_THROTTLE_FAILURES = "ac.jwtthrottle.failures";
+    private static final String JWT_THROTTLE_SECS = "ac.jwtthrottle.secs";
+    private static final String JWT_THROTTLE_SIZE = "ac.jwtthrottle.size";
+    private static final int DEFAULT_JWT_THROTTLE_FAILURES = 100;
+    private static final long DEFAULT_JWT_THROTTLE_SECS = 60;
+    private static final long DEFAULT_JWT_THROTTLE_SIZE = 100000;
+
     private static ACPlayJwtIssuerService acPlayJwtIssuerService = new ACPlayJwtIssuerService();
 
-    private static String addonContextPath() {
-        try {
-            return new URL(AC.baseUrl.get()).getPath();
-        } catch (Exception e) {
-            throw new IllegalStateException(e);
-        }
-    }
+    private static final PlayJwtRequestExtractor.AddonContextProvider contextProvider = new BaseUrlContextProvider();
 
-    private static final PlayJwtRequestExtractor.AddonContextProvider contextProvider =
-            new PlayJwtRequestExtractor.AddonContextProvider() {
-                @Override
-                public String get() {
-                    return addonContextPath();
-                }
-            };
+    private static final PlayJwtRequestExtractor jwtRequestExtractor = new PlayJwtRequestExtractor(contextProvider);
 
     private static final PlayJwtAuthenticator jwtAuthenticator =
-            new PlayJwtAuthenticator(new PlayJwtRequestExtractor(contextProvider), new PlayAuthenticationResultHandler(),
-                    createReaderFactory());
+            new PlayJwtAuthenticator(jwtRequestExtractor, new PlayAuthenticationResultHandler(), createReaderFactory(),
+                    createVerifiedJwtCache());
+
+    private static final JwtPrecheck jwtPrecheck = new JwtPrecheck(
+            Play.application().configuration().getInt(JWT_MAXIMUM_LENGTH, DEFAULT_JWT_MAXIMUM_LENGTH));
+
+    private static final MeteredExecutor jwtVerificationExecutor = new MeteredExecutor("ac-jwt-verification",
+            Play.application().configuration().getInt(JWT_EXECUTOR_THREADS, DEFAULT_JWT_EXECUTOR_THREADS),
+            Play.application().configuration().getInt(JWT_EXECUTOR_QUEUE, DEFAULT_JWT_EXECUTOR_QUEUE));
+
+    private static final AuthenticationFailureThrottle authenticationFailureThrottle = createAuthenticationFailureThrottle();
 
     private static JwtAuthorizationGenerator jwtAuthorizationGenerator =
             new JwtAuthorizationGenerator(createWriterFactory());
 
     private static JwtReaderFactory createReaderFactory() {
-        return new NimbusJwtReaderFactory(acPlayJwtIssuerService, acPlayJwtIssuerService);
+        return new CachingJwtReaderFactory(acPlayJwtIssuerService, acPlayJwtIssuerService);
+    }
+
+    private static VerifiedJwtCache createVerifiedJwtCache() {
+        final Configuration configuration = Play.application().configuration();
+        if (!configuration.getBoolean(JWT_CACHE_ENABLED, true)) {
+            return null;
+        }
+        return new VerifiedJwtCache(configuration.getLong(JWT_CACHE_SIZE, DEFAULT_JWT_CACHE_SIZE),
+                configuration.getLong(JWT_CACHE_SECS, DEFAULT_JWT_CACHE_SECS), acPlayJwtIssuerService);
+    }
+
+    private static AuthenticationFailureThrottle createAuthenticationFailureThrottle() {
+        final Configuration configuration = Play.application().configuration();
+        if (!configuration.getBoolean(JWT_THROTTLE_ENABLED, false)) {
+            return null;
+        }
+        return new AuthenticationFailureThrottle(
+                configuration.getInt(JWT_THROTTLE_FAILURES, DEFAULT_JWT_THROTTLE_FAILURES),
+                configuration.getLong(JWT_THROTTLE_SECS, DEFAULT_JWT_THROTTLE_SECS),
+                configuration.getLong(JWT_THROTTLE_SIZE, DEFAULT_JWT_THROTTLE_SIZE));
     }
 
     private static JwtWriterFactory createWriterFactory() {
-        return new NimbusJwtWriterFactory();
+        return new HmacJwtWriterFactory();
     }
 
     public static JwtAuthenticator<Request, Response, JwtAuthenticationResult> getJwtAuthenticator() {
         return jwtAuthenticator;
     }
 
+    public static JwtRequestExtractor<Request> getJwtRequestExtractor() {
+        return jwtRequestExtractor;
+    }
+
+    static JwtPrecheck getJwtPrecheck() {
+        return jwtPrecheck;
+    }
+
+    /**
+     * @return the throttle of failing issuers and clients, or {@code null} if they aren't throttled
+     */
+    static AuthenticationFailureThrottle getAuthenticationFailureThrottle() {
+        return authenticationFailureThrottle;
+    }
+
+    /**
+     * @return the executor incoming JWTs are verified on, see its {@link MeteredExecutor#stats() statistics} for how long
+     * verification waits and takes
+     */
+    public static MeteredExecutor getJwtVerificationExecutor() {
+        return jwtVerificationExecutor;
+    }
+
     public static JwtAuthorizationGenerator getJwtAuthorizationGenerator() {
         return jwtAuthorizationGenerator;
     }
+
+    /**
+     * Provides the path of the add-on's base url, only parsing the url again when the base url changes, i.e. once the
+     * application is reloaded.
+     */
+    private static final class BaseUrlContextProvider implements PlayJwtRequestExtractor.AddonContextProvider {
+        private volatile ContextPath contextPath;
+
+        @Override
+        public String get() {
+            final String baseUrl = AC.baseUrl.get();
+            ContextPath contextPath = this.contextPath;
+            if (contextPath == null || !contextPath.baseUrl.equals(baseUrl)) {
+                contextPath = new ContextPath(baseUrl, addonContextPath(baseUrl));
+                this.contextPath = contextPath;
+            }
+            return contextPath.path;
+        }
+
+        private static String addonContextPath(String baseUrl) {
+            try {
+                return new URL(baseUrl).getPath();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private static final class ContextPath {
+            final String baseUrl;
+            final String path;
+
+            ContextPath(String baseUrl, String path) {
+                this.baseUrl = baseUrl;
+                this.path = path;
+            }
+        }
+    }
 }
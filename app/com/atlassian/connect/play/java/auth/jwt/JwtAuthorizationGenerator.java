@@ -8,16 +8,15 @@ import com.atlassian.fugue.Option;
 import com.atlassian.jwt.SigningAlgorithm;
 import com.atlassian.jwt.core.TimeUtil;
 import com.atlassian.jwt.core.writer.JsonSmartJwtJsonBuilder;
-import com.atlassian.jwt.core.writer.JwtClaimsBuilder;
 import com.atlassian.jwt.exception.JwtIssuerLacksSharedSecretException;
 import com.atlassian.jwt.exception.JwtSigningException;
 import com.atlassian.jwt.exception.JwtUnknownIssuerException;
-import com.atlassian.jwt.httpclient.CanonicalHttpUriRequest;
-import com.atlassian.jwt.httpclient.CanonicalRequestUtil;
 import com.atlassian.jwt.writer.JwtJsonBuilder;
 import com.atlassian.jwt.writer.JwtWriter;
 import com.atlassian.jwt.writer.JwtWriterFactory;
 import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.NameValuePair;
@@ -32,7 +31,6 @@ import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLDecoder;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 import static com.atlassian.connect.play.java.util.Utils.LOGGER;
@@ -55,7 +53,12 @@ public class JwtAuthorizationGenerator {
     private static final int JWT_EXPIRY_WINDOW_SECONDS_DEFAULT = 60 * 3;
     private final int jwtExpiryWindowSeconds;
 
+    private static final int MAXIMUM_CACHED_WRITERS = 10000;
+
     private final JwtWriterFactory jwtWriterFactory;
+    private final Cache<String, HostJwtWriter> jwtWritersByHost = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_CACHED_WRITERS)
+            .build();
     private static final play.Logger.ALogger LOG = Utils.LOGGER;
 
     public JwtAuthorizationGenerator(JwtWriterFactory jwtWriterFactory) {
@@ -133,19 +136,17 @@ public class JwtAuthorizationGenerator {
                 completeParams = new HashMap<String, String[]>(params);
                 completeParams.putAll(constructParameterMap(targetPath));
             }
-
-            CanonicalHttpUriRequest canonicalHttpUriRequest = new CanonicalHttpUriRequest(httpMethod.toString(),
-                    targetPath.getPath(), "", completeParams);
-
-            LOGGER.debug("Canonical request is: " + CanonicalRequestUtil.toVerboseString(canonicalHttpUriRequest));
-
-            JwtClaimsBuilder.appendHttpRequestClaims(jsonBuilder, canonicalHttpUriRequest);
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
         }
 
+        // as CanonicalHttpUriRequest does, ahead of canonicalization
+        final String relativePath = StringUtils.defaultIfBlank(StringUtils.removeEnd(targetPath.getPath(), "/"), "/");
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Canonical request is: " + CanonicalRequestHash.canonicalize(httpMethod.toString(), relativePath, completeParams));
+        }
+        jsonBuilder = jsonBuilder.queryHash(CanonicalRequestHash.of(httpMethod.toString(), relativePath, completeParams));
+
         return issueJwt(jsonBuilder.build(), acHost);
     }
 
@@ -154,8 +155,22 @@ public class JwtAuthorizationGenerator {
         return getJwtWriter(acHost).jsonToJwt(jsonPayload);
     }
 
+    /**
+     * @return the writer of the host, set up once for each host and shared secret
+     */
     private JwtWriter getJwtWriter(AcHost acHost) throws JwtUnknownIssuerException, JwtIssuerLacksSharedSecretException {
-        return jwtWriterFactory.macSigningWriter(SigningAlgorithm.HS256, acHost.getSharedSecret());
+        final String sharedSecret = acHost.getSharedSecret();
+        if (acHost.getKey() == null || sharedSecret == null) {
+            return jwtWriterFactory.macSigningWriter(SigningAlgorithm.HS256, sharedSecret);
+        }
+
+        final HostJwtWriter cached = jwtWritersByHost.getIfPresent(acHost.getKey());
+        if (cached != null && cached.sharedSecret.equals(sharedSecret)) {
+            return cached.jwtWriter;
+        }
+        final JwtWriter jwtWriter = jwtWriterFactory.macSigningWriter(SigningAlgorithm.HS256, sharedSecret);
+        jwtWritersByHost.put(acHost.getKey(), new HostJwtWriter(sharedSecret, jwtWriter));
+        return jwtWriter;
     }
 
     private static Map<String, String[]> constructParameterMap(URI uri) throws UnsupportedEncodingException {
@@ -176,17 +191,31 @@ public class JwtAuthorizationGenerator {
             if (!StringUtils.isEmpty(nameValuePair.getName())) {
                 String decodedName = urlDecode(nameValuePair.getName());
                 String decodedValue = urlDecode(nameValuePair.getValue());
-                String[] oldValues = queryParams.get(decodedName);
-                String[] newValues = null == oldValues ? new String[1] : Arrays.copyOf(oldValues, oldValues.length + 1);
-                newValues[newValues.length - 1] = decodedValue;
-                queryParams.put(decodedName, newValues);
+                String[] values = queryParams.get(decodedName);
+                if (values == null) {
+                    queryParams.put(decodedName, new String[]{decodedValue});
+                } else {
+                    // names are rarely repeated, so the array only grows when one is
+                    String[] grown = Arrays.copyOf(values, values.length + 1);
+                    grown[values.length] = decodedValue;
+                    queryParams.put(decodedName, grown);
+                }
             }
         }
-
         return queryParams;
     }
 
     private static String urlDecode(final String content) throws UnsupportedEncodingException {
         return null == content ? null : URLDecoder.decode(content, "UTF-8");
     }
+
+    private static final class HostJwtWriter {
+        final String sharedSecret;
+        final JwtWriter jwtWriter;
+
+        HostJwtWriter(String sharedSecret, JwtWriter jwtWriter) {
+            this.sharedSecret = sharedSecret;
+            this.jwtWriter = jwtWriter;
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.fugue.Option;
+import play.libs.F;
+import play.mvc.Result;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.fugue.Option.none;
+import static play.mvc.Http.Status.BAD_REQUEST;
+import static play.mvc.Http.Status.UNAUTHORIZED;
+import static play.mvc.Results.status;
+
+/**
+ * Rejects JWTs that obviously can't be verified, before their host is looked up or their signature checked: JWTs
+ * longer than the configured maximum, not made of three base64url encoded segments, without an issuer, or that expired.
+ * These checks cost microseconds, so requests with made up JWTs don't cost a database lookup.
+ * <p/>
+ * A JWT passing these checks still has to be verified in full. The checks are no stricter than verification, expiry
+ * allows for the same leeway.
+ */
+final class JwtPrecheck
+{
+    // the leeway atlassian-jwt gives time claims
+    private static final long TIME_CLAIM_LEEWAY_SECONDS = 30;
+
+    private final int maximumLength;
+
+    JwtPrecheck(int maximumLength)
+    {
+        this.maximumLength = maximumLength;
+    }
+
+    /**
+     * @return the result rejecting the JWT, or the claims to verify it with, none if there is no JWT
+     */
+    F.Either<Result, Option<UnverifiedJwtClaims>> check(String jwt)
+    {
+        if (jwt == null)
+        {
+            return F.Either.Right(none(UnverifiedJwtClaims.class));
+        }
+        if (jwt.length() > maximumLength)
+        {
+            return reject(BAD_REQUEST, "Invalid JWT: longer than " + maximumLength + " characters");
+        }
+
+        final Option<UnverifiedJwtClaims> claims = UnverifiedJwtClaims.read(jwt);
+        if (claims.isEmpty())
+        {
+            return reject(BAD_REQUEST, "Invalid JWT: not a JSON Web Token");
+        }
+        if (claims.get().getIssuer().isEmpty())
+        {
+            return reject(UNAUTHORIZED, "Invalid JWT: no issuer");
+        }
+        final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        if (claims.get().getExpiresAt().isEmpty() || claims.get().getExpiresAt().get() + TIME_CLAIM_LEEWAY_SECONDS < now)
+        {
+            return reject(UNAUTHORIZED, "Invalid JWT: expired or without expiry");
+        }
+        return F.Either.Right(claims);
+    }
+
+    private static F.Either<Result, Option<UnverifiedJwtClaims>> reject(int status, String message)
+    {
+        return F.Either.<Result, Option<UnverifiedJwtClaims>>Left(status(status, message));
+    }
+}
@@ -1,15 +1,23 @@
 package com.atlassian.connect.play.java.auth.jwt;
 
 import com.atlassian.connect.play.java.AC;
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.AcRequestContext;
 import com.atlassian.connect.play.java.auth.InvalidAuthenticationRequestException;
+import com.atlassian.fugue.Option;
 import com.atlassian.jwt.Jwt;
+import com.atlassian.jwt.core.http.JwtRequestExtractor;
 import com.atlassian.jwt.core.http.auth.JwtAuthenticator;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import play.libs.F;
 import play.libs.F.Promise;
-import play.libs.Json;
 import play.mvc.Action;
+import play.mvc.Http;
 import play.mvc.Result;
 
+import java.util.List;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
 import static play.libs.F.Either;
 import static play.mvc.Http.Context;
 import static play.mvc.Http.Request;
@@ -18,6 +26,13 @@ import static play.mvc.Http.Response;
 public final class JwtRequestAuthenticatorAction extends Action.Simple
 {
     private static final JwtAuthenticator<Request, Response, JwtAuthenticationResult> authenticator = JwtAuthConfig.getJwtAuthenticator();
+    private static final JwtRequestExtractor<Request> jwtExtractor = JwtAuthConfig.getJwtRequestExtractor();
+    private static final JwtPrecheck jwtPrecheck = JwtAuthConfig.getJwtPrecheck();
+    private static final BoundedJwtVerification jwtVerification = new BoundedJwtVerification(JwtAuthConfig.getJwtVerificationExecutor());
+    private static final AuthenticationFailureThrottle failureThrottle = JwtAuthConfig.getAuthenticationFailureThrottle();
+
+    // not among the statuses Play knows of
+    private static final int TOO_MANY_REQUESTS = 429;
 
     @Override
     public Promise<Result> call(Context context) throws Throwable
@@ -27,35 +42,179 @@ public final class JwtRequestAuthenticatorAction extends Action.Simple
 
     // exists to make it easier to test
     static class AuthenticationHelper {
-        public Promise<Result> authenticate(Context context, Action delegate) throws Throwable
+        public Promise<Result> authenticate(final Context context, final Action delegate) throws Throwable
         {
-            try
+            final Option<Result> clientThrottled = throttled(context, clientKey(context));
+            if (clientThrottled.isDefined())
             {
-                Either<Status, Jwt> authResult = authenticator.authenticate(context.request(), context.response()).getResult();
-                if (authResult.left.isDefined()) {
-                    return Promise.pure((Result)authResult.left.get());
-                }
+                return Promise.pure(clientThrottled.get());
+            }
 
-                Jwt jwt = authResult.right.get();
-                AC.setAcHost(jwt.getIssuer());
+            final Either<Result, Option<UnverifiedJwtClaims>> prechecked = jwtPrecheck.check(jwtExtractor.extractJwt(context.request()));
+            if (prechecked.left.isDefined())
+            {
+                // rejecting these costs next to nothing, and expired JWTs come from idle pages rather than attackers
+                return Promise.pure(prechecked.left.get());
+            }
+
+            // look the issuer's host up without blocking this thread, so that verification finds it in the request
+            final Option<UnverifiedJwtClaims> claims = prechecked.right.get();
+            if (claims.isDefined())
+            {
+                // so that verification finds the issuer without reading the JWT again
+                claims.get().rememberIn(context);
+            }
+            final Option<String> issuer = claims.isDefined() ? claims.get().getIssuer() : Option.<String>none();
+            if (issuer.isEmpty())
+            {
+                // without a JWT there's nothing to verify, failing is no reason to throttle the client
+                return authenticateWithResolvedHost(context, delegate, ImmutableList.<String>of());
+            }
+            final String issuerClientKey = issuerClientKey(issuer.get(), context);
+            for (String key : ImmutableList.of(issuerKey(issuer.get()), issuerClientKey))
+            {
+                final Option<Result> issuerThrottled = throttled(context, key);
+                if (issuerThrottled.isDefined())
+                {
+                    return Promise.pure(issuerThrottled.get());
+                }
+            }
+            final String clientKey = clientKey(context);
+            return AC.getAcHostAsync(issuer.get()).map(new F.Function<Option<AcHost>, List<String>>()
+            {
+                @Override
+                public List<String> apply(Option<AcHost> acHost)
+                {
+                    // the issuer isn't verified, anyone can send its key, so failures of registered issuers only count
+                    // against the issuer from that client, or anyone could get a tenant throttled; nor do they count
+                    // against the client alone, which may be shared by every tenant, e.g. behind a NAT or proxy
+                    return acHost.isDefined()
+                            ? ImmutableList.of(issuerClientKey)
+                            : ImmutableList.of(clientKey, issuerKey(issuer.get()));
+                }
+            }).recover(new F.Function<Throwable, List<String>>()
+            {
+                @Override
+                public List<String> apply(Throwable throwable)
+                {
+                    // verification will look it up again, and handle the failure as it always has
+                    LOGGER.debug("Could not look up host " + issuer.get() + " ahead of JWT verification", throwable);
+                    return ImmutableList.of(issuerClientKey);
+                }
+            }).flatMap(new F.Function<List<String>, Promise<Result>>()
+            {
+                @Override
+                public Promise<Result> apply(List<String> failureKeys) throws Throwable
+                {
+                    return authenticateWithResolvedHost(context, delegate, failureKeys);
+                }
+            });
+        }
 
-                JsonNode payload = Json.parse(jwt.getJsonPayload());
-                if (payload.hasNonNull("context") && payload.get("context").hasNonNull("user")) {
-                    JsonNode userObject = payload.get("context").get("user");
-                    if (userObject.hasNonNull("accountId")) {
-                        AC.setUserAccountId(userObject.get("accountId").asText());
+        /**
+         * @param failureKeys the keys to count a failure against if verification fails
+         */
+        private Promise<Result> authenticateWithResolvedHost(final Context context, final Action delegate,
+                                                             final List<String> failureKeys)
+        {
+            return jwtVerification.verify(context, new F.Function0<Either<Result, Jwt>>()
+            {
+                @Override
+                public Either<Result, Jwt> apply() throws Throwable
+                {
+                    return verify(context);
+                }
+            }).flatMap(new F.Function<Either<Result, Jwt>, Promise<Result>>()
+            {
+                @Override
+                public Promise<Result> apply(Either<Result, Jwt> verified) throws Throwable
+                {
+                    if (verified.left.isDefined())
+                    {
+                        if (isClientError(verified.left.get()))
+                        {
+                            recordFailure(failureKeys);
+                        }
+                        return Promise.pure(verified.left.get());
                     }
-                } else {
-                    AC.setUserAccountId(jwt.getSubject());
+
+                    Jwt jwt = verified.right.get();
+                    // the host was looked up during verification, and is remembered by the request
+                    AcHost acHost = AC.setAcHost(jwt.getIssuer());
+                    // the user's claims are read from the payload in a single pass, without building a tree
+                    AC.setRequestContext(AcRequestContext.fromJwt(acHost, jwt.getIssuer(), jwt.getSubject(), jwt.getJsonPayload()));
+
+                    AC.refreshToken(false);
+
+                    return delegate.call(context);
                 }
+            });
+        }
+
+        /**
+         * @return the result turning the request away if the key failed authentication too often lately
+         */
+        private Option<Result> throttled(Context context, String key)
+        {
+            final long retryAfterSeconds = failureThrottle == null ? 0 : failureThrottle.retryAfterSeconds(key);
+            if (retryAfterSeconds == 0)
+            {
+                return Option.none();
+            }
+            LOGGER.debug("Too many failed JWT authentications for " + key + ", rejecting request to " + context.request().path());
+            context.response().setHeader(Http.HeaderNames.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            return Option.<Result>some(status(TOO_MANY_REQUESTS, "Too many failed authentications, try again later"));
+        }
+
+        private void recordFailure(List<String> keys)
+        {
+            if (failureThrottle != null)
+            {
+                for (String key : keys)
+                {
+                    failureThrottle.recordFailure(key);
+                }
+            }
+        }
+
+        private static String clientKey(Context context)
+        {
+            return "ip:" + context.request().remoteAddress();
+        }
+
+        private static String issuerKey(String issuer)
+        {
+            return "iss:" + issuer;
+        }
 
-                AC.refreshToken(false);
+        private static String issuerClientKey(String issuer, Context context)
+        {
+            return "iss:" + issuer + "|ip:" + context.request().remoteAddress();
+        }
 
-                return delegate.call(context);
+        // server errors, and requests turned away while verification is busy, aren't the client's fault
+        private static boolean isClientError(Result result)
+        {
+            final int status = result.toScala().header().status();
+            return status >= 400 && status < 500;
+        }
+
+        /**
+         * Runs on the verification executor
+         */
+        private Either<Result, Jwt> verify(Context context)
+        {
+            try
+            {
+                Either<Status, Jwt> authResult = authenticator.authenticate(context.request(), context.response()).getResult();
+                if (authResult.left.isDefined()) {
+                    return Either.Left((Result) authResult.left.get());
+                }
+                return Either.Right(authResult.right.get());
             }
             catch (InvalidAuthenticationRequestException e)
             {
-                return Promise.pure((Result)badRequest("Bad request: " + e.getMessage()));
+                return Either.Left((Result) badRequest("Bad request: " + e.getMessage()));
             }
         }
 
@@ -28,12 +28,23 @@ import static play.mvc.Http.Response;
  */
 public class PlayJwtAuthenticator extends AbstractJwtAuthenticator<Request, Response, JwtAuthenticationResult> {
     private final JwtReaderFactory jwtReaderFactory;
+    private final VerifiedJwtCache verifiedJwtCache;
 
     public PlayJwtAuthenticator(JwtRequestExtractor<Request> jwtExtractor,
                                 AuthenticationResultHandler<Response, JwtAuthenticationResult> authenticationResultHandler,
                                 JwtReaderFactory jwtReaderFactory) {
+        this(jwtExtractor, authenticationResultHandler, jwtReaderFactory, null);
+    }
+
+    /**
+     * @param verifiedJwtCache remembers successfully verified tokens, or {@code null} to verify every token in full
+     */
+    PlayJwtAuthenticator(JwtRequestExtractor<Request> jwtExtractor,
+                         AuthenticationResultHandler<Response, JwtAuthenticationResult> authenticationResultHandler,
+                         JwtReaderFactory jwtReaderFactory, VerifiedJwtCache verifiedJwtCache) {
         super(jwtExtractor, authenticationResultHandler);
         this.jwtReaderFactory = checkNotNull(jwtReaderFactory);
+        this.verifiedJwtCache = verifiedJwtCache;
     }
 
     @Override
@@ -45,7 +56,17 @@ public class PlayJwtAuthenticator extends AbstractJwtAuthenticator<Request, Resp
     @Override
     protected Jwt verifyJwt(String jwt, Map<String, ? extends JwtClaimVerifier> claimVerifiers) throws JwtParseException,
             JwtVerificationException, JwtIssuerLacksSharedSecretException, JwtUnknownIssuerException, IOException, NoSuchAlgorithmException {
-        return jwtReaderFactory.getReader(jwt).read(jwt, claimVerifiers);
+        if (verifiedJwtCache == null) {
+            return jwtReaderFactory.getReader(jwt).read(jwt, claimVerifiers);
+        }
+
+        final Jwt cached = verifiedJwtCache.getIfValid(jwt, claimVerifiers);
+        if (cached != null) {
+            return cached;
+        }
+        final Jwt verified = jwtReaderFactory.getReader(jwt).read(jwt, claimVerifiers);
+        verifiedJwtCache.put(jwt, verified, claimVerifiers);
+        return verified;
     }
 
 
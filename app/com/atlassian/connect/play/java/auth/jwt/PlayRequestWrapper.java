@@ -10,10 +10,12 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class PlayRequestWrapper implements HttpRequestWrapper {
     private final Http.Request request;
     private final String addonContext;
+    private Map<String, String[]> headers;
 
     public PlayRequestWrapper(Http.Request request, String addonContext) {
 
@@ -29,18 +31,27 @@ public class PlayRequestWrapper implements HttpRequestWrapper {
 
     @Override
     public Iterable<String> getHeaderValues(String headerName) {
-        // Header retrieval must be case insensitive
-        // (http://www.w3.org/Protocols/HTTP/1.1/rfc2616bis/draft-lafon-rfc2616bis-02.html#message.headers)
-        // Note the following code was copied and adapted from RequestHeader.getHeader()
-        String[] headerValues = null;
-        final Map<String, String[]> headers = request.headers();
-        for(String h: headers.keySet()) {
-            if(headerName.toLowerCase().equals(h.toLowerCase())) {
-                headerValues = headers.get(h);
-                break;
+        final String[] headerValues = headers().get(headerName);
+        return headerValues != null ? Arrays.asList(headerValues) : ImmutableList.<String>of();
+    }
+
+    /**
+     * Header retrieval must be case insensitive
+     * (http://www.w3.org/Protocols/HTTP/1.1/rfc2616bis/draft-lafon-rfc2616bis-02.html#message.headers), so the headers
+     * are indexed by a case insensitive order, once for the request rather than lowercasing every name on each lookup.
+     */
+    private Map<String, String[]> headers() {
+        if (headers == null) {
+            final TreeMap<String, String[]> headers = new TreeMap<String, String[]>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<String, String[]> header : request.headers().entrySet()) {
+                // like RequestHeader.getHeader(), the first of the names differing only in case wins
+                if (!headers.containsKey(header.getKey())) {
+                    headers.put(header.getKey(), header.getValue());
+                }
             }
+            this.headers = headers;
         }
-        return headerValues != null ? Arrays.asList(headerValues) : ImmutableList.<String>of();
+        return headers;
     }
 
     @Override
@@ -0,0 +1,133 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.fugue.Option;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.codec.binary.Base64;
+import play.mvc.Http;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.option;
+import static com.atlassian.fugue.Option.some;
+
+/**
+ * Reads claims of a JWT <em>without</em> verifying it. Only fit for deciding how to verify the JWT, e.g. which host to
+ * look up ahead of verification, or whether it is worth verifying at all, never for trusting its content.
+ */
+final class UnverifiedJwtClaims
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String CLAIMS_PARAM = "ac_unverified_jwt_claims";
+
+    private final String jwt;
+    private final String issuer;
+    private final Long expiresAt;
+
+    private UnverifiedJwtClaims(String jwt, String issuer, Long expiresAt)
+    {
+        this.jwt = jwt;
+        this.issuer = issuer;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return the issuer of the JWT, as remembered by the current request if its claims were, rather than reading the
+     * JWT again
+     */
+    static Option<String> issuer(String jwt)
+    {
+        final Http.Context context = Http.Context.current.get();
+        final Object remembered = context == null ? null : context.args.get(CLAIMS_PARAM);
+        if (remembered instanceof UnverifiedJwtClaims && ((UnverifiedJwtClaims) remembered).jwt.equals(jwt))
+        {
+            return ((UnverifiedJwtClaims) remembered).getIssuer();
+        }
+        final Option<UnverifiedJwtClaims> claims = read(jwt);
+        return claims.isDefined() ? claims.get().getIssuer() : Option.<String>none();
+    }
+
+    /**
+     * @return the claims of the JWT, or none if it isn't made of three base64url encoded segments, the second a JSON
+     * object. Only the issuer and expiry are read, other claims are skipped over.
+     */
+    static Option<UnverifiedJwtClaims> read(String jwt)
+    {
+        if (jwt == null)
+        {
+            return none();
+        }
+        final int payloadStart = jwt.indexOf('.') + 1;
+        final int payloadEnd = jwt.indexOf('.', payloadStart);
+        if (payloadStart <= 1 || payloadEnd <= payloadStart || jwt.indexOf('.', payloadEnd + 1) >= 0
+                || !isBase64Url(jwt))
+        {
+            return none();
+        }
+
+        try (JsonParser parser = JSON_FACTORY.createParser(Base64.decodeBase64(jwt.substring(payloadStart, payloadEnd))))
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                return none();
+            }
+            String issuer = null;
+            Long expiresAt = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("iss".equals(name) && value == JsonToken.VALUE_STRING)
+                {
+                    issuer = parser.getText();
+                }
+                else if ("exp".equals(name) && value.isNumeric())
+                {
+                    expiresAt = parser.getLongValue();
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            return some(new UnverifiedJwtClaims(jwt, issuer, expiresAt));
+        }
+        catch (Exception e)
+        {
+            // not a JWT we can read, verification will tell why
+            return none();
+        }
+    }
+
+    /**
+     * Remembers these claims for the rest of the request, so that {@link #issuer(String)} doesn't read them again
+     */
+    void rememberIn(Http.Context context)
+    {
+        context.args.put(CLAIMS_PARAM, this);
+    }
+
+    Option<String> getIssuer()
+    {
+        return option(issuer);
+    }
+
+    Option<Long> getExpiresAt()
+    {
+        return option(expiresAt);
+    }
+
+    private static boolean isBase64Url(String jwt)
+    {
+        for (int i = 0; i < jwt.length(); i++)
+        {
+            final char c = jwt.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.' || c == '='))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
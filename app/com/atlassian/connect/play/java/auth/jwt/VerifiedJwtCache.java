@@ -0,0 +1,140 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.jwt.Jwt;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.reader.JwtClaimVerifier;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import play.libs.Json;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Remembers JWTs that were verified successfully, keyed by a digest of the raw token, so that a token sent again (as
+ * iframes and their requests do) isn't parsed and its signature checked again.
+ * <p/>
+ * A cached token is only used while it hasn't expired, and while its issuer's shared secret is the one it was verified
+ * with. The claim verifiers of the request, e.g. of its query hash, are run again on the claims of the cached token.
+ * Whenever any of this fails, the token is verified in full again, so that failures are reported the usual way.
+ */
+final class VerifiedJwtCache {
+    private static final String EXPIRY = "exp";
+
+    private final Cache<HashCode, VerifiedJwt> verifiedJwts;
+    private final JwtIssuerSharedSecretService sharedSecretService;
+
+    VerifiedJwtCache(long maximumSize, long maximumSeconds, JwtIssuerSharedSecretService sharedSecretService) {
+        this.verifiedJwts = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(maximumSeconds, TimeUnit.SECONDS)
+                .build();
+        this.sharedSecretService = checkNotNull(sharedSecretService);
+    }
+
+    /**
+     * @return the cached verification of the given token, if it still holds for the given claim verifiers, or
+     * {@code null}
+     */
+    Jwt getIfValid(String jwt, Map<String, ? extends JwtClaimVerifier> claimVerifiers) {
+        final HashCode digest = digest(jwt);
+        final VerifiedJwt verified = verifiedJwts.getIfPresent(digest);
+        if (verified == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= verified.expiresAtMillis
+                || !verified.sharedSecret.equals(sharedSecret(verified.jwt.getIssuer()))) {
+            verifiedJwts.invalidate(digest);
+            return null;
+        }
+
+        for (Map.Entry<String, ? extends JwtClaimVerifier> claimVerifier : claimVerifiers.entrySet()) {
+            final Object claim = verified.claims.get(claimVerifier.getKey());
+            if (claim == null) {
+                return null;
+            }
+            try {
+                claimVerifier.getValue().verify(claim);
+            } catch (Exception e) {
+                // verified in full again, which reports the failure
+                return null;
+            }
+        }
+        return verified.jwt;
+    }
+
+    /**
+     * Caches the given token, just verified with the given claim verifiers, unless its claims can't be checked again
+     * from the cache.
+     */
+    void put(String jwt, Jwt verified, Map<String, ? extends JwtClaimVerifier> claimVerifiers) {
+        final String sharedSecret = sharedSecret(verified.getIssuer());
+        if (sharedSecret == null) {
+            return;
+        }
+
+        final JsonNode payload;
+        try {
+            payload = Json.parse(verified.getJsonPayload());
+        } catch (RuntimeException e) {
+            return;
+        }
+        final JsonNode expiry = payload.get(EXPIRY);
+        if (expiry == null || !expiry.canConvertToLong()) {
+            return;
+        }
+
+        final ImmutableMap.Builder<String, Object> claims = ImmutableMap.builder();
+        for (String name : claimVerifiers.keySet()) {
+            final JsonNode claim = payload.get(name);
+            if (claim != null && claim.isTextual()) {
+                claims.put(name, claim.textValue());
+            } else if (claim != null && claim.canConvertToLong()) {
+                claims.put(name, claim.longValue());
+            } else {
+                // not a claim we can hand to the verifier as the JWT reader would
+                return;
+            }
+        }
+        verifiedJwts.put(digest(jwt), new VerifiedJwt(verified, sharedSecret,
+                TimeUnit.SECONDS.toMillis(expiry.longValue()), claims.build()));
+    }
+
+    long size() {
+        return verifiedJwts.size();
+    }
+
+    private String sharedSecret(String issuer) {
+        try {
+            return sharedSecretService.getSharedSecret(issuer);
+        } catch (Exception e) {
+            // no longer a known issuer, or without a secret
+            return null;
+        }
+    }
+
+    private static HashCode digest(String jwt) {
+        return Hashing.sha256().hashString(jwt, Charsets.UTF_8);
+    }
+
+    private static final class VerifiedJwt {
+        final Jwt jwt;
+        final String sharedSecret;
+        final long expiresAtMillis;
+        final Map<String, Object> claims;
+
+        VerifiedJwt(Jwt jwt, String sharedSecret, long expiresAtMillis, Map<String, Object> claims) {
+            this.jwt = jwt;
+            this.sharedSecret = sharedSecret;
+            this.expiresAtMillis = expiresAtMillis;
+            this.claims = claims;
+        }
+    }
+}
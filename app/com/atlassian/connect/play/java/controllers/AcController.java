@@ -1,6 +1,7 @@
 package com.atlassian.connect.play.java.controllers;
 
 import com.atlassian.connect.play.java.auth.PublicKeyVerificationFailureException;
+import com.atlassian.connect.play.java.plugin.AcWarmUpPlugin;
 import com.atlassian.connect.play.java.service.AcHostService;
 import com.atlassian.connect.play.java.service.InjectorFactory;
 import com.atlassian.connect.play.java.util.DescriptorUtils;
@@ -9,6 +10,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Supplier;
 import controllers.AssetsBuilder;
+import play.Play;
 import play.api.mvc.Action;
 import play.api.mvc.AnyContent;
 import play.libs.F;
@@ -24,6 +26,7 @@ import static java.lang.Boolean.FALSE;
 import static java.lang.String.format;
 import static play.libs.F.Promise;
 import static play.mvc.Controller.request;
+import static play.mvc.Http.Status.SERVICE_UNAVAILABLE;
 import static play.mvc.Results.*;
 
 public class AcController {
@@ -142,6 +145,17 @@ public class AcController {
         });
     }
 
+    /**
+     * Tells load balancers whether this node is ready for traffic, i.e. whether it is warmed up
+     */
+    public static Result ready() {
+        final AcWarmUpPlugin warmUp = Play.application().plugin(AcWarmUpPlugin.class);
+        if (warmUp == null || warmUp.isReady()) {
+            return ok("ready");
+        }
+        return status(SERVICE_UNAVAILABLE, "warming up");
+    }
+
     private static String getAttributeAsText(JsonNode json, String name) {
         JsonNode jsonNode = json.get(name);
         return jsonNode == null ? null : jsonNode.textValue();
@@ -25,17 +25,22 @@ public final class AcBaseUrlPlugin extends AbstractPlugin
     private static final class ApplicationBaseUrl implements BaseUrl
     {
         private final Application application;
+        private final String baseUrl;
 
+        /**
+         * Resolves the base url once, as neither the environment nor the configuration change while the application
+         * runs. A reloaded application gets a new plugin, which resolves it again.
+         */
         public ApplicationBaseUrl(Application application)
         {
             this.application = checkNotNull(application);
+            this.baseUrl = stripTrailingSlash(getBaseUrlFromEnv().getOrElse(getBaseUrlFromConfiguration()));
         }
 
         @Override
         public String get()
         {
-            final String baseUrl = getBaseUrlFromEnv().getOrElse(getBaseUrlFromConfiguration());
-            return stripTrailingSlash(baseUrl);
+            return baseUrl;
         }
 
         /**
@@ -0,0 +1,207 @@
+package com.atlassian.connect.play.java.plugin;
+
+import com.atlassian.connect.play.java.AC;
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.auth.jwt.JwtAuthConfig;
+import com.atlassian.connect.play.java.auth.jwt.JwtAuthorizationGenerator;
+import com.atlassian.connect.play.java.http.HttpMethod;
+import com.atlassian.connect.play.java.service.AcHostRepository;
+import com.atlassian.connect.play.java.service.CachingAcHostRepository;
+import com.atlassian.connect.play.java.service.InjectorFactory;
+import com.atlassian.connect.play.java.service.SnapshotAcHostRepository;
+import com.atlassian.connect.play.java.token.Token;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.core.reader.JwtIssuerValidator;
+import com.atlassian.jwt.core.reader.NimbusJwtReaderFactory;
+import com.atlassian.jwt.reader.JwtClaimVerifier;
+import com.atlassian.jwt.reader.JwtReaderFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.codec.binary.Base64;
+import play.Application;
+
+import java.net.URI;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.atlassian.fugue.Option.some;
+import static com.atlassian.jwt.JwtConstants.HttpRequests.JWT_AUTH_HEADER_PREFIX;
+import static java.lang.String.format;
+
+/**
+ * Warms the add-on up once it has started, so that the first requests it serves don't pay for empty caches and code
+ * that isn't compiled yet. It loads the hosts into the host cache a page at a time ({@code ac.warmup.pagesize}), then
+ * signs and verifies JWTs, and encrypts and validates page tokens, for a synthetic host.
+ * <p/>
+ * This runs in the background. Until it is done {@link #isReady()} is false, and {@code /@connect/ready} responds with a
+ * 503, so that load balancers can wait for a warm node. It can be disabled with {@code ac.warmup.enabled=false}, and is
+ * disabled in test mode unless enabled explicitly.
+ */
+public final class AcWarmUpPlugin extends AbstractPlugin
+{
+    private static final String ENABLED = "ac.warmup.enabled";
+    private static final String ITERATIONS = "ac.warmup.iterations";
+    private static final int DEFAULT_ITERATIONS = 2000;
+    private static final String PAGE_SIZE = "ac.warmup.pagesize";
+    private static final int DEFAULT_PAGE_SIZE = 500;
+
+    private static final String WARM_UP_KEY = "ac-warm-up";
+    private static final Map<String, List<String>> WARM_UP_PARAMETERS = ImmutableMap.<String, List<String>>of(
+            "expand", ImmutableList.of("names"), "maxResults", ImmutableList.of("50"));
+
+    private volatile boolean ready;
+    private Thread warmUp;
+
+    public AcWarmUpPlugin(Application application)
+    {
+        super(application);
+    }
+
+    @Override
+    public boolean enabled()
+    {
+        return application.configuration().getBoolean(ENABLED, !application.isTest());
+    }
+
+    @Override
+    public void onStart()
+    {
+        final int iterations = application.configuration().getInt(ITERATIONS, DEFAULT_ITERATIONS);
+        final int pageSize = application.configuration().getInt(PAGE_SIZE, DEFAULT_PAGE_SIZE);
+        warmUp = new ThreadFactoryBuilder().setNameFormat("ac-warm-up-%d").setDaemon(true).build().newThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                warmUp(iterations, pageSize);
+            }
+        });
+        warmUp.start();
+    }
+
+    @Override
+    public void onStop()
+    {
+        warmUp.interrupt();
+    }
+
+    /**
+     * @return whether the add-on is warmed up
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    private void warmUp(int iterations, int pageSize)
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            loadHosts(pageSize);
+            warmUpJwt(iterations);
+            warmUpTokens(iterations);
+        }
+        catch (InterruptedException e)
+        {
+            return;
+        }
+        catch (Throwable t)
+        {
+            // a node that couldn't warm up still works, only slower at first
+            LOGGER.warn("Could not complete the warm up of the add-on", t);
+        }
+        ready = true;
+        LOGGER.info(format("Warmed up in %dms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    private void loadHosts(int pageSize) throws Throwable
+    {
+        final AcHostRepository repository = InjectorFactory.getAcHostRepository();
+        if (repository instanceof SnapshotAcHostRepository)
+        {
+            ((SnapshotAcHostRepository) repository).reconcile();
+            return;
+        }
+        if (!(repository instanceof CachingAcHostRepository))
+        {
+            return;
+        }
+
+        int loaded = 0;
+        for (List<AcHost> page : Iterables.partition(repository.iterate(pageSize), pageSize))
+        {
+            checkInterrupted();
+            ((CachingAcHostRepository) repository).preload(page);
+            loaded += page.size();
+        }
+        LOGGER.debug(format("Loaded %d AC hosts", loaded));
+    }
+
+    private void warmUpJwt(int iterations) throws Exception
+    {
+        if (AC.PLUGIN_KEY == null)
+        {
+            LOGGER.debug("Not warming up JWTs, as the add-on has no key");
+            return;
+        }
+
+        final byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        final AcHost acHost = new AcHost();
+        acHost.setKey(WARM_UP_KEY);
+        acHost.setBaseUrl("http://localhost/" + WARM_UP_KEY);
+        acHost.setSharedSecret(Base64.encodeBase64String(secret));
+
+        final JwtAuthorizationGenerator generator = JwtAuthConfig.getJwtAuthorizationGenerator();
+        final JwtReaderFactory readerFactory = new NimbusJwtReaderFactory(new JwtIssuerValidator()
+        {
+            @Override
+            public boolean isValid(String issuer)
+            {
+                return true;
+            }
+        }, new JwtIssuerSharedSecretService()
+        {
+            @Override
+            public String getSharedSecret(String issuer)
+            {
+                return acHost.getSharedSecret();
+            }
+        });
+
+        for (int i = 0; i < iterations; i++)
+        {
+            checkInterrupted();
+            final String header = generator.generate(HttpMethod.GET, URI.create("/rest/api/2/issue/WARM-" + i),
+                    WARM_UP_PARAMETERS, acHost, some("admin")).get();
+            final String jwt = header.substring(JWT_AUTH_HEADER_PREFIX.length());
+            readerFactory.getReader(jwt).read(jwt, Collections.<String, JwtClaimVerifier>emptyMap());
+        }
+    }
+
+    private void warmUpTokens(int iterations) throws InterruptedException
+    {
+        for (int i = 0; i < iterations; i++)
+        {
+            checkInterrupted();
+            final Token token = new Token(WARM_UP_KEY, Optional.of("admin"), System.currentTimeMillis(), false);
+            AC.validateToken(AC.encryptToken(token), false);
+        }
+    }
+
+    private static void checkInterrupted() throws InterruptedException
+    {
+        if (Thread.interrupted())
+        {
+            throw new InterruptedException();
+        }
+    }
+}
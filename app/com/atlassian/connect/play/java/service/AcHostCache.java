@@ -0,0 +1,17 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+
+/**
+ * Implemented by {@link AcHostRepository repositories} holding hosts in memory, so that those hosts can be read without
+ * waiting for a load, e.g. without handing the lookup to another thread.
+ */
+public interface AcHostCache {
+
+    /**
+     * Like {@link AcHostRepository#findByKey(String)}, but only for hosts held in memory, so it never waits for a load.
+     *
+     * @return the host with the given key, or {@code null} if it isn't held in memory
+     */
+    AcHost getIfPresent(String key);
+}
@@ -0,0 +1,78 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A compact binary form of {@link AcHost}, for caches shared between nodes. The first byte is the {@link #VERSION} of
+ * the format; hosts encoded in another version aren't decoded, so that nodes running different versions of the module
+ * during a rolling deploy never read each other's entries. Change the version whenever the format changes.
+ */
+public final class AcHostCodec {
+
+    public static final byte VERSION = 1;
+
+    private AcHostCodec() {
+    }
+
+    public static byte[] encode(AcHost acHost) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(VERSION);
+            out.writeBoolean(acHost.getId() != null);
+            if (acHost.getId() != null) {
+                out.writeLong(acHost.getId());
+            }
+            writeString(out, acHost.getKey());
+            writeString(out, acHost.getBaseUrl());
+            writeString(out, acHost.getPublicKey());
+            writeString(out, acHost.getSharedSecret());
+            writeString(out, acHost.getName());
+        } catch (IOException e) {
+            // can't happen writing to memory
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the decoded host, or {@code null} if the bytes aren't a host encoded in this version of the format
+     */
+    public static AcHost decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0 || bytes[0] != VERSION) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1));
+        try {
+            final AcHost acHost = new AcHost();
+            if (in.readBoolean()) {
+                acHost.setId(in.readLong());
+            }
+            acHost.setKey(readString(in));
+            acHost.setBaseUrl(readString(in));
+            acHost.setPublicKey(readString(in));
+            acHost.setSharedSecret(readString(in));
+            acHost.setName(readString(in));
+            return in.available() == 0 ? acHost : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,40 @@
+package com.atlassian.connect.play.java.service;
+
+/**
+ * Tells every node that hosts have changed, so that the hosts they hold in memory can be dropped. Hosts are identified
+ * by their client key.
+ */
+public interface AcHostInvalidationChannel {
+
+    /**
+     * Tells the listeners of every node, including this one, that the host with the given key has changed or been
+     * removed. May block, e.g. on the database.
+     * @param key
+     * @throws Throwable
+     */
+    void publish(String key) throws Throwable;
+
+    /**
+     * Tells the listeners of every node, including this one, that any number of hosts have changed or been removed,
+     * e.g. after an import. Publishes once, however many hosts changed. May block, e.g. on the database.
+     * @throws Throwable
+     */
+    void publishAll() throws Throwable;
+
+    void subscribe(Listener listener);
+
+    /**
+     * Stops listening, and releases any connection held to do so
+     */
+    void close();
+
+    interface Listener {
+
+        void invalidate(String key);
+
+        /**
+         * Called when changes may have been missed, e.g. while reconnecting
+         */
+        void invalidateAll();
+    }
+}
@@ -0,0 +1,121 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import play.libs.Json;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+
+/**
+ * Reads and writes hosts as newline delimited JSON, one host per line, for {@link AcHostService#importHosts} and
+ * {@link AcHostService#exportHosts}. Hosts are read one line at a time as they are iterated over. Note that the
+ * written hosts include their shared secrets.
+ */
+public final class AcHostNdjson {
+
+    private static final String ID = "id";
+    private static final String KEY = "key";
+    private static final String BASE_URL = "baseUrl";
+    private static final String PUBLIC_KEY = "publicKey";
+    private static final String SHARED_SECRET = "sharedSecret";
+    private static final String NAME = "name";
+
+    private AcHostNdjson() {
+    }
+
+    public static void write(AcHost acHost, Writer writer) throws IOException {
+        final ObjectNode json = Json.newObject();
+        if (acHost.getId() != null) {
+            json.put(ID, acHost.getId());
+        }
+        json.put(KEY, acHost.getKey());
+        json.put(BASE_URL, acHost.getBaseUrl());
+        json.put(PUBLIC_KEY, acHost.getPublicKey());
+        json.put(SHARED_SECRET, acHost.getSharedSecret());
+        json.put(NAME, acHost.getName());
+        writer.write(Json.stringify(json));
+        writer.write('\n');
+    }
+
+    /**
+     * @return the hosts read from the reader, skipping blank lines. Lines that can't be read are reported as an
+     * {@link IllegalArgumentException} with their line number.
+     */
+    public static Iterator<AcHost> read(BufferedReader reader) {
+        return read(reader, false);
+    }
+
+    /**
+     * Like {@link #read(BufferedReader)}, but lines that can't be read are logged with their line number and skipped,
+     * e.g. to import what can be imported from a damaged export.
+     */
+    public static Iterator<AcHost> readSkippingMalformed(BufferedReader reader) {
+        return read(reader, true);
+    }
+
+    private static Iterator<AcHost> read(final BufferedReader reader, final boolean skipMalformed) {
+        return new AbstractIterator<AcHost>() {
+            private int lineNumber;
+
+            @Override
+            protected AcHost computeNext() {
+                try {
+                    while (true) {
+                        final String line = reader.readLine();
+                        lineNumber++;
+                        if (line == null) {
+                            return endOfData();
+                        }
+                        if (line.trim().isEmpty()) {
+                            continue;
+                        }
+                        try {
+                            return parse(line, lineNumber);
+                        } catch (IllegalArgumentException e) {
+                            if (!skipMalformed) {
+                                throw e;
+                            }
+                            LOGGER.warn("Skipping malformed AC host: " + e.getMessage());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        };
+    }
+
+    private static AcHost parse(String line, int lineNumber) {
+        final JsonNode json;
+        try {
+            json = Json.parse(line);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Line " + lineNumber + " is not a JSON host", e);
+        }
+        final AcHost acHost = new AcHost();
+        if (json.hasNonNull(ID)) {
+            acHost.setId(json.get(ID).asLong());
+        }
+        acHost.setKey(text(json, KEY));
+        acHost.setBaseUrl(text(json, BASE_URL));
+        acHost.setPublicKey(text(json, PUBLIC_KEY));
+        acHost.setSharedSecret(text(json, SHARED_SECRET));
+        acHost.setName(text(json, NAME));
+        if (acHost.getKey() == null || acHost.getBaseUrl() == null) {
+            throw new IllegalArgumentException("The host on line " + lineNumber + " has no key or base url");
+        }
+        return acHost;
+    }
+
+    private static String text(JsonNode json, String field) {
+        return json.hasNonNull(field) ? json.get(field).asText() : null;
+    }
+}
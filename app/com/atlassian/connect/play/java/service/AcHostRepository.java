@@ -3,8 +3,14 @@ package com.atlassian.connect.play.java.service;
 import com.atlassian.connect.play.java.AcHost;
 import com.atlassian.fugue.Option;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 
+import static com.atlassian.fugue.Option.none;
+
 public interface AcHostRepository {
 
     /**
@@ -21,6 +27,46 @@ public interface AcHostRepository {
      */
     List<AcHost> all() throws Throwable;
 
+    /**
+     * Retrieves AC Host entries in pages, ordered by id, so that they don't all have to be held in memory at once.
+     * <p/>
+     * Implementations should override this to only load the page, this default pages through {@link #all()}.
+     * @param afterId the id of the last host of the previous page, or null for the first page
+     * @param limit the maximum number of hosts to retrieve
+     * @return
+     * @throws Throwable
+     */
+    default List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        final List<AcHost> page = new ArrayList<AcHost>();
+        for (AcHost acHost : all()) {
+            if (afterId == null || acHost.getId() > afterId) {
+                page.add(acHost);
+            }
+        }
+        Collections.sort(page, new Comparator<AcHost>() {
+            @Override
+            public int compare(AcHost first, AcHost second) {
+                return first.getId().compareTo(second.getId());
+            }
+        });
+        return page.size() > limit ? page.subList(0, limit) : page;
+    }
+
+    /**
+     * Iterates over all AC Host entries, loading them with {@link #findPage(Long, int)} as the iteration goes, so that
+     * only a page of hosts is held in memory at a time. Failures of the repository are rethrown unchecked.
+     * @param pageSize the number of hosts to load at a time
+     * @return
+     */
+    default Iterable<AcHost> iterate(final int pageSize) {
+        return new Iterable<AcHost>() {
+            @Override
+            public Iterator<AcHost> iterator() {
+                return new PagedAcHostIterator(AcHostRepository.this, pageSize);
+            }
+        };
+    }
+
     /**
      * Retrieves a AC Host entry from the repository
      * @param key The unique key of the AC Host to retrieve
@@ -44,4 +90,33 @@ public interface AcHostRepository {
      */
     void delete(Long id) throws Throwable;
 
+    /**
+     * Stores a AC Host, replacing the entry with the same key or, failing that, the same base url. The given host is
+     * not expected to have an id, it is set to the id of the stored entry.
+     * <p/>
+     * Implementations should override this to do it atomically, this default looks the existing entry up and saves.
+     * @param acHost
+     * @throws Throwable
+     */
+    default void upsert(AcHost acHost) throws Throwable {
+        Option<AcHost> existing = findByKey(acHost.getKey());
+        if (existing.isEmpty()) {
+            existing = acHost.getBaseUrl() != null ? findByUrl(acHost.getBaseUrl()) : none(AcHost.class);
+        }
+        acHost.setId(existing.isDefined() ? existing.get().getId() : null);
+        save(acHost);
+    }
+
+    /**
+     * Stores several AC Hosts as {@link #upsert(AcHost)} would, ideally in a single write. Ids may not be set on the
+     * given hosts.
+     * @param acHosts hosts with distinct keys
+     * @throws Throwable
+     */
+    default void upsertAll(List<AcHost> acHosts) throws Throwable {
+        for (AcHost acHost : acHosts) {
+            upsert(acHost);
+        }
+    }
+
 }
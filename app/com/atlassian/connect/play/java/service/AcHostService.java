@@ -3,8 +3,11 @@ package com.atlassian.connect.play.java.service;
 import com.atlassian.connect.play.java.AcHost;
 import com.atlassian.fugue.Option;
 
+import java.io.Writer;
+import java.util.Iterator;
 import java.util.List;
 
+import static play.libs.F.Callback;
 import static play.libs.F.Promise;
 
 /**
@@ -29,6 +32,50 @@ public interface AcHostService {
 
     Option<AcHost> findByKey(String consumerKey) throws Throwable;
 
+    /**
+     * Like {@link #findByKey(String)}, without blocking the calling thread on the repository.
+     */
+    Promise<Option<AcHost>> findByKeyAsync(String consumerKey);
+
     List<AcHost> all() throws Throwable;
 
+    /**
+     * Like {@link #all()}, without blocking the calling thread on the repository.
+     */
+    Promise<List<AcHost>> allAsync();
+
+    /**
+     * Like {@link #all()}, loading the hosts a page at a time as the iteration goes rather than all at once.
+     * @param pageSize the number of hosts to load at a time
+     */
+    Iterable<AcHost> all(int pageSize);
+
+    /**
+     * Calls back with each page of hosts in turn, loading the next page once the callback for the previous one has
+     * returned, without blocking the calling thread on the repository.
+     * @param pageSize the number of hosts to load at a time
+     * @return a promise redeemed once every page has been handled, or failed with the first failure
+     */
+    Promise<Void> forEachPage(int pageSize, Callback<List<AcHost>> callback);
+
+    /**
+     * Registers many hosts at once, e.g. to restore them from an export, writing them in batches rather than one at a
+     * time. Hosts already registered with the same key or base url are updated. This blocks until every host is
+     * written, so it shouldn't be called on Play's default dispatcher.
+     * @param acHosts the hosts to register, read as they are written, e.g. from {@link AcHostNdjson#read}
+     * @param batchSize the number of hosts to write at a time
+     * @param progress called with the number of hosts written so far, after each batch
+     * @return the number of hosts written
+     */
+    long importHosts(Iterator<AcHost> acHosts, int batchSize, Callback<Long> progress) throws Throwable;
+
+    /**
+     * Writes every host to the writer, as newline delimited JSON (see {@link AcHostNdjson}), loading them a page at a
+     * time. Note that this includes the hosts' shared secrets.
+     * @param pageSize the number of hosts to load at a time
+     * @param progress called with the number of hosts written so far, after each page
+     * @return the number of hosts written
+     */
+    long exportHosts(Writer writer, int pageSize, Callback<Long> progress) throws Throwable;
+
 }
@@ -4,26 +4,54 @@ import com.atlassian.connect.play.java.AcHost;
 import com.atlassian.connect.play.java.auth.InvalidAuthenticationRequestException;
 import com.atlassian.connect.play.java.auth.MismatchPublicKeyException;
 import com.atlassian.connect.play.java.auth.PublicKeyVerificationFailureException;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
 import com.atlassian.fugue.Option;
-import com.google.common.base.Objects;
-import com.google.common.base.Supplier;
 import org.w3c.dom.Document;
 import org.w3c.dom.NodeList;
 import play.libs.ws.WSResponse;
 
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
-import static com.atlassian.fugue.Option.none;
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.google.common.base.Preconditions.checkArgument;
 import static org.apache.commons.lang.StringUtils.stripToNull;
+import static play.libs.F.Callback;
 import static play.libs.F.Function;
+import static play.libs.F.Function0;
 import static play.libs.F.Promise;
 import static play.mvc.Http.Status.OK;
 
 public class AcHostServiceImpl implements AcHostService {
+    private static final int DEFAULT_REPOSITORY_THREADS = 4;
+    private static final int DEFAULT_REPOSITORY_QUEUE_SIZE = 1000;
+    private static final int MAXIMUM_REGISTRATION_BATCH_SIZE = 100;
+
     private final AcHostRepository acHostRepository;
+    private final AsyncAcHostRepository asyncAcHostRepository;
+    private final CoalescingAcHostWriter hostWriter;
+    private final MeteredExecutor repositoryExecutor;
+    private final AcHostInvalidationChannel invalidationChannel;
 
-    public AcHostServiceImpl(AcHostRepository acHostRepository) {
+    public AcHostServiceImpl(AcHostRepository acHostRepository, MeteredExecutor repositoryExecutor,
+                             AcHostInvalidationChannel invalidationChannel) {
         this.acHostRepository = acHostRepository;
+        this.repositoryExecutor = repositoryExecutor;
+        this.invalidationChannel = invalidationChannel;
+        this.hostWriter = new CoalescingAcHostWriter(acHostRepository, repositoryExecutor, MAXIMUM_REGISTRATION_BATCH_SIZE);
+        this.asyncAcHostRepository = new AsyncAcHostRepositoryAdapter(acHostRepository, repositoryExecutor);
+    }
+
+    public AcHostServiceImpl(AcHostRepository acHostRepository, MeteredExecutor repositoryExecutor) {
+        this(acHostRepository, repositoryExecutor, new LocalAcHostInvalidationChannel());
+    }
+
+    public AcHostServiceImpl(AcHostRepository acHostRepository) {
+        this(acHostRepository, new MeteredExecutor("ac-host-repository", DEFAULT_REPOSITORY_THREADS, DEFAULT_REPOSITORY_QUEUE_SIZE));
     }
 
     public AcHostServiceImpl() {
@@ -36,40 +64,46 @@ public class AcHostServiceImpl implements AcHostService {
                 acHost.getName());
     }
 
-    // TODO: Now that we have removed the public key check this function no longer needs to be async.
     @Override
-    public Promise<Void> registerHost(final String clientKey, final String baseUrl, String publicKey, String sharedSecret, String name) {
-        // TODO: The consequence of this is that we will overwrite registrations each time. Is that what we want?
-        Option<AcHost> acHostOption;
-        try {
-            acHostOption = acHostRepository.findByKey(clientKey);
-        } catch (Throwable throwable) {
-            return Promise.throwing(throwable);
-        }
-        final AcHost acHost = acHostOption.orElse(new Supplier<Option<AcHost>>() {
-            @Override
-            public Option<AcHost> get() {
-                try {
-                    return acHostRepository.findByUrl(baseUrl);
-                } catch (Throwable e) {
-                    return none(AcHost.class);
-                }
-            }
-        }).getOrElse(new AcHost());
-
+    public Promise<Void> registerHost(final String clientKey, final String baseUrl, final String publicKey,
+                                      final String sharedSecret, final String name) {
+        // a new instance, rather than updating one that may be shared through the repository's cache
+        final AcHost acHost = new AcHost();
         acHost.setKey(clientKey);
         acHost.setBaseUrl(baseUrl);
         acHost.setPublicKey(publicKey);
         acHost.setSharedSecret(sharedSecret);
         acHost.setName(name);
 
-        try {
-            acHostRepository.save(acHost);
-        } catch (Throwable throwable) {
-            return Promise.throwing(throwable);
-        }
+        // the repository compares the host with the stored one, and skips writing it when it is the same; a copy cached
+        // here may be stale, e.g. deleted or changed on another node
+        return hostWriter.write(acHost).flatMap(new Function<Void, Promise<Void>>() {
+            @Override
+            public Promise<Void> apply(Void written) {
+                return publishInvalidation(clientKey);
+            }
+        });
+    }
 
-        return Promise.pure(null);
+    private Promise<Void> publishInvalidation(final String clientKey) {
+        return repositoryExecutor.promise(new Function0<Void>() {
+            @Override
+            public Void apply() {
+                try {
+                    invalidationChannel.publish(clientKey);
+                } catch (Throwable t) {
+                    // the host is registered, other nodes will pick it up once their cached copy is refreshed
+                    LOGGER.warn("Could not publish the registration of AC host " + clientKey, t);
+                }
+                return null;
+            }
+        }).recover(new Function<Throwable, Void>() {
+            @Override
+            public Void apply(Throwable t) {
+                LOGGER.warn("Could not publish the registration of AC host " + clientKey, t);
+                return null;
+            }
+        });
     }
 
     @Override
@@ -77,9 +111,98 @@ public class AcHostServiceImpl implements AcHostService {
         return acHostRepository.findByKey(consumerKey);
     }
 
+    @Override
+    public Promise<Option<AcHost>> findByKeyAsync(String consumerKey) {
+        return asyncAcHostRepository.findByKey(consumerKey);
+    }
+
     @Override
     public List<AcHost> all() throws Throwable {
         return acHostRepository.all();
     }
 
+    @Override
+    public Promise<List<AcHost>> allAsync() {
+        return asyncAcHostRepository.all();
+    }
+
+    @Override
+    public Iterable<AcHost> all(int pageSize) {
+        return acHostRepository.iterate(pageSize);
+    }
+
+    @Override
+    public Promise<Void> forEachPage(int pageSize, Callback<List<AcHost>> callback) {
+        return forEachPage(null, pageSize, callback);
+    }
+
+    @Override
+    public long importHosts(Iterator<AcHost> acHosts, int batchSize, Callback<Long> progress) throws Throwable {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        long imported = 0;
+        final Map<String, AcHost> batch = new LinkedHashMap<String, AcHost>();
+        while (acHosts.hasNext()) {
+            final AcHost acHost = acHosts.next();
+            // matched by key or base url, the id is the one it had where it was exported from
+            acHost.setId(null);
+            // a batch can't upsert the same key twice, the last one wins as it would have one at a time
+            batch.remove(acHost.getKey());
+            batch.put(acHost.getKey(), acHost);
+            if (batch.size() == batchSize) {
+                imported += importBatch(batch);
+                progress.invoke(imported);
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += importBatch(batch);
+            progress.invoke(imported);
+        }
+        return imported;
+    }
+
+    private int importBatch(Map<String, AcHost> batch) throws Throwable {
+        acHostRepository.upsertAll(new ArrayList<AcHost>(batch.values()));
+        // a single round trip for the whole batch, rather than one per host
+        try {
+            invalidationChannel.publishAll();
+        } catch (Throwable t) {
+            LOGGER.warn("Could not publish the import of " + batch.size() + " AC hosts", t);
+        }
+        final int imported = batch.size();
+        batch.clear();
+        return imported;
+    }
+
+    @Override
+    public long exportHosts(Writer writer, int pageSize, Callback<Long> progress) throws Throwable {
+        long exported = 0;
+        for (AcHost acHost : acHostRepository.iterate(pageSize)) {
+            AcHostNdjson.write(acHost, writer);
+            if (++exported % pageSize == 0) {
+                progress.invoke(exported);
+            }
+        }
+        writer.flush();
+        if (exported % pageSize != 0) {
+            progress.invoke(exported);
+        }
+        return exported;
+    }
+
+    private Promise<Void> forEachPage(Long afterId, final int pageSize, final Callback<List<AcHost>> callback) {
+        return asyncAcHostRepository.findPage(afterId, pageSize).flatMap(new Function<List<AcHost>, Promise<Void>>() {
+            @Override
+            public Promise<Void> apply(List<AcHost> page) throws Throwable {
+                if (page.isEmpty()) {
+                    return Promise.pure(null);
+                }
+                callback.invoke(page);
+                if (page.size() < pageSize) {
+                    return Promise.pure(null);
+                }
+                return forEachPage(page.get(page.size() - 1).getId(), pageSize, callback);
+            }
+        });
+    }
+
 }
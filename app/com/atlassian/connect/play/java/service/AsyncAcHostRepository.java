@@ -0,0 +1,27 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+
+import java.util.List;
+
+import static play.libs.F.Promise;
+
+/**
+ * The non-blocking counterpart of {@link AcHostRepository}. Failures are reported through the returned promises.
+ */
+public interface AsyncAcHostRepository {
+
+    Promise<Void> save(AcHost acHost);
+
+    Promise<List<AcHost>> all();
+
+    Promise<List<AcHost>> findPage(Long afterId, int limit);
+
+    Promise<Option<AcHost>> findByKey(String key);
+
+    Promise<Option<AcHost>> findByUrl(String baseUrl);
+
+    Promise<Void> delete(Long id);
+
+}
@@ -0,0 +1,96 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.atlassian.fugue.Option;
+import play.libs.F;
+
+import java.util.List;
+
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static play.libs.F.Promise;
+
+/**
+ * Runs the calls of a blocking {@link AcHostRepository} on a dedicated executor. Hosts already held in memory by a
+ * repository that is also an {@link AcHostCache} are returned straight away.
+ */
+public class AsyncAcHostRepositoryAdapter implements AsyncAcHostRepository {
+    private final AcHostRepository repository;
+    private final MeteredExecutor executor;
+
+    public AsyncAcHostRepositoryAdapter(AcHostRepository repository, MeteredExecutor executor) {
+        this.repository = checkNotNull(repository);
+        this.executor = checkNotNull(executor);
+    }
+
+    @Override
+    public Promise<Void> save(final AcHost acHost) {
+        return executor.promise(new F.Function0<Void>() {
+            @Override
+            public Void apply() throws Throwable {
+                repository.save(acHost);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public Promise<List<AcHost>> all() {
+        return executor.promise(new F.Function0<List<AcHost>>() {
+            @Override
+            public List<AcHost> apply() throws Throwable {
+                return repository.all();
+            }
+        });
+    }
+
+    @Override
+    public Promise<List<AcHost>> findPage(final Long afterId, final int limit) {
+        return executor.promise(new F.Function0<List<AcHost>>() {
+            @Override
+            public List<AcHost> apply() throws Throwable {
+                return repository.findPage(afterId, limit);
+            }
+        });
+    }
+
+    @Override
+    public Promise<Option<AcHost>> findByKey(final String key) {
+        final AcHost cached = getIfCached(key);
+        if (cached != null) {
+            return Promise.pure(some(cached));
+        }
+        return executor.promise(new F.Function0<Option<AcHost>>() {
+            @Override
+            public Option<AcHost> apply() throws Throwable {
+                return repository.findByKey(key);
+            }
+        });
+    }
+
+    @Override
+    public Promise<Option<AcHost>> findByUrl(final String baseUrl) {
+        return executor.promise(new F.Function0<Option<AcHost>>() {
+            @Override
+            public Option<AcHost> apply() throws Throwable {
+                return repository.findByUrl(baseUrl);
+            }
+        });
+    }
+
+    @Override
+    public Promise<Void> delete(final Long id) {
+        return executor.promise(new F.Function0<Void>() {
+            @Override
+            public Void apply() throws Throwable {
+                repository.delete(id);
+                return null;
+            }
+        });
+    }
+
+    private AcHost getIfCached(String key) {
+        return repository instanceof AcHostCache ? ((AcHostCache) repository).getIfPresent(key) : null;
+    }
+}
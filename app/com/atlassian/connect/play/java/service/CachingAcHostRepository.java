@@ -0,0 +1,267 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link AcHostRepository} decorator keeping recently used hosts in memory, keyed by client key.
+ * <p/>
+ * Entries older than the refresh interval are reloaded in the background on their next access; the previous value is
+ * served until the reload completes, and kept if the reload fails (e.g. the database is slow or unavailable). A host that
+ * is no longer found when reloaded, e.g. deleted on another node, is dropped. Entries older than the expiry are never
+ * served. Concurrent misses for the same key share a single load.
+ * <p/>
+ * Hosts that cannot be found are not cached. Entries are invalidated on {@link #save(AcHost)}, {@link #upsert(AcHost)}
+ * and {@link #delete(Long)}, and can be invalidated by other nodes through an {@link AcHostInvalidationChannel}.
+ */
+public class CachingAcHostRepository implements AcHostRepository, AcHostCache, AcHostInvalidationChannel.Listener {
+
+    // what a reload of a host that is gone yields, failing the reload would keep serving the host
+    private static final AcHost MISSING = new AcHost();
+
+    private final AcHostRepository delegate;
+    private final LoadingCache<String, AcHost> hostsByKey;
+
+    public CachingAcHostRepository(AcHostRepository delegate, long maximumSize, long refreshAfterSeconds,
+                                   long expireAfterSeconds, Executor refreshExecutor) {
+        this(delegate, maximumSize, refreshAfterSeconds, expireAfterSeconds, refreshExecutor, Ticker.systemTicker());
+    }
+
+    CachingAcHostRepository(AcHostRepository delegate, long maximumSize, long refreshAfterSeconds,
+                            long expireAfterSeconds, Executor refreshExecutor, Ticker ticker) {
+        checkArgument(refreshAfterSeconds < expireAfterSeconds, "Refresh interval must be shorter than expiry");
+        this.delegate = checkNotNull(delegate);
+        this.hostsByKey = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .refreshAfterWrite(refreshAfterSeconds, TimeUnit.SECONDS)
+                .expireAfterWrite(expireAfterSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new HostLoader(delegate), checkNotNull(refreshExecutor)));
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        try {
+            delegate.save(acHost);
+        } finally {
+            // the host may have been found by URL and re-keyed, so drop whatever was cached for its id as well
+            invalidateId(acHost.getId());
+            if (acHost.getKey() != null) {
+                hostsByKey.invalidate(acHost.getKey());
+            }
+        }
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        try {
+            delegate.upsert(acHost);
+        } finally {
+            invalidate(acHost);
+        }
+    }
+
+    @Override
+    public void upsertAll(List<AcHost> acHosts) throws Throwable {
+        try {
+            delegate.upsertAll(acHosts);
+        } finally {
+            for (AcHost acHost : acHosts) {
+                invalidate(acHost);
+            }
+        }
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        return delegate.all();
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        if (key == null) {
+            return delegate.findByKey(null);
+        }
+        try {
+            final AcHost acHost = hostsByKey.get(key);
+            if (acHost == MISSING) {
+                hostsByKey.asMap().remove(key, MISSING);
+                return none(AcHost.class);
+            }
+            return some(acHost);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MissingHostException) {
+                return none(AcHost.class);
+            }
+            throw e.getCause();
+        } catch (UncheckedExecutionException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        return delegate.findByUrl(baseUrl);
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        try {
+            delegate.delete(id);
+        } finally {
+            invalidateId(id);
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        hostsByKey.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        hostsByKey.invalidateAll();
+    }
+
+    /**
+     * Like {@link #findByKey(String)}, but only for cached hosts, so it never waits for a load. A background refresh is
+     * still triggered if one is due.
+     *
+     * @return the cached host with the given key, or {@code null} if it isn't cached
+     */
+    @Override
+    public AcHost getIfPresent(String key) {
+        if (key == null || !hostsByKey.asMap().containsKey(key)) {
+            return null;
+        }
+        try {
+            final AcHost acHost = hostsByKey.getUnchecked(key);
+            if (acHost == MISSING) {
+                hostsByKey.asMap().remove(key, MISSING);
+                return null;
+            }
+            return acHost;
+        } catch (UncheckedExecutionException e) {
+            // expired in the meantime and failed to load, let the caller load it the usual way
+            return null;
+        }
+    }
+
+    /**
+     * Caches the given hosts, e.g. all of them on start-up, unless a host with the same key is cached already
+     */
+    public void preload(Iterable<AcHost> acHosts) {
+        for (AcHost acHost : acHosts) {
+            if (acHost.getKey() != null) {
+                hostsByKey.asMap().putIfAbsent(acHost.getKey(), acHost);
+            }
+        }
+    }
+
+    /**
+     * @return hit, miss, load time and eviction statistics of the cache since it was created
+     */
+    public CacheStats stats() {
+        return hostsByKey.stats();
+    }
+
+    public long size() {
+        return hostsByKey.size();
+    }
+
+    private void invalidate(AcHost acHost) {
+        // an upsert may have replaced the host registered with the same base url under another key
+        invalidateId(acHost.getId());
+        if (acHost.getKey() != null) {
+            hostsByKey.invalidate(acHost.getKey());
+        }
+        if (acHost.getBaseUrl() != null) {
+            for (Map.Entry<String, AcHost> entry : hostsByKey.asMap().entrySet()) {
+                if (acHost.getBaseUrl().equals(entry.getValue().getBaseUrl())) {
+                    hostsByKey.invalidate(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private void invalidateId(Long id) {
+        if (id == null) {
+            return;
+        }
+        for (Map.Entry<String, AcHost> entry : hostsByKey.asMap().entrySet()) {
+            if (id.equals(entry.getValue().getId())) {
+                hostsByKey.invalidate(entry.getKey());
+            }
+        }
+    }
+
+    private static final class HostLoader extends CacheLoader<String, AcHost> {
+        private final AcHostRepository delegate;
+
+        HostLoader(AcHostRepository delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public AcHost load(String key) throws Exception {
+            final Option<AcHost> acHost = find(key);
+            if (acHost.isEmpty()) {
+                throw MissingHostException.INSTANCE;
+            }
+            return acHost.get();
+        }
+
+        @Override
+        public ListenableFuture<AcHost> reload(String key, AcHost oldValue) throws Exception {
+            final Option<AcHost> acHost = find(key);
+            return Futures.immediateFuture(acHost.isDefined() ? acHost.get() : MISSING);
+        }
+
+        private Option<AcHost> find(String key) throws Exception {
+            try {
+                return delegate.findByKey(key);
+            } catch (Exception e) {
+                throw e;
+            } catch (Throwable t) {
+                throw Throwables.propagate(t);
+            }
+        }
+    }
+
+    /**
+     * Signals a lookup of an unknown host, so that it is not cached. Thrown often, hence shared and without a stack trace.
+     */
+    private static final class MissingHostException extends Exception {
+        static final MissingHostException INSTANCE = new MissingHostException();
+
+        private MissingHostException() {
+            super("No such host", null, false, false);
+        }
+    }
+}
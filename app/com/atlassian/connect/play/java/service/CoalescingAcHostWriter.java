@@ -0,0 +1,144 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import play.libs.F;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static play.libs.F.Promise;
+import static play.libs.F.RedeemablePromise;
+
+/**
+ * Upserts hosts on a {@link MeteredExecutor}, one write at a time. Hosts submitted while a write is in progress are
+ * written together by the next one, with a single {@link AcHostRepository#upsertAll(List)}, so that a burst of
+ * registrations (e.g. every tenant re-installing after an upgrade) doesn't cost a transaction each.
+ * <p/>
+ * When several hosts with the same key are waiting, only the last one is written. If a batch fails, its hosts are
+ * written one at a time, so that a bad registration only fails its own promise.
+ */
+public class CoalescingAcHostWriter {
+
+    private final AcHostRepository repository;
+    private final MeteredExecutor executor;
+    private final int maximumBatchSize;
+
+    private final Queue<PendingWrite> pending = new ConcurrentLinkedQueue<PendingWrite>();
+    private final AtomicBoolean writing = new AtomicBoolean();
+
+    public CoalescingAcHostWriter(AcHostRepository repository, MeteredExecutor executor, int maximumBatchSize) {
+        checkArgument(maximumBatchSize > 0, "Batches must hold at least one host");
+        this.repository = checkNotNull(repository);
+        this.executor = checkNotNull(executor);
+        this.maximumBatchSize = maximumBatchSize;
+    }
+
+    /**
+     * @return a promise redeemed once the host has been upserted
+     */
+    public Promise<Void> write(AcHost acHost) {
+        final PendingWrite write = new PendingWrite(checkNotNull(acHost));
+        pending.add(write);
+        scheduleWrites();
+        return write.promise;
+    }
+
+    private void scheduleWrites() {
+        if (pending.isEmpty() || !writing.compareAndSet(false, true)) {
+            return;
+        }
+        executor.promise(new F.Function0<Void>() {
+            @Override
+            public Void apply() {
+                try {
+                    for (List<PendingWrite> batch = nextBatch(); !batch.isEmpty(); batch = nextBatch()) {
+                        writeBatch(batch);
+                    }
+                } finally {
+                    writing.set(false);
+                }
+                // hosts may have been submitted after the last batch was taken, but before writing was reset
+                scheduleWrites();
+                return null;
+            }
+        }).onFailure(new F.Callback<Throwable>() {
+            @Override
+            public void invoke(Throwable t) {
+                // the executor is saturated, which writes have to wait for too
+                writing.set(false);
+                for (PendingWrite write = pending.poll(); write != null; write = pending.poll()) {
+                    write.promise.failure(t);
+                }
+            }
+        });
+    }
+
+    private List<PendingWrite> nextBatch() {
+        final List<PendingWrite> batch = new ArrayList<PendingWrite>();
+        for (PendingWrite write = pending.poll(); write != null; write = pending.poll()) {
+            batch.add(write);
+            if (batch.size() == maximumBatchSize) {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        final Map<String, List<PendingWrite>> writesByKey = new LinkedHashMap<String, List<PendingWrite>>();
+        final Map<String, AcHost> latestByKey = new LinkedHashMap<String, AcHost>();
+        for (PendingWrite write : batch) {
+            final String key = write.acHost.getKey();
+            if (!writesByKey.containsKey(key)) {
+                writesByKey.put(key, new ArrayList<PendingWrite>());
+            }
+            writesByKey.get(key).add(write);
+            latestByKey.put(key, write.acHost);
+        }
+
+        if (latestByKey.size() > 1) {
+            try {
+                repository.upsertAll(new ArrayList<AcHost>(latestByKey.values()));
+                for (PendingWrite write : batch) {
+                    write.promise.success(null);
+                }
+                return;
+            } catch (Throwable t) {
+                LOGGER.debug(format("Could not write %d AC hosts at once, writing them one at a time", latestByKey.size()), t);
+            }
+        }
+
+        for (Map.Entry<String, AcHost> entry : latestByKey.entrySet()) {
+            final List<PendingWrite> writes = writesByKey.get(entry.getKey());
+            try {
+                repository.upsert(entry.getValue());
+                for (PendingWrite write : writes) {
+                    write.promise.success(null);
+                }
+            } catch (Throwable t) {
+                for (PendingWrite write : writes) {
+                    write.promise.failure(t);
+                }
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        final AcHost acHost;
+        final RedeemablePromise<Void> promise = RedeemablePromise.empty();
+
+        PendingWrite(AcHost acHost) {
+            this.acHost = acHost;
+        }
+    }
+}
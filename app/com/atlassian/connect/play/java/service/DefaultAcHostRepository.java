@@ -2,55 +2,206 @@ package com.atlassian.connect.play.java.service;
 
 import com.atlassian.connect.play.java.AcHost;
 import com.atlassian.fugue.Option;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Objects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import play.Configuration;
+import play.Play;
 import play.db.jpa.JPA;
 import play.libs.F;
 
+import javax.persistence.EntityManager;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static com.atlassian.fugue.Option.none;
 import static com.atlassian.fugue.Option.option;
 
+/**
+ * Stores hosts with JPA. Writes go to the persistence unit configured as {@code ac.hostdb.unit}, {@code default} unless
+ * configured, so that host lookups can have a small pool of their own rather than queue behind the add-on's queries.
+ * Reads go to the one configured as {@code ac.hostdb.readunit} (e.g. backed by a read replica), which is the same as the
+ * write unit unless configured. Hosts written by this node are read back from the write unit for
+ * {@code ac.hostdb.readyourwrites.secs} after the write.
+ * <p/>
+ * When the second-level cache is enabled, written and deleted hosts are evicted from the cache of both units once the
+ * write is committed, as the read unit's cache doesn't otherwise see writes made through {@code default}.
+ */
 public class DefaultAcHostRepository implements AcHostRepository {
 
     private static final String BASE_URL = "baseUrl";
+    private static final String QUERY_CACHEABLE = "org.hibernate.cacheable";
     public static final String DEFAULT_PERSISTENCE_UNIT = "default";
 
+    private static final String PERSISTENCE_UNIT = "ac.hostdb.unit";
+    private static final String READ_PERSISTENCE_UNIT = "ac.hostdb.readunit";
+    static final String READ_YOUR_WRITES_SECS = "ac.hostdb.readyourwrites.secs";
+    static final int DEFAULT_READ_YOUR_WRITES_SECS = 5;
+
+    private final String persistenceUnit;
+    private final String readPersistenceUnit;
+    private final RecentWrites recentWrites;
+    private final ConcurrentMap<String, SessionFactory> sessionFactories = new ConcurrentHashMap<String, SessionFactory>();
+
+    public DefaultAcHostRepository() {
+        this(Play.application().configuration());
+    }
+
+    private DefaultAcHostRepository(Configuration configuration) {
+        this(configuration.getString(PERSISTENCE_UNIT, DEFAULT_PERSISTENCE_UNIT), configuration);
+    }
+
+    private DefaultAcHostRepository(String persistenceUnit, Configuration configuration) {
+        this(persistenceUnit, configuration.getString(READ_PERSISTENCE_UNIT, persistenceUnit),
+                configuration.getInt(READ_YOUR_WRITES_SECS, DEFAULT_READ_YOUR_WRITES_SECS));
+    }
+
+    public DefaultAcHostRepository(String persistenceUnit, String readPersistenceUnit, int readYourWritesSeconds) {
+        this(persistenceUnit, readPersistenceUnit, readYourWritesSeconds, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    DefaultAcHostRepository(String persistenceUnit, String readPersistenceUnit, int readYourWritesSeconds,
+                            Ticker ticker) {
+        this.persistenceUnit = persistenceUnit;
+        this.readPersistenceUnit = readPersistenceUnit;
+        this.recentWrites = new RecentWrites(readYourWritesSeconds, ticker);
+    }
+
     @Override
     public void save(final AcHost acHostModel) throws Throwable {
 
         // TODO: Not sure how to do this with annotations in play. Currently this is not a container managed repo
-        JPA.withTransaction(new F.Function0<Void>() {
+        withTransaction(persistenceUnit, false, new F.Function0<Void>() {
             @Override
             public Void apply() throws Throwable {
                 if (acHostModel.getId() != null) {
-                    JPA.em().merge(acHostModel);
+                    em().merge(acHostModel);
                 }
                 else {
-                    JPA.em().persist(acHostModel);
+                    em().persist(acHostModel);
                 }
                 return null;
             }
         });
+        recentWrites.add(acHostModel);
+        evictCached(acHostModel.getId());
+    }
+
+    /**
+     * Looks the existing host up and saves in a single transaction on the primary, rather than reading from the
+     * replica.
+     */
+    @Override
+    public void upsert(final AcHost acHost) throws Throwable {
+        withTransaction(persistenceUnit, false, new F.Function0<Void>() {
+            @Override
+            public Void apply() throws Throwable {
+                upsertInTransaction(acHost);
+                return null;
+            }
+        });
+        recentWrites.add(acHost);
+        evictCached(acHost.getId());
+    }
+
+    /**
+     * Upserts all the hosts in a single transaction.
+     */
+    @Override
+    public void upsertAll(final List<AcHost> acHosts) throws Throwable {
+        withTransaction(persistenceUnit, false, new F.Function0<Void>() {
+            @Override
+            public Void apply() throws Throwable {
+                for (AcHost acHost : acHosts) {
+                    upsertInTransaction(acHost);
+                }
+                return null;
+            }
+        });
+        for (AcHost acHost : acHosts) {
+            recentWrites.add(acHost);
+            evictCached(acHost.getId());
+        }
+    }
+
+    /**
+     * Compares the host with the stored one, read from the table rather than from the query cache, and only writes it if
+     * it changed. Registrations don't carry a description, so the stored one is kept.
+     */
+    private void upsertInTransaction(AcHost acHost) {
+        List<AcHost> existing = em().createNamedQuery("AcHost.findByKey", AcHost.class).
+                setParameter("key", acHost.getKey()).
+                setHint(QUERY_CACHEABLE, false).
+                getResultList();
+        if (existing.isEmpty()) {
+            existing = em().createNamedQuery("AcHost.findByUrl", AcHost.class).
+                    setParameter(BASE_URL, acHost.getBaseUrl()).
+                    setHint(QUERY_CACHEABLE, false).
+                    getResultList();
+        }
+
+        if (!existing.isEmpty()) {
+            final AcHost stored = existing.get(0);
+            acHost.setId(stored.getId());
+            acHost.setDescription(stored.getDescription());
+            if (!isSameRegistration(stored, acHost)) {
+                em().merge(acHost);
+            }
+        }
+        else {
+            acHost.setId(null);
+            em().persist(acHost);
+        }
+    }
+
+    private static boolean isSameRegistration(AcHost stored, AcHost acHost) {
+        return Objects.equal(stored.getKey(), acHost.getKey())
+                && Objects.equal(stored.getBaseUrl(), acHost.getBaseUrl())
+                && Objects.equal(stored.getPublicKey(), acHost.getPublicKey())
+                && Objects.equal(stored.getSharedSecret(), acHost.getSharedSecret())
+                && Objects.equal(stored.getName(), acHost.getName());
     }
 
     @Override
     public List<AcHost> all() throws Throwable {
-        return JPA.withTransaction(DEFAULT_PERSISTENCE_UNIT, true, new F.Function0<List<AcHost>>() {
+        return withTransaction(recentWrites.isEmpty() ? readPersistenceUnit : persistenceUnit, true, new F.Function0<List<AcHost>>() {
             @Override
             public List<AcHost> apply() throws Throwable {
-                return JPA.em().createNamedQuery("AcHost.findAll", AcHost.class).getResultList();
+                return em().createNamedQuery("AcHost.findAll", AcHost.class).getResultList();
+            }
+        });
+    }
+
+    @Override
+    public List<AcHost> findPage(final Long afterId, final int limit) throws Throwable {
+        return withTransaction(recentWrites.isEmpty() ? readPersistenceUnit : persistenceUnit, true, new F.Function0<List<AcHost>>() {
+            @Override
+            public List<AcHost> apply() throws Throwable {
+                return em().createNamedQuery("AcHost.findPage", AcHost.class).
+                        setParameter("afterId", afterId == null ? Long.MIN_VALUE : afterId).
+                        setMaxResults(limit).
+                        getResultList();
             }
         });
     }
 
     @Override
     public Option<AcHost> findByKey(final String key) throws Throwable {
-        return JPA.withTransaction(DEFAULT_PERSISTENCE_UNIT, true, new F.Function0<Option<AcHost>>()
+        return withTransaction(recentWrites.containsKey(key) ? persistenceUnit : readPersistenceUnit, true, new F.Function0<Option<AcHost>>()
         {
             @Override
             public Option<AcHost> apply() throws Throwable
             {
-                final List<AcHost> resultList = JPA.em().createNamedQuery("AcHost.findByKey", AcHost.class).
+                final List<AcHost> resultList = em().createNamedQuery("AcHost.findByKey", AcHost.class).
                         setParameter("key", key).
                         getResultList();
                 return resultList.isEmpty() ? none(AcHost.class) : option(resultList.get(0));
@@ -60,12 +211,12 @@ public class DefaultAcHostRepository implements AcHostRepository {
 
     @Override
     public Option<AcHost> findByUrl(final String baseUrl) throws Throwable {
-        return JPA.withTransaction(DEFAULT_PERSISTENCE_UNIT, true, new F.Function0<Option<AcHost>>()
+        return withTransaction(recentWrites.containsBaseUrl(baseUrl) ? persistenceUnit : readPersistenceUnit, true, new F.Function0<Option<AcHost>>()
         {
             @Override
             public Option<AcHost> apply() throws Throwable
             {
-                final List<AcHost> resultList = JPA.em().createNamedQuery("AcHost.findByUrl", AcHost.class).
+                final List<AcHost> resultList = em().createNamedQuery("AcHost.findByUrl", AcHost.class).
                         setParameter(BASE_URL, baseUrl).
                         getResultList();
                 return resultList.isEmpty() ? none(AcHost.class) : option(resultList.get(0));
@@ -76,18 +227,75 @@ public class DefaultAcHostRepository implements AcHostRepository {
 
     @Override
     public void delete(final Long id) throws Throwable {
-        JPA.withTransaction(new F.Function0<Void>() {
+        final AcHost deleted = withTransaction(persistenceUnit, false, new F.Function0<AcHost>() {
             @Override
-            public Void apply() throws Throwable {
-                final AcHost acHost = JPA.em().find(AcHost.class, id);
+            public AcHost apply() throws Throwable {
+                final AcHost acHost = em().find(AcHost.class, id);
 
                 if (acHost != null)
                 {
-                    JPA.em().remove(acHost);
+                    em().remove(acHost);
                 }
-                return null;
+                return acHost;
             }
         });
+        if (deleted != null) {
+            recentWrites.add(deleted);
+            evictCached(id);
+        }
+    }
+
+    /**
+     * @return the statistics of the second-level cache regions of hosts, as seen by the read unit, keyed by region
+     * name. This is empty unless both the second-level cache and {@code hibernate.generate_statistics} are enabled.
+     */
+    public Map<String, SecondLevelCacheStatistics> cacheStatistics() throws Throwable {
+        final Statistics statistics = sessionFactory(readPersistenceUnit).getStatistics();
+        final ImmutableMap.Builder<String, SecondLevelCacheStatistics> regions = ImmutableMap.builder();
+        if (statistics.isStatisticsEnabled()) {
+            for (String region : ImmutableSet.of(AcHost.CACHE_REGION, AcHost.QUERY_CACHE_REGION)) {
+                final SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(region);
+                if (regionStatistics != null) {
+                    regions.put(region, regionStatistics);
+                }
+            }
+        }
+        return regions.build();
+    }
+
+    private void evictCached(Long id) throws Throwable {
+        for (String persistenceUnit : ImmutableSet.of(persistenceUnit, readPersistenceUnit)) {
+            // both are no-ops when the caches aren't enabled
+            final SessionFactory sessionFactory = sessionFactory(persistenceUnit);
+            if (id != null) {
+                sessionFactory.getCache().evictEntity(AcHost.class, id);
+            }
+            sessionFactory.getCache().evictQueryRegion(AcHost.QUERY_CACHE_REGION);
+        }
+    }
+
+    private SessionFactory sessionFactory(String persistenceUnit) throws Throwable {
+        SessionFactory sessionFactory = sessionFactories.get(persistenceUnit);
+        if (sessionFactory == null) {
+            sessionFactory = withTransaction(persistenceUnit, true, new F.Function0<SessionFactory>() {
+                @Override
+                public SessionFactory apply() throws Throwable {
+                    return em().unwrap(Session.class).getSessionFactory();
+                }
+            });
+            sessionFactories.putIfAbsent(persistenceUnit, sessionFactory);
+        }
+        return sessionFactory;
+    }
+
+    @VisibleForTesting
+    <T> T withTransaction(String persistenceUnit, boolean readOnly, F.Function0<T> block) throws Throwable {
+        return JPA.withTransaction(persistenceUnit, readOnly, block);
+    }
+
+    @VisibleForTesting
+    EntityManager em() {
+        return JPA.em();
     }
 
 }
@@ -1,25 +1,324 @@
 package com.atlassian.connect.play.java.service;
 
+import com.atlassian.connect.play.java.util.ConnectionPoolStats;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang.StringUtils;
+import play.Application;
+import play.Configuration;
 import play.Play;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static java.lang.String.format;
 
 public class InjectorFactory {
 
-    public static AcHostService getAcHostService() {
-        String acHostServiceClass = Play.application().configuration().getString("ac.hostrepository");
+    private static final String HOST_REPOSITORY = "ac.hostrepository";
+    private static final String HOST_EXECUTOR_THREADS = "ac.hostexecutor.threads";
+    private static final String HOST_EXECUTOR_QUEUE = "ac.hostexecutor.queue";
+    private static final String HOST_CACHE_ENABLED = "ac.hostcache.enabled";
+    private static final String HOST_CACHE_SIZE = "ac.hostcache.size";
+    private static final String HOST_CACHE_REFRESH_SECS = "ac.hostcache.refresh.secs";
+    private static final String HOST_CACHE_EXPIRY_SECS = "ac.hostcache.expiry.secs";
+    private static final String HOST_FILTER_ENABLED = "ac.hostfilter.enabled";
+    private static final String HOST_FILTER_SIZE = "ac.hostfilter.size";
+    private static final String HOST_FILTER_EXPIRY_SECS = "ac.hostfilter.expiry.secs";
+    private static final String HOST_FILTER_BLOOM_ENABLED = "ac.hostfilter.bloom.enabled";
+    private static final String HOST_FILTER_BLOOM_EXPECTED = "ac.hostfilter.bloom.expected";
+    private static final String HOST_FILTER_BLOOM_REBUILD_SECS = "ac.hostfilter.bloom.rebuild.secs";
+    private static final String HOST_SHARED_CACHE_ENABLED = "ac.hostsharedcache.enabled";
+    private static final String HOST_SHARED_CACHE_EXPIRY_SECS = "ac.hostsharedcache.expiry.secs";
+    private static final String HOST_SHARED_CACHE_NEAR_SIZE = "ac.hostsharedcache.near.size";
+    private static final String HOST_SHARED_CACHE_NEAR_SECS = "ac.hostsharedcache.near.secs";
+    private static final String HOST_SNAPSHOT_ENABLED = "ac.hostsnapshot.enabled";
+    private static final String HOST_SNAPSHOT_PAGE_SIZE = "ac.hostsnapshot.pagesize";
+    private static final String HOST_SNAPSHOT_RECONCILE_SECS = "ac.hostsnapshot.reconcile.secs";
+    private static final String HOST_DATASOURCE = "ac.hostdb.datasource";
+    private static final String HOST_POOL_STATS_SECS = "ac.hostdb.stats.secs";
+    private static final String HOST_INVALIDATION_CHANNEL = "ac.hostinvalidation.channel";
+    private static final String HOST_INVALIDATION_DATASOURCE = "ac.hostinvalidation.datasource";
+    private static final String HOST_INVALIDATION_POLL_MILLIS = "ac.hostinvalidation.poll.millis";
+    private static final String HOST_INVALIDATION_LOOKBACK_SECS = "ac.hostinvalidation.lookback.secs";
+    private static final String HOST_INVALIDATION_TIMEOUT_SECS = "ac.hostinvalidation.timeout.secs";
+
+    private static final int DEFAULT_HOST_EXECUTOR_THREADS = 4;
+    private static final int DEFAULT_HOST_EXECUTOR_QUEUE = 1000;
+    private static final int DEFAULT_HOST_CACHE_SIZE = 10000;
+    private static final int DEFAULT_HOST_CACHE_REFRESH_SECS = 60;
+    private static final int DEFAULT_HOST_CACHE_EXPIRY_SECS = 600;
+    private static final int DEFAULT_HOST_FILTER_SIZE = 10000;
+    private static final int DEFAULT_HOST_FILTER_EXPIRY_SECS = 60;
+    private static final int DEFAULT_HOST_FILTER_BLOOM_EXPECTED = 100000;
+    private static final int DEFAULT_HOST_FILTER_BLOOM_REBUILD_SECS = 300;
+    // bounds how long a host loaded while it was registered again may be served with its previous shared secret
+    private static final int DEFAULT_HOST_SHARED_CACHE_EXPIRY_SECS = 30;
+    private static final int DEFAULT_HOST_SHARED_CACHE_NEAR_SIZE = 1000;
+    private static final int DEFAULT_HOST_SHARED_CACHE_NEAR_SECS = 5;
+    private static final int DEFAULT_HOST_SNAPSHOT_PAGE_SIZE = 1000;
+    private static final int DEFAULT_HOST_SNAPSHOT_RECONCILE_SECS = 60;
+    private static final int DEFAULT_HOST_POOL_STATS_SECS = 60;
+    private static final String DEFAULT_HOST_INVALIDATION_CHANNEL = "local";
+    private static final int DEFAULT_HOST_INVALIDATION_POLL_MILLIS = 1000;
+    private static final int DEFAULT_HOST_INVALIDATION_LOOKBACK_SECS = 10;
+    private static final int DEFAULT_HOST_INVALIDATION_TIMEOUT_SECS = 10;
+
+    // a single repository per application, so that every caller shares (and invalidates) the same caches
+    private static Application application;
+    private static ScheduledExecutorService maintenanceExecutor;
+    // the invalidation channel's queries mustn't hold up the maintenance above, nor be held up by it
+    private static ScheduledExecutorService invalidationExecutor;
+    private static MeteredExecutor repositoryExecutor;
+    private static String hostDatasource;
+    private static AcHostInvalidationChannel invalidationChannel;
+    private static AcHostRepository configuredRepository;
+    private static AcHostRepository acHostRepository;
+    private static AcHostService acHostService;
+
+    public static synchronized AcHostService getAcHostService() {
+        initialise();
+        return acHostService;
+    }
+
+    /**
+     * @return the repository backing {@link #getAcHostService()}, including any configured caching decorators
+     */
+    public static synchronized AcHostRepository getAcHostRepository() {
+        initialise();
+        return acHostRepository;
+    }
+
+    /**
+     * @return the executor running the blocking repository calls behind the asynchronous {@link AcHostService} methods
+     */
+    public static synchronized MeteredExecutor getAcHostRepositoryExecutor() {
+        initialise();
+        return repositoryExecutor;
+    }
+
+    /**
+     * @return the usage of the connection pool of the datasource hosts are stored in ({@code ac.hostdb.datasource}), and
+     * of the default datasource if that's another one
+     */
+    public static synchronized List<ConnectionPoolStats> getConnectionPoolStats() {
+        initialise();
+        final List<ConnectionPoolStats> stats = new ArrayList<ConnectionPoolStats>();
+        for (String datasource : ImmutableSet.of(hostDatasource, DefaultAcHostRepository.DEFAULT_PERSISTENCE_UNIT)) {
+            try {
+                for (ConnectionPoolStats datasourceStats : ConnectionPoolStats.of(datasource)) {
+                    stats.add(datasourceStats);
+                }
+            } catch (RuntimeException e) {
+                LOGGER.debug("No connection pool statistics for datasource " + datasource, e);
+            }
+        }
+        return stats;
+    }
+
+    private static void initialise() {
+        if (application != Play.application()) {
+            if (maintenanceExecutor != null) {
+                invalidationChannel.close();
+                invalidationExecutor.shutdownNow();
+                maintenanceExecutor.shutdownNow();
+                repositoryExecutor.shutdown();
+                closeQuietly(configuredRepository);
+            }
+            application = Play.application();
+            final Configuration configuration = application.configuration();
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("ac-host-maintenance-%d").setDaemon(true).build());
+            invalidationExecutor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("ac-host-invalidation-%d").setDaemon(true).build());
+            repositoryExecutor = new MeteredExecutor("ac-host-repository",
+                    configuration.getInt(HOST_EXECUTOR_THREADS, DEFAULT_HOST_EXECUTOR_THREADS),
+                    configuration.getInt(HOST_EXECUTOR_QUEUE, DEFAULT_HOST_EXECUTOR_QUEUE));
+            hostDatasource = configuration.getString(HOST_DATASOURCE, DefaultAcHostRepository.DEFAULT_PERSISTENCE_UNIT);
+            scheduleStatsLogging(configuration);
+            invalidationChannel = createInvalidationChannel(configuration);
+            acHostRepository = createAcHostRepository(configuration);
+            acHostService = new AcHostServiceImpl(acHostRepository, repositoryExecutor, invalidationChannel);
+        }
+    }
+
+    private static void scheduleStatsLogging(Configuration configuration) {
+        final int statsSecs = configuration.getInt(HOST_POOL_STATS_SECS, DEFAULT_HOST_POOL_STATS_SECS);
+        maintenanceExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (LOGGER.isDebugEnabled()) {
+                    // the host repository's executor, and those of other parts of the module, e.g. JWT verification
+                    for (MeteredExecutor.Stats stats : MeteredExecutor.allStats()) {
+                        LOGGER.debug(stats.toString());
+                    }
+                    for (ConnectionPoolStats stats : getConnectionPoolStats()) {
+                        LOGGER.debug(stats.toString());
+                    }
+                }
+            }
+        }, statsSecs, statsSecs, TimeUnit.SECONDS);
+    }
+
+    private static AcHostRepository createAcHostRepository(Configuration configuration) {
+        configuredRepository = createConfiguredRepository(configuration);
+        AcHostRepository repository = withUnknownHostFilter(configuration, configuredRepository);
+        final boolean sharedCacheEnabled = configuration.getBoolean(HOST_SHARED_CACHE_ENABLED, false);
+        if (sharedCacheEnabled) {
+            repository = withSharedCache(configuration, repository);
+        }
+        // the snapshot holds every host already, there is nothing left for the cache to do
+        if (configuration.getBoolean(HOST_SNAPSHOT_ENABLED, false)) {
+            return withSnapshot(configuration, repository);
+        }
+        // nor is there next to the near cache of the shared cache
+        return sharedCacheEnabled ? repository : withCache(configuration, repository);
+    }
+
+    private static AcHostRepository withSharedCache(Configuration configuration, AcHostRepository repository) {
+        final int expirySecs = configuration.getInt(HOST_SHARED_CACHE_EXPIRY_SECS, DEFAULT_HOST_SHARED_CACHE_EXPIRY_SECS);
+        final int nearSecs = configuration.getInt(HOST_SHARED_CACHE_NEAR_SECS, DEFAULT_HOST_SHARED_CACHE_NEAR_SECS);
+        LOGGER.debug(format("Sharing AC hosts through the Play cache for %ds, kept locally for %ds", expirySecs, nearSecs));
+
+        final SharedCacheAcHostRepository sharedCacheRepository = new SharedCacheAcHostRepository(repository, expirySecs,
+                configuration.getInt(HOST_SHARED_CACHE_NEAR_SIZE, DEFAULT_HOST_SHARED_CACHE_NEAR_SIZE), nearSecs);
+        invalidationChannel.subscribe(sharedCacheRepository);
+        return sharedCacheRepository;
+    }
+
+    private static AcHostRepository withSnapshot(Configuration configuration, AcHostRepository repository) {
+        final int reconcileSecs = configuration.getInt(HOST_SNAPSHOT_RECONCILE_SECS, DEFAULT_HOST_SNAPSHOT_RECONCILE_SECS);
+        LOGGER.debug(format("Keeping a snapshot of all AC hosts, reconciled every %ds", reconcileSecs));
+
+        final SnapshotAcHostRepository snapshotRepository = new SnapshotAcHostRepository(repository,
+                configuration.getInt(HOST_SNAPSHOT_PAGE_SIZE, DEFAULT_HOST_SNAPSHOT_PAGE_SIZE), maintenanceExecutor);
+        invalidationChannel.subscribe(snapshotRepository);
+        maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    snapshotRepository.reconcile();
+                } catch (Throwable t) {
+                    LOGGER.warn("Could not reconcile the snapshot of AC hosts", t);
+                }
+            }
+        }, 0, reconcileSecs, TimeUnit.SECONDS);
+        return snapshotRepository;
+    }
+
+    private static AcHostRepository withCache(Configuration configuration, AcHostRepository repository) {
+        final boolean invalidatedAcrossNodes = isInvalidatedAcrossNodes(configuration);
+        if (!configuration.getBoolean(HOST_CACHE_ENABLED, invalidatedAcrossNodes)) {
+            return repository;
+        }
+        final int size = configuration.getInt(HOST_CACHE_SIZE, DEFAULT_HOST_CACHE_SIZE);
+        final int refreshSecs = configuration.getInt(HOST_CACHE_REFRESH_SECS, DEFAULT_HOST_CACHE_REFRESH_SECS);
+        final int expirySecs = configuration.getInt(HOST_CACHE_EXPIRY_SECS, DEFAULT_HOST_CACHE_EXPIRY_SECS);
+        LOGGER.debug(format("Caching up to %d AC hosts, refreshed after %ds and expired after %ds", size, refreshSecs, expirySecs));
+        if (!invalidatedAcrossNodes) {
+            LOGGER.warn(format("AC hosts are cached, but only invalidated on the node that writes them. If the add-on runs on " +
+                    "several nodes, the others serve deleted hosts and previous shared secrets for up to %ds: configure " +
+                    "%s=postgres or polling", expirySecs, HOST_INVALIDATION_CHANNEL));
+        }
+
+        final CachingAcHostRepository cachingRepository =
+                new CachingAcHostRepository(repository, size, refreshSecs, expirySecs, maintenanceExecutor);
+        invalidationChannel.subscribe(cachingRepository);
+        return cachingRepository;
+    }
+
+    /**
+     * Whether hosts written on one node are invalidated on the others, as they need to be for the caches on each node to
+     * be enabled by default
+     */
+    private static boolean isInvalidatedAcrossNodes(Configuration configuration) {
+        return !"local".equals(configuration.getString(HOST_INVALIDATION_CHANNEL, DEFAULT_HOST_INVALIDATION_CHANNEL));
+    }
+
+    private static AcHostRepository withUnknownHostFilter(Configuration configuration, AcHostRepository repository) {
+        final boolean invalidatedAcrossNodes = isInvalidatedAcrossNodes(configuration);
+        if (!configuration.getBoolean(HOST_FILTER_ENABLED, invalidatedAcrossNodes)) {
+            return repository;
+        }
+        if (!invalidatedAcrossNodes) {
+            LOGGER.warn(format("Unknown AC hosts are remembered, but only forgotten on the node that registers them. If the " +
+                    "add-on runs on several nodes, the others reject hosts registered just after they were looked up: " +
+                    "configure %s=postgres or polling", HOST_INVALIDATION_CHANNEL));
+        }
+        final boolean bloomFilterEnabled = configuration.getBoolean(HOST_FILTER_BLOOM_ENABLED, false);
+        final UnknownHostFilteringAcHostRepository filteringRepository = new UnknownHostFilteringAcHostRepository(repository,
+                configuration.getInt(HOST_FILTER_SIZE, DEFAULT_HOST_FILTER_SIZE),
+                configuration.getInt(HOST_FILTER_EXPIRY_SECS, DEFAULT_HOST_FILTER_EXPIRY_SECS),
+                bloomFilterEnabled,
+                configuration.getInt(HOST_FILTER_BLOOM_EXPECTED, DEFAULT_HOST_FILTER_BLOOM_EXPECTED));
+        invalidationChannel.subscribe(filteringRepository);
+
+        if (bloomFilterEnabled) {
+            final int rebuildSecs = configuration.getInt(HOST_FILTER_BLOOM_REBUILD_SECS, DEFAULT_HOST_FILTER_BLOOM_REBUILD_SECS);
+            maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        filteringRepository.rebuildKnownKeys();
+                    } catch (Throwable t) {
+                        LOGGER.warn("Could not rebuild the filter of known AC host keys", t);
+                    }
+                }
+            }, 0, rebuildSecs, TimeUnit.SECONDS);
+        }
+        return filteringRepository;
+    }
+
+    private static AcHostInvalidationChannel createInvalidationChannel(Configuration configuration) {
+        final String channel = configuration.getString(HOST_INVALIDATION_CHANNEL, DEFAULT_HOST_INVALIDATION_CHANNEL);
+        final String datasource = configuration.getString(HOST_INVALIDATION_DATASOURCE, hostDatasource);
+        final int pollMillis = configuration.getInt(HOST_INVALIDATION_POLL_MILLIS, DEFAULT_HOST_INVALIDATION_POLL_MILLIS);
+
+        if ("postgres".equals(channel)) {
+            final int timeoutSecs = configuration.getInt(HOST_INVALIDATION_TIMEOUT_SECS, DEFAULT_HOST_INVALIDATION_TIMEOUT_SECS);
+            return new PostgresAcHostInvalidationChannel(datasource, invalidationExecutor, pollMillis, timeoutSecs);
+        } else if ("polling".equals(channel)) {
+            final int lookbackSecs = configuration.getInt(HOST_INVALIDATION_LOOKBACK_SECS, DEFAULT_HOST_INVALIDATION_LOOKBACK_SECS);
+            return new PollingAcHostInvalidationChannel(datasource, invalidationExecutor, pollMillis,
+                    TimeUnit.SECONDS.toMillis(lookbackSecs));
+        } else if ("local".equals(channel)) {
+            return new LocalAcHostInvalidationChannel();
+        }
+        throw new IllegalStateException("Unknown AC host invalidation channel " + channel + ", expected local, postgres or polling");
+    }
+
+    /**
+     * Releases the threads or files held by the repository of the previous application, if it holds any
+     */
+    private static void closeQuietly(AcHostRepository repository) {
+        if (repository instanceof Closeable) {
+            try {
+                ((Closeable) repository).close();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Could not close the AC host repository " + repository, e);
+            }
+        }
+    }
+
+    private static AcHostRepository createConfiguredRepository(Configuration configuration) {
+        String acHostServiceClass = configuration.getString(HOST_REPOSITORY);
 
         if (!StringUtils.isEmpty(acHostServiceClass)) {
             try {
-                AcHostRepository repository = (AcHostRepository) Class.forName(acHostServiceClass, false, Play.application().classloader()).newInstance();
-                return new AcHostServiceImpl(repository);
+                return (AcHostRepository) Class.forName(acHostServiceClass, false, Play.application().classloader()).newInstance();
             } catch (Exception e) {
                 LOGGER.error("Could not load " + acHostServiceClass + " as the AC Host Repository", e);
                 throw new IllegalStateException("No AC Host Repository available", e);
             }
         } else {
-            return new AcHostServiceImpl(new DefaultAcHostRepository());
+            return new DefaultAcHostRepository();
         }
     }
 }
@@ -0,0 +1,279 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.annotations.VisibleForTesting;
+import play.Configuration;
+import play.Play;
+import play.db.DB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link AcHostRepository} using plain JDBC on a Play datasource, rather than JPA. It reads and writes the same
+ * {@code ac_host} table as {@link DefaultAcHostRepository}, so either can be used on an existing database. Select it with:
+ * <pre>
+ *     ac.hostrepository=com.atlassian.connect.play.java.service.JdbcAcHostRepository
+ *     ac.hostdb.datasource=default
+ *     # optional, e.g. a read replica
+ *     ac.hostdb.readdatasource=replica
+ * </pre>
+ * Hosts written by this node are read back from {@code ac.hostdb.datasource} for {@code ac.hostdb.readyourwrites.secs}
+ * after the write, rather than from a replica that may not have caught up yet.
+ * Lookups only read the columns hosts are built from, into detached {@link AcHost} instances. Statements are
+ * constants, so a datasource caching prepared statements (e.g. {@code db.default.statementsCacheSize=50}) reuses
+ * them across connections. {@link #upsert(AcHost)} is a single statement, which updates the host registered with the
+ * same key, or else the same base url, and saving a host without an id is an upsert too, so it doesn't fail on a base
+ * url that is already registered under another key. New hosts take their ids
+ * from {@code ac_host_seq} the way Hibernate's legacy hi/lo generator does, so JPA must not be configured with
+ * {@code hibernate.id.new_generator_mappings=true} on the same table.
+ */
+public class JdbcAcHostRepository implements AcHostRepository {
+
+    private static final String DATASOURCE = "ac.hostdb.datasource";
+    private static final String READ_DATASOURCE = "ac.hostdb.readdatasource";
+
+    private static final String COLUMNS = "id, key, baseUrl, publicKey, sharedSecret, name";
+
+    private static final String SELECT_ALL = "SELECT " + COLUMNS + " FROM ac_host";
+    private static final String SELECT_PAGE = SELECT_ALL + " WHERE id > ? ORDER BY id LIMIT ?";
+    private static final String SELECT_BY_KEY = SELECT_ALL + " WHERE key = ?";
+    private static final String SELECT_BY_URL = SELECT_ALL + " WHERE baseUrl = ?";
+    private static final String DELETE_BY_ID = "DELETE FROM ac_host WHERE id = ? RETURNING key, baseUrl";
+    private static final String UPDATE_BY_ID =
+            "UPDATE ac_host SET key = ?, baseUrl = ?, publicKey = ?, sharedSecret = ?, name = ? WHERE id = ?";
+
+    // updates the entry with the same key, or else the same base url, unless it is the same already, and inserts one if
+    // there is neither
+    private static final String UPSERT_EXISTING =
+            "WITH existing AS (SELECT id FROM ac_host WHERE key = ? OR baseUrl = ? ORDER BY key = ? DESC LIMIT 1), " +
+            "updated AS (UPDATE ac_host SET key = ?, baseUrl = ?, publicKey = ?, sharedSecret = ?, name = ? " +
+            "WHERE id = (SELECT id FROM existing) " +
+            "AND (key, baseUrl, publicKey, sharedSecret, name) IS DISTINCT FROM (?, ?, ?, ?, ?) RETURNING id) ";
+    // AcHost ids are allocated by Hibernate's legacy hi/lo generator in blocks of 50 per value of ac_host_seq (see its
+    // @SequenceGenerator), ids from value * 50 to value * 50 + 49, so the first id of a fresh block can never collide
+    // with an id allocated through JPA. This only holds while hibernate.id.new_generator_mappings is false, Hibernate
+    // 4's default: its pooled generators read the sequence's values as ids themselves.
+    private static final String INSERT_MISSING =
+            "INSERT INTO ac_host (id, key, baseUrl, publicKey, sharedSecret, name) " +
+            "SELECT nextval('ac_host_seq') * 50, ?, ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM existing)";
+    private static final String UPSERT = UPSERT_EXISTING + INSERT_MISSING;
+    // the existing entry's id whether or not it was updated
+    private static final String UPSERT_RETURNING_ID = UPSERT_EXISTING + ", inserted AS (" + INSERT_MISSING +
+            " RETURNING id) SELECT id FROM existing UNION ALL SELECT id FROM inserted";
+
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private final String datasourceName;
+    private final String readDatasourceName;
+    private final RecentWrites recentWrites;
+
+    public JdbcAcHostRepository() {
+        this(Play.application().configuration());
+    }
+
+    private JdbcAcHostRepository(Configuration configuration) {
+        this(configuration.getString(DATASOURCE, DefaultAcHostRepository.DEFAULT_PERSISTENCE_UNIT),
+                configuration.getString(READ_DATASOURCE, configuration.getString(DATASOURCE, DefaultAcHostRepository.DEFAULT_PERSISTENCE_UNIT)),
+                configuration.getInt(DefaultAcHostRepository.READ_YOUR_WRITES_SECS, DefaultAcHostRepository.DEFAULT_READ_YOUR_WRITES_SECS));
+    }
+
+    public JdbcAcHostRepository(String datasourceName) {
+        this(datasourceName, datasourceName, 0);
+    }
+
+    public JdbcAcHostRepository(String datasourceName, String readDatasourceName, int readYourWritesSeconds) {
+        this.datasourceName = checkNotNull(datasourceName);
+        this.readDatasourceName = checkNotNull(readDatasourceName);
+        this.recentWrites = new RecentWrites(readYourWritesSeconds);
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        if (acHost.getId() == null) {
+            // a new host may have the key or base url of a registered one, which it replaces
+            upsert(acHost);
+            return;
+        }
+        try (Connection connection = getConnection(datasourceName, true);
+             PreparedStatement statement = connection.prepareStatement(UPDATE_BY_ID)) {
+            setHostParameters(statement, acHost);
+            statement.setLong(6, acHost.getId());
+            statement.executeUpdate();
+        }
+        recentWrites.add(acHost);
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        try (Connection connection = getConnection(recentWrites.isEmpty() ? readDatasourceName : datasourceName, true);
+             PreparedStatement statement = connection.prepareStatement(SELECT_ALL);
+             ResultSet resultSet = statement.executeQuery()) {
+            final List<AcHost> acHosts = new ArrayList<AcHost>();
+            while (resultSet.next()) {
+                acHosts.add(toAcHost(resultSet));
+            }
+            return acHosts;
+        }
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        try (Connection connection = getConnection(recentWrites.isEmpty() ? readDatasourceName : datasourceName, true);
+             PreparedStatement statement = connection.prepareStatement(SELECT_PAGE)) {
+            statement.setLong(1, afterId == null ? Long.MIN_VALUE : afterId);
+            statement.setInt(2, limit);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                final List<AcHost> acHosts = new ArrayList<AcHost>(limit);
+                while (resultSet.next()) {
+                    acHosts.add(toAcHost(resultSet));
+                }
+                return acHosts;
+            }
+        }
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        return findOne(recentWrites.containsKey(key) ? datasourceName : readDatasourceName, SELECT_BY_KEY, key);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        return findOne(recentWrites.containsBaseUrl(baseUrl) ? datasourceName : readDatasourceName, SELECT_BY_URL, baseUrl);
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        try (Connection connection = getConnection(datasourceName, true);
+             PreparedStatement statement = connection.prepareStatement(DELETE_BY_ID)) {
+            statement.setLong(1, id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    final AcHost deleted = new AcHost();
+                    deleted.setKey(resultSet.getString(1));
+                    deleted.setBaseUrl(resultSet.getString(2));
+                    recentWrites.add(deleted);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        try (Connection connection = getConnection(datasourceName, true)) {
+            try {
+                acHost.setId(upsert(connection, acHost));
+            } catch (SQLException e) {
+                if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                    throw e;
+                }
+                // the same host was inserted concurrently, it is visible to a new statement
+                acHost.setId(upsert(connection, acHost));
+            }
+        }
+        recentWrites.add(acHost);
+    }
+
+    /**
+     * Upserts the hosts in a single transaction, sending their statements as one batch. Ids are not set on the hosts.
+     */
+    @Override
+    public void upsertAll(List<AcHost> acHosts) throws Throwable {
+        try (Connection connection = getConnection(datasourceName, false);
+             PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+            try {
+                for (AcHost acHost : acHosts) {
+                    setUpsertParameters(statement, acHost);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        for (AcHost acHost : acHosts) {
+            recentWrites.add(acHost);
+        }
+    }
+
+    @VisibleForTesting
+    Connection getConnection(String datasource, boolean autocommit) throws SQLException {
+        return DB.getConnection(datasource, autocommit);
+    }
+
+    private static long upsert(Connection connection, AcHost acHost) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(UPSERT_RETURNING_ID)) {
+            setUpsertParameters(statement, acHost);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+    private Option<AcHost> findOne(String datasource, String sql, String parameter) throws SQLException {
+        try (Connection connection = getConnection(datasource, true);
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, parameter);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? some(toAcHost(resultSet)) : none(AcHost.class);
+            }
+        }
+    }
+
+    private static void setHostParameters(PreparedStatement statement, AcHost acHost) throws SQLException {
+        statement.setString(1, acHost.getKey());
+        statement.setString(2, acHost.getBaseUrl());
+        statement.setString(3, acHost.getPublicKey());
+        statement.setString(4, acHost.getSharedSecret());
+        statement.setString(5, acHost.getName());
+    }
+
+    private static void setUpsertParameters(PreparedStatement statement, AcHost acHost) throws SQLException {
+        // existing
+        statement.setString(1, acHost.getKey());
+        statement.setString(2, acHost.getBaseUrl());
+        statement.setString(3, acHost.getKey());
+        // updated
+        statement.setString(4, acHost.getKey());
+        statement.setString(5, acHost.getBaseUrl());
+        statement.setString(6, acHost.getPublicKey());
+        statement.setString(7, acHost.getSharedSecret());
+        statement.setString(8, acHost.getName());
+        // unless the same already
+        statement.setString(9, acHost.getKey());
+        statement.setString(10, acHost.getBaseUrl());
+        statement.setString(11, acHost.getPublicKey());
+        statement.setString(12, acHost.getSharedSecret());
+        statement.setString(13, acHost.getName());
+        // inserted
+        statement.setString(14, acHost.getKey());
+        statement.setString(15, acHost.getBaseUrl());
+        statement.setString(16, acHost.getPublicKey());
+        statement.setString(17, acHost.getSharedSecret());
+        statement.setString(18, acHost.getName());
+    }
+
+    private static AcHost toAcHost(ResultSet resultSet) throws SQLException {
+        final AcHost acHost = new AcHost();
+        acHost.setId(resultSet.getLong(1));
+        acHost.setKey(resultSet.getString(2));
+        acHost.setBaseUrl(resultSet.getString(3));
+        acHost.setPublicKey(resultSet.getString(4));
+        acHost.setSharedSecret(resultSet.getString(5));
+        acHost.setName(resultSet.getString(6));
+        return acHost;
+    }
+}
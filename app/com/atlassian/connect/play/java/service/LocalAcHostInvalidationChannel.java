@@ -0,0 +1,55 @@
+package com.atlassian.connect.play.java.service;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link AcHostInvalidationChannel} within this JVM only, for add-ons running on a single node. It is also the base
+ * of the other channels, which deliver what they receive with {@link #deliver(String)} and {@link #deliverAll()}.
+ */
+public class LocalAcHostInvalidationChannel implements AcHostInvalidationChannel {
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+    @Override
+    public void publish(String key) throws Throwable {
+        deliver(key);
+    }
+
+    @Override
+    public void publishAll() throws Throwable {
+        deliverAll();
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(checkNotNull(listener));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    protected void deliver(String key) {
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidate(key);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not invalidate AC host " + key, e);
+            }
+        }
+    }
+
+    protected void deliverAll() {
+        for (Listener listener : listeners) {
+            try {
+                listener.invalidateAll();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not invalidate AC hosts", e);
+            }
+        }
+    }
+}
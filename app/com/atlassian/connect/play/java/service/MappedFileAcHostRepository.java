@@ -0,0 +1,551 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import play.Play;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * An {@link AcHostRepository} keeping hosts in a local file rather than a database, for add-ons running on a single
+ * node which only need a database to store their hosts. Select it with:
+ * <pre>
+ *     ac.hostrepository=com.atlassian.connect.play.java.service.MappedFileAcHostRepository
+ *     ac.hostfile.path=/var/lib/my-add-on/ac-hosts.db
+ * </pre>
+ * The file is an append-only log of checksummed records, each host written or deleted, mapped into memory. Hosts are
+ * indexed by key and base url in open-addressing hash tables of record offsets, and read straight from the mapping.
+ * <p/>
+ * The log is replayed when the file is opened; a record that was only partly written when the process died is
+ * detected by its checksum and discarded, along with anything after it. Once most of the log is made of replaced or
+ * deleted hosts, it is compacted in the background into a new file, which then replaces it.
+ */
+public class MappedFileAcHostRepository implements AcHostRepository, Closeable {
+
+    private static final String PATH = "ac.hostfile.path";
+    private static final String DEFAULT_PATH = "ac-hosts.db";
+
+    private static final int MAGIC = 0x41434831;
+    private static final int HEADER_SIZE = 4;
+    // record length and checksum, followed by the record type, the host id and the host's fields
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int FIELDS_OFFSET = RECORD_HEADER_SIZE + 1 + 8;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+
+    private static final int KEY = 0;
+    private static final int BASE_URL = 1;
+    private static final int PUBLIC_KEY = 2;
+    private static final int SHARED_SECRET = 3;
+    private static final int NAME = 4;
+
+    private static final int MINIMUM_CAPACITY = 1 << 20;
+    private static final int MINIMUM_COMPACTION_SIZE = 1 << 20;
+
+    private final File file;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("ac-host-file-compactor-%d").setDaemon(true).build());
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    // all of the following are guarded by the lock
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+    private long liveBytes;
+    private long nextId;
+    private final NavigableMap<Long, Integer> offsetsById = new TreeMap<Long, Integer>();
+    private final OffsetIndex offsetsByKey = new OffsetIndex(KEY);
+    private final OffsetIndex offsetsByBaseUrl = new OffsetIndex(BASE_URL);
+
+    public MappedFileAcHostRepository() throws IOException {
+        this(Play.application().getFile(Play.application().configuration().getString(PATH, DEFAULT_PATH)));
+    }
+
+    public MappedFileAcHostRepository(File file) throws IOException {
+        this.file = checkNotNull(file);
+        open(file);
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        lock.writeLock().lock();
+        try {
+            write(acHost);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        lock.writeLock().lock();
+        try {
+            Integer existing = offsetsByKey.get(acHost.getKey());
+            if (existing == null) {
+                existing = offsetsByBaseUrl.get(acHost.getBaseUrl());
+            }
+            acHost.setId(existing != null ? buffer.getLong(existing + RECORD_HEADER_SIZE + 1) : null);
+            write(acHost);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        lock.readLock().lock();
+        try {
+            final List<AcHost> acHosts = new ArrayList<AcHost>(offsetsById.size());
+            for (int offset : offsetsById.values()) {
+                acHosts.add(readHost(offset));
+            }
+            return acHosts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        lock.readLock().lock();
+        try {
+            final Map<Long, Integer> tail = afterId == null ? offsetsById : offsetsById.tailMap(afterId, false);
+            final List<AcHost> acHosts = new ArrayList<AcHost>(Math.min(limit, tail.size()));
+            for (int offset : tail.values()) {
+                if (acHosts.size() == limit) {
+                    break;
+                }
+                acHosts.add(readHost(offset));
+            }
+            return acHosts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        return find(offsetsByKey, key);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        return find(offsetsByBaseUrl, baseUrl);
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        lock.writeLock().lock();
+        try {
+            if (!offsetsById.containsKey(id)) {
+                return;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream record = new DataOutputStream(bytes);
+            record.writeByte(DELETE);
+            record.writeLong(id);
+            apply(append(bytes.toByteArray()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        scheduleCompactionIfNeeded();
+    }
+
+    /**
+     * Rewrites the file with only the current version of each host. Reads and writes wait until it's done.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            final File compacted = new File(file.getPath() + ".compact");
+            final List<Integer> offsets = new ArrayList<Integer>(offsetsById.values());
+            Collections.sort(offsets);
+            try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC);
+                header.flip();
+                out.write(header);
+                for (int offset : offsets) {
+                    out.write(slice(offset, recordSize(offset)));
+                }
+                out.force(true);
+            }
+            final int previousEnd = end;
+            final FileChannel previousChannel = channel;
+            final MappedByteBuffer previousBuffer = buffer;
+            try {
+                // the channel stays open while the file is moved, and then is the file's
+                open(compacted);
+                Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException | RuntimeException e) {
+                // keep using the file as it was
+                if (channel != previousChannel) {
+                    closeQuietly(channel);
+                }
+                channel = previousChannel;
+                buffer = previousBuffer;
+                replay();
+                Files.deleteIfExists(compacted.toPath());
+                throw e;
+            }
+            previousChannel.close();
+            LOGGER.debug(format("Compacted %s from %d to %d bytes", file, previousEnd, end));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            compactor.shutdown();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Option<AcHost> find(OffsetIndex index, String value) {
+        lock.readLock().lock();
+        try {
+            final Integer offset = index.get(value);
+            return offset == null ? none(AcHost.class) : some(readHost(offset));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(AcHost acHost) throws IOException {
+        final Integer sameKey = offsetsByKey.get(acHost.getKey());
+        final Integer sameBaseUrl = offsetsByBaseUrl.get(acHost.getBaseUrl());
+        if ((sameKey != null && !isHost(sameKey, acHost.getId())) || (sameBaseUrl != null && !isHost(sameBaseUrl, acHost.getId()))) {
+            throw new IllegalStateException(format("Another host is registered with key %s or base url %s",
+                    acHost.getKey(), acHost.getBaseUrl()));
+        }
+        if (acHost.getId() == null) {
+            acHost.setId(nextId);
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream record = new DataOutputStream(bytes);
+        record.writeByte(PUT);
+        record.writeLong(acHost.getId());
+        writeString(record, acHost.getKey());
+        writeString(record, acHost.getBaseUrl());
+        writeString(record, acHost.getPublicKey());
+        writeString(record, acHost.getSharedSecret());
+        writeString(record, acHost.getName());
+        apply(append(bytes.toByteArray()));
+    }
+
+    private boolean isHost(int offset, Long id) {
+        return id != null && id == buffer.getLong(offset + RECORD_HEADER_SIZE + 1);
+    }
+
+    private void open(File path) throws IOException {
+        channel = FileChannel.open(path.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException(path + " is too large to be an AC host file");
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, MINIMUM_CAPACITY));
+        if (size == 0) {
+            buffer.putInt(0, MAGIC);
+            buffer.force();
+        } else if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException(path + " is not an AC host file");
+        }
+        replay();
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug("Could not close " + channel, e);
+        }
+    }
+
+    private void replay() {
+        offsetsById.clear();
+        offsetsByKey.clear();
+        offsetsByBaseUrl.clear();
+        liveBytes = 0;
+        nextId = 1;
+
+        int offset = HEADER_SIZE;
+        while (isCompleteRecord(offset)) {
+            apply(offset);
+            offset += recordSize(offset);
+        }
+        end = offset;
+
+        if (end + 4 <= buffer.capacity() && buffer.getInt(end) != 0) {
+            LOGGER.warn(format("Discarding the incomplete records at the end of %s, from offset %d", file, end));
+            for (int i = end; i < buffer.capacity(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            buffer.force();
+        }
+    }
+
+    private boolean isCompleteRecord(int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return false;
+        }
+        final int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_SIZE) {
+            return false;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(slice(offset + RECORD_HEADER_SIZE, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private int append(byte[] record) throws IOException {
+        final int offset = end;
+        final int size = RECORD_HEADER_SIZE + record.length;
+        if (offset + size + 4 > buffer.capacity()) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(buffer.capacity() * 2L, offset + size + 4L));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+
+        final ByteBuffer target = buffer.duplicate();
+        target.position(offset + 4);
+        target.putInt((int) crc.getValue());
+        target.put(record);
+        // the length goes last, so that a record is only complete once all of it was written
+        buffer.putInt(offset, record.length);
+        buffer.force();
+        end = offset + size;
+        return offset;
+    }
+
+    private void apply(int offset) {
+        final byte type = buffer.get(offset + RECORD_HEADER_SIZE);
+        final long id = buffer.getLong(offset + RECORD_HEADER_SIZE + 1);
+        final Integer previous = type == PUT ? offsetsById.put(id, offset) : offsetsById.remove(id);
+        if (previous != null) {
+            offsetsByKey.remove(previous);
+            offsetsByBaseUrl.remove(previous);
+            liveBytes -= recordSize(previous);
+        }
+        if (type == PUT) {
+            offsetsByKey.put(offset);
+            offsetsByBaseUrl.put(offset);
+            liveBytes += recordSize(offset);
+            nextId = Math.max(nextId, id + 1);
+        }
+    }
+
+    private void scheduleCompactionIfNeeded() {
+        lock.readLock().lock();
+        try {
+            final int logBytes = end - HEADER_SIZE;
+            if (logBytes < MINIMUM_COMPACTION_SIZE || liveBytes * 2 > logBytes) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (compactionScheduled.compareAndSet(false, true)) {
+            compactor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        compact();
+                    } catch (IOException e) {
+                        LOGGER.warn("Could not compact " + file, e);
+                    } finally {
+                        compactionScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+
+    private int recordSize(int offset) {
+        return RECORD_HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    private ByteBuffer slice(int offset, int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length).position(offset);
+        return slice;
+    }
+
+    private AcHost readHost(int offset) {
+        final AcHost acHost = new AcHost();
+        acHost.setId(buffer.getLong(offset + RECORD_HEADER_SIZE + 1));
+        int fieldOffset = offset + FIELDS_OFFSET;
+        for (int field = KEY; field <= NAME; field++) {
+            final String value = readString(fieldOffset);
+            switch (field) {
+                case KEY: acHost.setKey(value); break;
+                case BASE_URL: acHost.setBaseUrl(value); break;
+                case PUBLIC_KEY: acHost.setPublicKey(value); break;
+                case SHARED_SECRET: acHost.setSharedSecret(value); break;
+                default: acHost.setName(value);
+            }
+            fieldOffset += 4 + Math.max(buffer.getInt(fieldOffset), 0);
+        }
+        return acHost;
+    }
+
+    private String readField(int offset, int field) {
+        int fieldOffset = offset + FIELDS_OFFSET;
+        for (int i = 0; i < field; i++) {
+            fieldOffset += 4 + Math.max(buffer.getInt(fieldOffset), 0);
+        }
+        return readString(fieldOffset);
+    }
+
+    private String readString(int offset) {
+        final int length = buffer.getInt(offset);
+        if (length < 0) {
+            return null;
+        }
+        return Charsets.UTF_8.decode(slice(offset + 4, length)).toString();
+    }
+
+    private static void writeString(DataOutputStream record, String value) throws IOException {
+        if (value == null) {
+            record.writeInt(-1);
+        } else {
+            final byte[] bytes = value.getBytes(Charsets.UTF_8);
+            record.writeInt(bytes.length);
+            record.write(bytes);
+        }
+    }
+
+    /**
+     * Record offsets by the value of one of their fields, in an open-addressing hash table with linear probing.
+     * Offsets are never 0, which is within the file header.
+     */
+    private final class OffsetIndex {
+        private static final int EMPTY = 0;
+        private static final int REMOVED = -1;
+
+        private final int field;
+        private int[] slots = new int[16];
+        private int live;
+        private int used;
+
+        OffsetIndex(int field) {
+            this.field = field;
+        }
+
+        Integer get(String value) {
+            if (value == null) {
+                return null;
+            }
+            final int mask = slots.length - 1;
+            for (int i = hash(value) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+                if (slots[i] != REMOVED && value.equals(readField(slots[i], field))) {
+                    return slots[i];
+                }
+            }
+            return null;
+        }
+
+        void put(int offset) {
+            final String value = readField(offset, field);
+            if (value == null) {
+                return;
+            }
+            if ((used + 1) * 2 > slots.length) {
+                resize();
+            }
+            final int mask = slots.length - 1;
+            int free = -1;
+            int i = hash(value) & mask;
+            for (; slots[i] != EMPTY; i = (i + 1) & mask) {
+                if (slots[i] == REMOVED) {
+                    free = free < 0 ? i : free;
+                } else if (value.equals(readField(slots[i], field))) {
+                    slots[i] = offset;
+                    return;
+                }
+            }
+            if (free < 0) {
+                free = i;
+                used++;
+            }
+            slots[free] = offset;
+            live++;
+        }
+
+        void remove(int offset) {
+            final String value = readField(offset, field);
+            if (value == null) {
+                return;
+            }
+            final int mask = slots.length - 1;
+            for (int i = hash(value) & mask; slots[i] != EMPTY; i = (i + 1) & mask) {
+                if (slots[i] == offset) {
+                    slots[i] = REMOVED;
+                    live--;
+                    return;
+                }
+            }
+        }
+
+        void clear() {
+            slots = new int[16];
+            live = 0;
+            used = 0;
+        }
+
+        private void resize() {
+            final int[] previous = slots;
+            slots = new int[Math.max(16, Integer.highestOneBit(Math.max(live, 1) * 4) * 2)];
+            live = 0;
+            used = 0;
+            for (int offset : previous) {
+                if (offset != EMPTY && offset != REMOVED) {
+                    put(offset);
+                }
+            }
+        }
+
+        private int hash(String value) {
+            final int h = value.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
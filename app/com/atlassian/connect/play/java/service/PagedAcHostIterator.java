@@ -0,0 +1,51 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Iterates over all hosts of a repository, loading them a page at a time with
+ * {@link AcHostRepository#findPage(Long, int)}. Failures of the repository are rethrown unchecked.
+ */
+final class PagedAcHostIterator extends AbstractIterator<AcHost> {
+    private final AcHostRepository repository;
+    private final int pageSize;
+
+    private Iterator<AcHost> page = Collections.emptyIterator();
+    private Long lastId;
+    private boolean lastPage;
+
+    PagedAcHostIterator(AcHostRepository repository, int pageSize) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        this.repository = checkNotNull(repository);
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    protected AcHost computeNext() {
+        while (!page.hasNext()) {
+            if (lastPage) {
+                return endOfData();
+            }
+            final List<AcHost> next;
+            try {
+                next = repository.findPage(lastId, pageSize);
+            } catch (Throwable t) {
+                throw Throwables.propagate(t);
+            }
+            lastPage = next.size() < pageSize;
+            page = next.iterator();
+        }
+        final AcHost acHost = page.next();
+        lastId = acHost.getId();
+        return acHost;
+    }
+}
@@ -0,0 +1,124 @@
+package com.atlassian.connect.play.java.service;
+
+import com.google.common.annotations.VisibleForTesting;
+import play.db.DB;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link AcHostInvalidationChannel} polling the {@code version} column of {@code ac_host}, and of the
+ * {@code ac_host_deleted} tombstones, on the given Play datasource. Nothing needs publishing, as the database stamps
+ * every row written with the time of the write, and records the key of every row deleted (see the README for the
+ * columns, their indexes and triggers). Hosts are invalidated when they are written or deleted on any node.
+ * <p/>
+ * Rows written within the lookback of the latest one seen are read again on each poll, so that writes committed
+ * out of order aren't missed; they are only invalidated again if their version changed.
+ */
+public class PollingAcHostInvalidationChannel extends LocalAcHostInvalidationChannel {
+
+    private static final String SELECT_LATEST =
+            "SELECT greatest((SELECT max(version) FROM ac_host), (SELECT max(version) FROM ac_host_deleted))";
+    // a host deleted and registered again is in both tables, only its latest version counts
+    private static final String SELECT_CHANGED = "SELECT key, max(version) FROM (" +
+            "SELECT key, version FROM ac_host WHERE version > ? UNION ALL SELECT key, version FROM ac_host_deleted WHERE version > ?" +
+            ") changed GROUP BY key";
+
+    private final String datasourceName;
+    private final long lookbackMillis;
+    private final ScheduledFuture<?> polling;
+
+    // only used by the polling task
+    private Long latestVersion;
+    private final Map<String, Long> recentVersions = new HashMap<String, Long>();
+
+    public PollingAcHostInvalidationChannel(String datasourceName, ScheduledExecutorService scheduler, long pollMillis,
+                                            long lookbackMillis) {
+        this.datasourceName = checkNotNull(datasourceName);
+        this.lookbackMillis = lookbackMillis;
+        this.polling = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (SQLException e) {
+                    LOGGER.warn("Could not poll for AC host invalidations", e);
+                }
+            }
+        }, 0, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Only delivers the key to this node's listeners, other nodes see the write itself.
+     */
+    @Override
+    public void publish(String key) throws Throwable {
+        deliver(key);
+    }
+
+    /**
+     * Only delivers to this node's listeners, other nodes see the writes themselves.
+     */
+    @Override
+    public void publishAll() throws Throwable {
+        deliverAll();
+    }
+
+    @Override
+    public void close() {
+        polling.cancel(false);
+    }
+
+    @VisibleForTesting
+    Connection getConnection(String datasourceName) throws SQLException {
+        return DB.getConnection(datasourceName, true);
+    }
+
+    private void poll() throws SQLException {
+        try (Connection connection = getConnection(datasourceName)) {
+            if (latestVersion == null) {
+                // the first poll only finds out where to start from
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_LATEST);
+                     ResultSet resultSet = statement.executeQuery()) {
+                    resultSet.next();
+                    latestVersion = resultSet.getLong(1);
+                    return;
+                }
+            }
+
+            final long since = latestVersion - lookbackMillis;
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_CHANGED)) {
+                statement.setLong(1, since);
+                statement.setLong(2, since);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        final String key = resultSet.getString(1);
+                        final long version = resultSet.getLong(2);
+                        latestVersion = Math.max(latestVersion, version);
+                        final Long previousVersion = recentVersions.put(key, version);
+                        if (previousVersion == null || previousVersion != version) {
+                            deliver(key);
+                        }
+                    }
+                }
+            }
+
+            for (Iterator<Long> versions = recentVersions.values().iterator(); versions.hasNext(); ) {
+                if (versions.next() <= since) {
+                    versions.remove();
+                }
+            }
+        }
+    }
+}
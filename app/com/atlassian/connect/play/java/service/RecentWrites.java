@@ -0,0 +1,59 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the hosts this node wrote for a short while, so that repositories reading from a replica can read those
+ * back from the primary instead, until the replica has caught up.
+ */
+final class RecentWrites {
+
+    private static final int MAXIMUM_SIZE = 10000;
+
+    private final Cache<String, Boolean> keys;
+    private final Cache<String, Boolean> baseUrls;
+
+    RecentWrites(long windowSeconds) {
+        this(windowSeconds, Ticker.systemTicker());
+    }
+
+    RecentWrites(long windowSeconds, Ticker ticker) {
+        this.keys = CacheBuilder.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfterWrite(windowSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+        this.baseUrls = CacheBuilder.newBuilder()
+                .maximumSize(MAXIMUM_SIZE)
+                .expireAfterWrite(windowSeconds, TimeUnit.SECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    void add(AcHost acHost) {
+        if (acHost.getKey() != null) {
+            keys.put(acHost.getKey(), Boolean.TRUE);
+        }
+        if (acHost.getBaseUrl() != null) {
+            baseUrls.put(acHost.getBaseUrl(), Boolean.TRUE);
+        }
+    }
+
+    boolean containsKey(String key) {
+        return key != null && keys.getIfPresent(key) != null;
+    }
+
+    boolean containsBaseUrl(String baseUrl) {
+        return baseUrl != null && baseUrls.getIfPresent(baseUrl) != null;
+    }
+
+    boolean isEmpty() {
+        keys.cleanUp();
+        return keys.size() == 0;
+    }
+}
@@ -0,0 +1,279 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import play.Configuration;
+import play.Play;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.atlassian.fugue.Option.none;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Partitions hosts across several persistence units, by a consistent hash of their client key, so that adding a shard
+ * only moves about {@code 1/n} of the hosts. Select it with:
+ * <pre>
+ *     ac.hostrepository=com.atlassian.connect.play.java.service.ShardedAcHostRepository
+ *     ac.hostshards.units=["shard0", "shard1", "shard2"]
+ * </pre>
+ * Lookups by base url go to the shard remembered for that url, or to all shards when it isn't known. Queries over all
+ * hosts run on every shard in parallel, and are merged. As hosts are deleted by id, the {@code ac_host_seq} sequence of
+ * each shard must hand out ids in ranges that don't overlap with the others.
+ * <p/>
+ * Add-ons can store their own data for a host in the same shard, see {@link #persistenceUnitFor(String)}.
+ */
+public class ShardedAcHostRepository implements AcHostRepository, Closeable {
+
+    private static final String PERSISTENCE_UNITS = "ac.hostshards.units";
+    private static final int MAXIMUM_ROUTED_URLS = 10000;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final List<String> persistenceUnits;
+    private final List<AcHostRepository> shards;
+    private final Cache<String, Integer> shardsByBaseUrl = CacheBuilder.newBuilder().maximumSize(MAXIMUM_ROUTED_URLS).build();
+    private final ExecutorService executor;
+
+    public ShardedAcHostRepository() {
+        this(Play.application().configuration());
+    }
+
+    private ShardedAcHostRepository(Configuration configuration) {
+        this(configuration.getStringList(PERSISTENCE_UNITS, Collections.<String>emptyList()),
+                configuration.getInt(DefaultAcHostRepository.READ_YOUR_WRITES_SECS, DefaultAcHostRepository.DEFAULT_READ_YOUR_WRITES_SECS));
+    }
+
+    private ShardedAcHostRepository(List<String> persistenceUnits, int readYourWritesSeconds) {
+        this(persistenceUnits, shardsFor(persistenceUnits, readYourWritesSeconds));
+    }
+
+    /**
+     * @param persistenceUnits the names of the persistence units, in a fixed order
+     * @param shards the repository of each of these persistence units, in the same order
+     */
+    public ShardedAcHostRepository(List<String> persistenceUnits, List<? extends AcHostRepository> shards) {
+        checkArgument(persistenceUnits != null && !persistenceUnits.isEmpty(), PERSISTENCE_UNITS + " must list at least one persistence unit");
+        checkArgument(persistenceUnits.size() == shards.size(), "There must be a repository for each persistence unit");
+        this.persistenceUnits = ImmutableList.copyOf(persistenceUnits);
+        this.shards = ImmutableList.copyOf(shards);
+        this.executor = Executors.newFixedThreadPool(shards.size(),
+                new ThreadFactoryBuilder().setNameFormat("ac-host-shards-%d").setDaemon(true).build());
+    }
+
+    /**
+     * @return the persistence unit, of those given, holding the host with the given client key
+     */
+    public static String persistenceUnitFor(String clientKey, List<String> persistenceUnits) {
+        return persistenceUnits.get(shardFor(clientKey, persistenceUnits.size()));
+    }
+
+    /**
+     * @return the persistence unit holding the host with the given client key
+     */
+    public String persistenceUnitFor(String clientKey) {
+        return persistenceUnitFor(clientKey, persistenceUnits);
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        final int shard = shardFor(acHost.getKey(), shards.size());
+        shards.get(shard).save(acHost);
+        route(acHost.getBaseUrl(), shard);
+    }
+
+    /**
+     * Upserts the host into the shard of its key. A host with the same base url in another shard, registered under
+     * another key, is then deleted from that shard, so that the host is never lost if the upsert fails.
+     */
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        final int shard = shardFor(acHost.getKey(), shards.size());
+        final Map<Integer, AcHost> moved = new LinkedHashMap<Integer, AcHost>();
+        if (shards.get(shard).findByKey(acHost.getKey()).isEmpty()) {
+            for (int other = 0; other < shards.size(); other++) {
+                if (other != shard) {
+                    final Option<AcHost> sameBaseUrl = shards.get(other).findByUrl(acHost.getBaseUrl());
+                    if (sameBaseUrl.isDefined()) {
+                        moved.put(other, sameBaseUrl.get());
+                    }
+                }
+            }
+        }
+        shards.get(shard).upsert(acHost);
+        route(acHost.getBaseUrl(), shard);
+        for (Map.Entry<Integer, AcHost> previous : moved.entrySet()) {
+            shards.get(previous.getKey()).delete(previous.getValue().getId());
+        }
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        final List<AcHost> acHosts = new ArrayList<AcHost>();
+        for (List<AcHost> shardHosts : onEveryShard(new ShardQuery<List<AcHost>>() {
+            @Override
+            public List<AcHost> apply(AcHostRepository shard) throws Throwable {
+                return shard.all();
+            }
+        })) {
+            acHosts.addAll(shardHosts);
+        }
+        return acHosts;
+    }
+
+    @Override
+    public List<AcHost> findPage(final Long afterId, final int limit) throws Throwable {
+        final List<AcHost> acHosts = new ArrayList<AcHost>();
+        for (List<AcHost> shardHosts : onEveryShard(new ShardQuery<List<AcHost>>() {
+            @Override
+            public List<AcHost> apply(AcHostRepository shard) throws Throwable {
+                return shard.findPage(afterId, limit);
+            }
+        })) {
+            acHosts.addAll(shardHosts);
+        }
+        Collections.sort(acHosts, new Comparator<AcHost>() {
+            @Override
+            public int compare(AcHost first, AcHost second) {
+                return first.getId().compareTo(second.getId());
+            }
+        });
+        return acHosts.size() > limit ? acHosts.subList(0, limit) : acHosts;
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        if (key == null) {
+            return none(AcHost.class);
+        }
+        return shards.get(shardFor(key, shards.size())).findByKey(key);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(final String baseUrl) throws Throwable {
+        final Integer routed = baseUrl == null ? null : shardsByBaseUrl.getIfPresent(baseUrl);
+        if (routed != null) {
+            final Option<AcHost> acHost = shards.get(routed).findByUrl(baseUrl);
+            if (acHost.isDefined()) {
+                return acHost;
+            }
+            shardsByBaseUrl.invalidate(baseUrl);
+        }
+
+        final List<Option<AcHost>> found = onEveryShard(new ShardQuery<Option<AcHost>>() {
+            @Override
+            public Option<AcHost> apply(AcHostRepository shard) throws Throwable {
+                return shard.findByUrl(baseUrl);
+            }
+        });
+        for (int shard = 0; shard < found.size(); shard++) {
+            if (found.get(shard).isDefined()) {
+                route(baseUrl, shard);
+                return found.get(shard);
+            }
+        }
+        return none(AcHost.class);
+    }
+
+    /**
+     * Deletes the host with the given id from every shard, see the requirement on ids above.
+     */
+    @Override
+    public void delete(final Long id) throws Throwable {
+        onEveryShard(new ShardQuery<Void>() {
+            @Override
+            public Void apply(AcHostRepository shard) throws Throwable {
+                shard.delete(id);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Stops the threads querying the shards in parallel
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    static int shardFor(String clientKey, int shards) {
+        checkArgument(clientKey != null, "Hosts are sharded by client key, which can't be null");
+        return Hashing.consistentHash(HASH.hashString(clientKey, Charsets.UTF_8), shards);
+    }
+
+    private void route(String baseUrl, int shard) {
+        if (baseUrl != null) {
+            shardsByBaseUrl.put(baseUrl, shard);
+        }
+    }
+
+    /**
+     * Runs the query on every shard in parallel.
+     *
+     * @return the result of each shard, in the order of the shards
+     */
+    private <T> List<T> onEveryShard(final ShardQuery<T> query) throws Throwable {
+        if (shards.size() == 1) {
+            return Collections.singletonList(query.apply(shards.get(0)));
+        }
+        final List<Future<T>> futures = new ArrayList<Future<T>>(shards.size());
+        for (final AcHostRepository shard : shards) {
+            futures.add(executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    try {
+                        return query.apply(shard);
+                    } catch (Exception | Error e) {
+                        throw e;
+                    } catch (Throwable t) {
+                        throw new ExecutionException(t);
+                    }
+                }
+            }));
+        }
+
+        final List<T> results = new ArrayList<T>(shards.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof ExecutionException ? e.getCause().getCause() : e.getCause();
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private static List<AcHostRepository> shardsFor(List<String> persistenceUnits, int readYourWritesSeconds) {
+        final List<AcHostRepository> shards = new ArrayList<AcHostRepository>(persistenceUnits.size());
+        for (String persistenceUnit : persistenceUnits) {
+            shards.add(new DefaultAcHostRepository(persistenceUnit, persistenceUnit, readYourWritesSeconds));
+        }
+        return shards;
+    }
+
+    private interface ShardQuery<T> {
+        T apply(AcHostRepository shard) throws Throwable;
+    }
+}
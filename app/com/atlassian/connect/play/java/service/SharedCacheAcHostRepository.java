@@ -0,0 +1,306 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An {@link AcHostRepository} decorator caching hosts by key through Play's {@link play.cache.Cache}, so that nodes
+ * using a shared cache backend (e.g. memcached) share the hosts they load. Hosts are stored encoded by
+ * {@link AcHostCodec}, and also kept for a few seconds in a small near cache on each node.
+ * <p/>
+ * Cache keys include the version of the encoding, so nodes running different versions of the module don't read each
+ * other's entries, and a generation, shared through the cache as well, which changes whenever a host is deleted, so
+ * that all cached hosts are dropped at once. Other nodes see a new generation, like any other change, once their near
+ * cache expires, or straight away through an {@link AcHostInvalidationChannel}.
+ * <p/>
+ * The key of each cached host is also cached by its base url, so that registering another key with the same base url
+ * evicts the host it replaces without looking it up in the database first.
+ * <p/>
+ * Play's cache can't add an entry only if there is none, so a host loaded just before it was registered again may be
+ * written to the shared cache after the registration evicted it. Such a host is served until its entry expires, which
+ * is why the expiry should be short.
+ * <p/>
+ * Failures of the shared cache are logged and treated as misses.
+ */
+public class SharedCacheAcHostRepository implements AcHostRepository, AcHostCache, AcHostInvalidationChannel.Listener {
+
+    private static final String KEY_PREFIX = "ac.host.v" + AcHostCodec.VERSION + ".";
+    private static final String GENERATION_KEY = KEY_PREFIX + "generation";
+    private static final String URL_KEY_PREFIX = "url.";
+
+    private final AcHostRepository delegate;
+    private final SharedCache sharedCache;
+    private final int expirySeconds;
+    private final long nearExpiryMillis;
+    private final Cache<String, AcHost> nearCache;
+
+    private volatile long generation;
+    private volatile long generationReadAt;
+
+    public SharedCacheAcHostRepository(AcHostRepository delegate, int expirySeconds, long nearCacheSize,
+                                       int nearCacheSeconds) {
+        this(delegate, PLAY_CACHE, expirySeconds, nearCacheSize, nearCacheSeconds);
+    }
+
+    @VisibleForTesting
+    SharedCacheAcHostRepository(AcHostRepository delegate, SharedCache sharedCache, int expirySeconds,
+                                long nearCacheSize, int nearCacheSeconds) {
+        this.delegate = checkNotNull(delegate);
+        this.sharedCache = checkNotNull(sharedCache);
+        this.expirySeconds = expirySeconds;
+        this.nearExpiryMillis = TimeUnit.SECONDS.toMillis(nearCacheSeconds);
+        this.nearCache = CacheBuilder.newBuilder()
+                .maximumSize(nearCacheSize)
+                .expireAfterWrite(nearCacheSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        final String replacedKey = getSharedKey(acHost.getBaseUrl());
+        try {
+            delegate.save(acHost);
+        } finally {
+            evict(acHost, replacedKey);
+        }
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        final String replacedKey = getSharedKey(acHost.getBaseUrl());
+        try {
+            delegate.upsert(acHost);
+        } finally {
+            evict(acHost, replacedKey);
+        }
+    }
+
+    @Override
+    public void upsertAll(List<AcHost> acHosts) throws Throwable {
+        try {
+            delegate.upsertAll(acHosts);
+        } finally {
+            // the hosts replaced by base url have other keys, rather than look each of them up, start afresh
+            nextGeneration();
+            nearCache.invalidateAll();
+        }
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        return delegate.all();
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        if (key == null) {
+            return delegate.findByKey(null);
+        }
+        final AcHost near = nearCache.getIfPresent(key);
+        if (near != null) {
+            return some(near);
+        }
+
+        final String cacheKey = cacheKey(key);
+        final AcHost shared = getShared(cacheKey);
+        if (shared != null) {
+            nearCache.put(key, shared);
+            return some(shared);
+        }
+
+        final Option<AcHost> acHost = delegate.findByKey(key);
+        if (acHost.isDefined()) {
+            setShared(cacheKey, acHost.get());
+            nearCache.put(key, acHost.get());
+        }
+        return acHost;
+    }
+
+    /**
+     * Like {@link #findByKey(String)}, but only for hosts in the near cache, so it never waits for the shared cache.
+     *
+     * @return the host with the given key, or {@code null} if it isn't in the near cache
+     */
+    @Override
+    public AcHost getIfPresent(String key) {
+        return key == null ? null : nearCache.getIfPresent(key);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        return delegate.findByUrl(baseUrl);
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        try {
+            delegate.delete(id);
+        } finally {
+            // the key of the deleted host isn't known, so start afresh
+            nextGeneration();
+            nearCache.invalidateAll();
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        nearCache.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        generationReadAt = 0;
+        nearCache.invalidateAll();
+    }
+
+    /**
+     * Evicts the written host, and the host with another key it replaced by base url, if one was cached
+     */
+    private void evict(AcHost acHost, String replacedKey) {
+        evict(acHost.getKey());
+        if (replacedKey != null && !replacedKey.equals(acHost.getKey())) {
+            evict(replacedKey);
+        }
+        if (acHost.getBaseUrl() != null) {
+            remove(urlCacheKey(acHost.getBaseUrl()));
+        }
+    }
+
+    private void evict(String key) {
+        if (key == null) {
+            return;
+        }
+        nearCache.invalidate(key);
+        remove(cacheKey(key));
+    }
+
+    private void remove(String cacheKey) {
+        try {
+            sharedCache.remove(cacheKey);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not remove " + cacheKey + " from the shared cache", e);
+        }
+    }
+
+    private AcHost getShared(String cacheKey) {
+        try {
+            final Object cached = sharedCache.get(cacheKey);
+            return cached instanceof byte[] ? AcHostCodec.decode((byte[]) cached) : null;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read " + cacheKey + " from the shared cache", e);
+            return null;
+        }
+    }
+
+    private void setShared(String cacheKey, AcHost acHost) {
+        try {
+            sharedCache.set(cacheKey, AcHostCodec.encode(acHost), expirySeconds);
+            if (acHost.getBaseUrl() != null) {
+                sharedCache.set(urlCacheKey(acHost.getBaseUrl()), acHost.getKey(), expirySeconds);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not write " + cacheKey + " to the shared cache", e);
+        }
+    }
+
+    /**
+     * @return the key of the host cached with the base url, if any
+     */
+    private String getSharedKey(String baseUrl) {
+        if (baseUrl == null) {
+            return null;
+        }
+        final String cacheKey = urlCacheKey(baseUrl);
+        try {
+            final Object cached = sharedCache.get(cacheKey);
+            return cached instanceof String ? (String) cached : null;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read " + cacheKey + " from the shared cache", e);
+            return null;
+        }
+    }
+
+    private String cacheKey(String key) {
+        return KEY_PREFIX + generation() + "." + key;
+    }
+
+    private String urlCacheKey(String baseUrl) {
+        return KEY_PREFIX + URL_KEY_PREFIX + generation() + "." + baseUrl;
+    }
+
+    private long generation() {
+        final long now = System.currentTimeMillis();
+        if (now - generationReadAt < nearExpiryMillis) {
+            return generation;
+        }
+        try {
+            final Object shared = sharedCache.get(GENERATION_KEY);
+            if (shared instanceof Long) {
+                generation = (Long) shared;
+            } else {
+                // never set, or evicted: start a new generation rather than risk reading hosts cached before a delete
+                generation = now;
+                sharedCache.set(GENERATION_KEY, generation, 0);
+            }
+            generationReadAt = now;
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not read the generation of AC hosts from the shared cache", e);
+        }
+        return generation;
+    }
+
+    private void nextGeneration() {
+        final long now = System.currentTimeMillis();
+        generation = Math.max(now, generation + 1);
+        generationReadAt = now;
+        try {
+            sharedCache.set(GENERATION_KEY, generation, 0);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not write the generation of AC hosts to the shared cache", e);
+        }
+    }
+
+    /**
+     * The operations of Play's {@link play.cache.Cache} used here
+     */
+    interface SharedCache {
+
+        Object get(String key);
+
+        void set(String key, Object value, int expirySeconds);
+
+        void remove(String key);
+    }
+
+    private static final SharedCache PLAY_CACHE = new SharedCache() {
+        @Override
+        public Object get(String key) {
+            return play.cache.Cache.get(key);
+        }
+
+        @Override
+        public void set(String key, Object value, int expirySeconds) {
+            play.cache.Cache.set(key, value, expirySeconds);
+        }
+
+        @Override
+        public void remove(String key) {
+            play.cache.Cache.remove(key);
+        }
+    };
+}
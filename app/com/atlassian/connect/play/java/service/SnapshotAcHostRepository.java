@@ -0,0 +1,365 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.atlassian.fugue.Option.some;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * An {@link AcHostRepository} decorator keeping every host in memory, in an immutable snapshot indexed by key and base
+ * url. Lookups read the snapshot through a single volatile reference, without locking.
+ * <p/>
+ * Writes through this repository replace the snapshot with a copy including the change. The whole snapshot is
+ * reloaded from the delegate by {@link #reconcile()}, which should be called periodically to pick up hosts changed on
+ * other nodes, and when an {@link AcHostInvalidationChannel} asks for everything to be invalidated. Single hosts
+ * published on the channel are reloaded in the background.
+ * <p/>
+ * Hosts missing from the snapshot are looked up in the delegate, and added to the snapshot if found there, so that
+ * hosts registered on another node can be used before the next reconciliation.
+ */
+public class SnapshotAcHostRepository implements AcHostRepository, AcHostCache, AcHostInvalidationChannel.Listener {
+
+    private final AcHostRepository delegate;
+    private final int pageSize;
+    private final Executor refreshExecutor;
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // guards the replacement of the snapshot, and the keys written while reconciling
+    private final Object lock = new Object();
+    private Set<String> keysWrittenDuringReconcile;
+
+    public SnapshotAcHostRepository(AcHostRepository delegate, int pageSize, Executor refreshExecutor) {
+        checkArgument(pageSize > 0, "pageSize must be positive");
+        this.delegate = checkNotNull(delegate);
+        this.pageSize = pageSize;
+        this.refreshExecutor = checkNotNull(refreshExecutor);
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        delegate.save(acHost);
+        putAll(Collections.singletonList(acHost));
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        delegate.upsert(acHost);
+        putAll(Collections.singletonList(acHost));
+    }
+
+    @Override
+    public void upsertAll(List<AcHost> acHosts) throws Throwable {
+        delegate.upsertAll(acHosts);
+        putAll(acHosts);
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        return delegate.all();
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        final AcHost acHost = getIfPresent(key);
+        if (acHost != null) {
+            return some(acHost);
+        }
+        return putIfFound(delegate.findByKey(key));
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        final AcHost acHost = baseUrl == null ? null : snapshot.byBaseUrl.get(baseUrl);
+        if (acHost != null) {
+            return some(acHost);
+        }
+        return putIfFound(delegate.findByUrl(baseUrl));
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        delegate.delete(id);
+        synchronized (lock) {
+            final AcHost deleted = snapshot.byId.get(id);
+            if (deleted != null) {
+                written(deleted.getKey());
+                snapshot = snapshot.without(deleted);
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(final String key) {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh(key);
+                } catch (Throwable t) {
+                    LOGGER.warn(format("Could not reload AC host %s into the snapshot", key), t);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void invalidateAll() {
+        refreshExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reconcile();
+                } catch (Throwable t) {
+                    LOGGER.warn("Could not reconcile the snapshot of AC hosts", t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Like {@link #findByKey(String)}, but only for hosts in the snapshot, so it never waits for the delegate.
+     *
+     * @return the host with the given key, or {@code null} if it isn't in the snapshot
+     */
+    @Override
+    public AcHost getIfPresent(String key) {
+        return key == null ? null : snapshot.byKey.get(key);
+    }
+
+    /**
+     * Reloads every host from the delegate, a page at a time, and replaces the snapshot with them. Hosts written
+     * through this repository while reloading are kept as they were written.
+     */
+    public void reconcile() throws Throwable {
+        synchronized (lock) {
+            keysWrittenDuringReconcile = new HashSet<String>();
+        }
+
+        final Map<Long, AcHost> loaded = new LinkedHashMap<Long, AcHost>();
+        try {
+            for (AcHost acHost : delegate.iterate(pageSize)) {
+                loaded.put(acHost.getId(), acHost);
+            }
+        } catch (Throwable t) {
+            synchronized (lock) {
+                keysWrittenDuringReconcile = null;
+            }
+            throw t;
+        }
+
+        synchronized (lock) {
+            Snapshot reconciled = new Snapshot(loaded);
+            for (String key : keysWrittenDuringReconcile) {
+                final AcHost stale = reconciled.byKey.get(key);
+                if (stale != null) {
+                    reconciled = reconciled.without(stale);
+                }
+                final AcHost current = snapshot.byKey.get(key);
+                if (current != null) {
+                    reconciled = reconciled.with(current);
+                }
+            }
+            keysWrittenDuringReconcile = null;
+            snapshot = reconciled;
+        }
+        LOGGER.debug(format("Reconciled the snapshot of %d AC hosts", loaded.size()));
+    }
+
+    public int size() {
+        return snapshot.byId.size();
+    }
+
+    private void refresh(String key) throws Throwable {
+        final Option<AcHost> acHost = delegate.findByKey(key);
+        synchronized (lock) {
+            written(key);
+            final AcHost stale = snapshot.byKey.get(key);
+            Snapshot refreshed = stale == null ? snapshot : snapshot.without(stale);
+            if (acHost.isDefined()) {
+                refreshed = refreshed.with(acHost.get());
+            }
+            snapshot = refreshed;
+        }
+    }
+
+    private Option<AcHost> putIfFound(Option<AcHost> acHost) {
+        if (acHost.isDefined() && acHost.get().getId() != null) {
+            synchronized (lock) {
+                if (!snapshot.byId.containsKey(acHost.get().getId())) {
+                    snapshot = snapshot.with(acHost.get());
+                }
+            }
+        }
+        return acHost;
+    }
+
+    /**
+     * Replaces the snapshot once for all the given hosts, however many there are.
+     */
+    private void putAll(List<AcHost> acHosts) {
+        // copies, so that callers changing the hosts they saved don't change the snapshot
+        final List<AcHost> copies = new ArrayList<AcHost>(acHosts.size());
+        for (AcHost acHost : acHosts) {
+            copies.add(copy(acHost));
+        }
+        synchronized (lock) {
+            final Snapshot.Builder builder = snapshot.toBuilder();
+            for (AcHost copy : copies) {
+                written(copy.getKey());
+                if (copy.getId() == null) {
+                    // the delegate didn't say which host it wrote, so drop any it may have replaced, to be looked up again
+                    builder.remove(copy);
+                    continue;
+                }
+                final AcHost replaced = builder.byId.get(copy.getId());
+                if (replaced != null) {
+                    written(replaced.getKey());
+                }
+                builder.put(copy);
+            }
+            snapshot = builder.build();
+        }
+    }
+
+    private void written(String key) {
+        if (keysWrittenDuringReconcile != null && key != null) {
+            keysWrittenDuringReconcile.add(key);
+        }
+    }
+
+    private static AcHost copy(AcHost acHost) {
+        final AcHost copy = new AcHost();
+        copy.setId(acHost.getId());
+        copy.setKey(acHost.getKey());
+        copy.setBaseUrl(acHost.getBaseUrl());
+        copy.setPublicKey(acHost.getPublicKey());
+        copy.setSharedSecret(acHost.getSharedSecret());
+        copy.setName(acHost.getName());
+        return copy;
+    }
+
+    /**
+     * An immutable set of hosts, indexed by id, key and base url. Changes make a new snapshot.
+     */
+    private static final class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(ImmutableMap.<Long, AcHost>of());
+
+        final Map<Long, AcHost> byId;
+        final Map<String, AcHost> byKey;
+        final Map<String, AcHost> byBaseUrl;
+
+        Snapshot(Map<Long, AcHost> hosts) {
+            final Map<String, AcHost> byKey = new LinkedHashMap<String, AcHost>();
+            final Map<String, AcHost> byBaseUrl = new LinkedHashMap<String, AcHost>();
+            for (AcHost acHost : hosts.values()) {
+                if (acHost.getKey() != null) {
+                    byKey.put(acHost.getKey(), acHost);
+                }
+                if (acHost.getBaseUrl() != null) {
+                    byBaseUrl.put(acHost.getBaseUrl(), acHost);
+                }
+            }
+            this.byId = ImmutableMap.copyOf(hosts);
+            this.byKey = ImmutableMap.copyOf(byKey);
+            this.byBaseUrl = ImmutableMap.copyOf(byBaseUrl);
+        }
+
+        private Snapshot(Builder builder) {
+            this.byId = ImmutableMap.copyOf(builder.byId);
+            this.byKey = ImmutableMap.copyOf(builder.byKey);
+            this.byBaseUrl = ImmutableMap.copyOf(builder.byBaseUrl);
+        }
+
+        /**
+         * @return a snapshot with the given host, replacing any host with the same id, key or base url
+         */
+        Snapshot with(AcHost acHost) {
+            return toBuilder().put(acHost).build();
+        }
+
+        Snapshot without(AcHost acHost) {
+            return toBuilder().remove(acHost).build();
+        }
+
+        Builder toBuilder() {
+            return new Builder(this);
+        }
+
+        /**
+         * Changes a copy of a snapshot's indexes, so that many changes make a single new snapshot.
+         */
+        static final class Builder {
+            final Map<Long, AcHost> byId;
+            final Map<String, AcHost> byKey;
+            final Map<String, AcHost> byBaseUrl;
+
+            private Builder(Snapshot snapshot) {
+                this.byId = new LinkedHashMap<Long, AcHost>(snapshot.byId);
+                this.byKey = new LinkedHashMap<String, AcHost>(snapshot.byKey);
+                this.byBaseUrl = new LinkedHashMap<String, AcHost>(snapshot.byBaseUrl);
+            }
+
+            /**
+             * Adds the given host, replacing any host with the same id, key or base url
+             */
+            Builder put(AcHost acHost) {
+                remove(acHost);
+                byId.put(acHost.getId(), acHost);
+                if (acHost.getKey() != null) {
+                    byKey.put(acHost.getKey(), acHost);
+                }
+                if (acHost.getBaseUrl() != null) {
+                    byBaseUrl.put(acHost.getBaseUrl(), acHost);
+                }
+                return this;
+            }
+
+            /**
+             * Removes any host with the same id, key or base url as the given host
+             */
+            Builder remove(AcHost acHost) {
+                removeHost(acHost.getId() == null ? null : byId.get(acHost.getId()));
+                removeHost(acHost.getKey() == null ? null : byKey.get(acHost.getKey()));
+                removeHost(acHost.getBaseUrl() == null ? null : byBaseUrl.get(acHost.getBaseUrl()));
+                return this;
+            }
+
+            Snapshot build() {
+                return new Snapshot(this);
+            }
+
+            private void removeHost(AcHost acHost) {
+                if (acHost == null) {
+                    return;
+                }
+                byId.remove(acHost.getId());
+                if (acHost.getKey() != null && byKey.get(acHost.getKey()) == acHost) {
+                    byKey.remove(acHost.getKey());
+                }
+                if (acHost.getBaseUrl() != null && byBaseUrl.get(acHost.getBaseUrl()) == acHost) {
+                    byBaseUrl.remove(acHost.getBaseUrl());
+                }
+            }
+        }
+    }
+}
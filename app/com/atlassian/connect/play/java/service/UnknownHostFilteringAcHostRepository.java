@@ -0,0 +1,234 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.fugue.Option;
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.atlassian.connect.play.java.util.Utils.LOGGER;
+import static com.atlassian.fugue.Option.none;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * An {@link AcHostRepository} decorator answering lookups of unknown client keys from memory, so that requests signed
+ * by unknown (or forged) issuers do not each cost a database query.
+ * <p/>
+ * Keys that could not be found are remembered for a short while. Optionally a bloom filter of all registered keys is
+ * kept as well, rebuilt with {@link #rebuildKnownKeys()} and updated on every save or upsert, so that keys that were
+ * never registered are rejected without querying the database at all. Note that keys registered on another node are
+ * only known here once the filter is rebuilt, or once they are published on an {@link AcHostInvalidationChannel}.
+ */
+public class UnknownHostFilteringAcHostRepository implements AcHostRepository, AcHostInvalidationChannel.Listener {
+
+    private static final double KNOWN_KEYS_FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int REBUILD_PAGE_SIZE = 1000;
+
+    private final AcHostRepository delegate;
+    private final Cache<String, Boolean> missingKeys;
+    private final boolean knownKeysEnabled;
+    private final int expectedHosts;
+    private final AtomicLong rejected = new AtomicLong();
+
+    // read without locking; written, and replaced when rebuilt, while holding the lock
+    private final Object knownKeysLock = new Object();
+    private volatile KnownKeys knownKeys;
+    private Set<String> keysSavedDuringRebuild;
+
+    public UnknownHostFilteringAcHostRepository(AcHostRepository delegate, long maximumMissingKeys,
+                                                long missingKeyExpirySeconds, boolean knownKeysEnabled, int expectedHosts) {
+        this.delegate = checkNotNull(delegate);
+        this.missingKeys = CacheBuilder.newBuilder()
+                .maximumSize(maximumMissingKeys)
+                .expireAfterWrite(missingKeyExpirySeconds, TimeUnit.SECONDS)
+                .build();
+        this.knownKeysEnabled = knownKeysEnabled;
+        this.expectedHosts = expectedHosts;
+    }
+
+    @Override
+    public void save(AcHost acHost) throws Throwable {
+        beforeWrite(acHost);
+        delegate.save(acHost);
+        afterWrite(acHost);
+    }
+
+    @Override
+    public void upsert(AcHost acHost) throws Throwable {
+        beforeWrite(acHost);
+        delegate.upsert(acHost);
+        afterWrite(acHost);
+    }
+
+    @Override
+    public void upsertAll(List<AcHost> acHosts) throws Throwable {
+        for (AcHost acHost : acHosts) {
+            beforeWrite(acHost);
+        }
+        delegate.upsertAll(acHosts);
+        for (AcHost acHost : acHosts) {
+            afterWrite(acHost);
+        }
+    }
+
+    @Override
+    public List<AcHost> all() throws Throwable {
+        return delegate.all();
+    }
+
+    @Override
+    public Option<AcHost> findByKey(String key) throws Throwable {
+        if (key == null) {
+            return delegate.findByKey(null);
+        }
+        if (missingKeys.getIfPresent(key) != null || !mightBeKnown(key)) {
+            rejected.incrementAndGet();
+            return none(AcHost.class);
+        }
+
+        final Option<AcHost> acHost = delegate.findByKey(key);
+        if (acHost.isEmpty()) {
+            missingKeys.put(key, Boolean.TRUE);
+        }
+        return acHost;
+    }
+
+    @Override
+    public List<AcHost> findPage(Long afterId, int limit) throws Throwable {
+        return delegate.findPage(afterId, limit);
+    }
+
+    @Override
+    public Option<AcHost> findByUrl(String baseUrl) throws Throwable {
+        return delegate.findByUrl(baseUrl);
+    }
+
+    @Override
+    public void delete(Long id) throws Throwable {
+        // deleted keys stay in the bloom filter until it is rebuilt, which only costs a database lookup
+        delegate.delete(id);
+    }
+
+    /**
+     * Forgets that the key was missing, and adds it to the known keys, as it may have been registered on another node
+     */
+    @Override
+    public void invalidate(String key) {
+        addKnownKey(key);
+        missingKeys.invalidate(key);
+    }
+
+    @Override
+    public void invalidateAll() {
+        missingKeys.invalidateAll();
+    }
+
+    /**
+     * Rebuilds the bloom filter of registered keys from {@link AcHostRepository#iterate(int)}. Until it is first built, every
+     * key is considered possibly known.
+     */
+    public void rebuildKnownKeys() throws Throwable {
+        if (!knownKeysEnabled) {
+            return;
+        }
+        synchronized (knownKeysLock) {
+            keysSavedDuringRebuild = new HashSet<String>();
+        }
+
+        final List<String> keys = new ArrayList<String>();
+        try {
+            for (AcHost acHost : delegate.iterate(REBUILD_PAGE_SIZE)) {
+                keys.add(acHost.getKey());
+            }
+        } catch (Throwable t) {
+            synchronized (knownKeysLock) {
+                keysSavedDuringRebuild = null;
+            }
+            throw t;
+        }
+
+        final BloomFilter<CharSequence> rebuilt = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8),
+                Math.max(expectedHosts, keys.size() * 2), KNOWN_KEYS_FALSE_POSITIVE_PROBABILITY);
+        for (String key : keys) {
+            rebuilt.put(key);
+        }
+
+        synchronized (knownKeysLock) {
+            for (String key : keysSavedDuringRebuild) {
+                rebuilt.put(key);
+            }
+            keysSavedDuringRebuild = null;
+            knownKeys = new KnownKeys(rebuilt);
+        }
+        LOGGER.debug(format("Rebuilt the filter of known AC host keys from %d hosts", keys.size()));
+    }
+
+    /**
+     * @return the number of lookups answered from memory because the key is known to be missing
+     */
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    private void beforeWrite(AcHost acHost) {
+        if (acHost.getKey() != null) {
+            addKnownKey(acHost.getKey());
+            missingKeys.invalidate(acHost.getKey());
+        }
+    }
+
+    private void afterWrite(AcHost acHost) {
+        if (acHost.getKey() != null) {
+            // a concurrent lookup may have missed just before the write was committed
+            missingKeys.invalidate(acHost.getKey());
+        }
+    }
+
+    private boolean mightBeKnown(String key) {
+        final KnownKeys knownKeys = this.knownKeys;
+        return knownKeys == null || knownKeys.mightContain(key);
+    }
+
+    private void addKnownKey(String key) {
+        if (!knownKeysEnabled) {
+            return;
+        }
+        synchronized (knownKeysLock) {
+            if (knownKeys != null) {
+                knownKeys.added.add(key);
+            }
+            if (keysSavedDuringRebuild != null) {
+                keysSavedDuringRebuild.add(key);
+            }
+        }
+    }
+
+    /**
+     * A bloom filter, which isn't safe to read while it is written to, so it is never written to once built, and the keys
+     * added since it was built
+     */
+    private static final class KnownKeys {
+        final BloomFilter<CharSequence> filter;
+        final Set<String> added = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        KnownKeys(BloomFilter<CharSequence> filter) {
+            this.filter = filter;
+        }
+
+        boolean mightContain(String key) {
+            return filter.mightContain(key) || added.contains(key);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.atlassian.connect.play.java.token;
 
 import com.atlassian.connect.play.java.AC;
+import com.atlassian.connect.play.java.AcRequestContext;
 import com.atlassian.fugue.Option;
 import org.apache.commons.lang3.StringUtils;
 import play.libs.F.Promise;
@@ -8,7 +9,6 @@ import play.mvc.Action;
 import play.mvc.Http;
 import play.mvc.Result;
 
-import static com.atlassian.connect.play.java.Constants.AC_USER_ACCOUNT_ID_PARAM;
 import static com.atlassian.fugue.Option.option;
 
 public final class PageTokenValidatorAction extends Action<CheckValidToken>
@@ -32,18 +32,24 @@ public final class PageTokenValidatorAction extends Action<CheckValidToken>
             return Promise.pure((Result)unauthorized("Unauthorised: It appears your session has expired. Please reload the page."));
         }
 
-        AC.setAcHost(decryptedToken.get().getAcHost());
+        final Token validToken = decryptedToken.get();
+        // look the host up without blocking this thread
+        return AC.getAcHostAsync(validToken.getAcHost()).flatMap(acHost -> {
+            if (acHost.isEmpty())
+            {
+                return Promise.pure((Result)unauthorized("Unauthorised: It appears your session has expired. Please reload the page."));
+            }
+            AC.setRequestContext(AcRequestContext.fromToken(acHost.get(), validToken));
 
-        decryptedToken.get().getUserAccountId().ifPresent(accountId -> context.args.put(AC_USER_ACCOUNT_ID_PARAM, accountId));
-
-        //valid request so lets refresh the token with a new timestamp and add it to the response headers
-        //so clients can update their tokens on ajax responses!
-        AC.refreshToken(allowInsecurePolling);
-        if (allowInsecurePolling)
-        {
-            context.response().setHeader(HEADER_PREFIX + TOKEN_KEY, AC.getToken().get());
-        }
-        return delegate.call(context);
+            //valid request so lets refresh the token with a new timestamp and add it to the response headers
+            //so clients can update their tokens on ajax responses!
+            AC.refreshToken(allowInsecurePolling);
+            if (allowInsecurePolling)
+            {
+                context.response().setHeader(HEADER_PREFIX + TOKEN_KEY, AC.getToken().get());
+            }
+            return delegate.call(context);
+        });
     }
 
     private Option<String> extractTokenDetails(final Http.Request request)
@@ -0,0 +1,116 @@
+package com.atlassian.connect.play.java.util;
+
+import com.atlassian.fugue.Option;
+import com.jolbox.bonecp.BoneCPDataSource;
+import com.jolbox.bonecp.Statistics;
+import play.db.DB;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static java.lang.String.format;
+
+/**
+ * A snapshot of the usage of one of Play's connection pools. Wait times are only recorded by pools configured with
+ * {@code db.<name>.statisticsEnabled=true}.
+ */
+public final class ConnectionPoolStats
+{
+    private final String name;
+    private final int leased;
+    private final int free;
+    private final int maximum;
+    private final long requested;
+    private final double averageWaitMillis;
+
+    ConnectionPoolStats(String name, int leased, int free, int maximum, long requested, double averageWaitMillis)
+    {
+        this.name = name;
+        this.leased = leased;
+        this.free = free;
+        this.maximum = maximum;
+        this.requested = requested;
+        this.averageWaitMillis = averageWaitMillis;
+    }
+
+    /**
+     * @return the current usage of the pool of the given Play datasource, or none if it isn't a BoneCP pool
+     */
+    public static Option<ConnectionPoolStats> of(String datasourceName)
+    {
+        final BoneCPDataSource dataSource = unwrap(DB.getDataSource(datasourceName));
+        if (dataSource == null || dataSource.getPool() == null)
+        {
+            return none();
+        }
+        final Statistics statistics = dataSource.getPool().getStatistics();
+        return some(new ConnectionPoolStats(datasourceName, statistics.getTotalLeased(), statistics.getTotalFree(),
+                dataSource.getPartitionCount() * dataSource.getMaxConnectionsPerPartition(),
+                // the cumulative wait time is in whole milliseconds, the average isn't rounded
+                statistics.getConnectionsRequested(), statistics.getConnectionWaitTimeAvg()));
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getLeased()
+    {
+        return leased;
+    }
+
+    public int getFree()
+    {
+        return free;
+    }
+
+    public int getMaximum()
+    {
+        return maximum;
+    }
+
+    public long getRequested()
+    {
+        return requested;
+    }
+
+    /**
+     * @return the share of the pool's connections in use, between 0 and 1
+     */
+    public double getSaturation()
+    {
+        return maximum == 0 ? 0 : (double) leased / maximum;
+    }
+
+    public double getAverageWaitMillis()
+    {
+        return averageWaitMillis;
+    }
+
+    @Override
+    public String toString()
+    {
+        return format("%s: leased=%d, free=%d, maximum=%d, saturation=%.2f, requested=%d, avgWaitMs=%.2f",
+                name, leased, free, maximum, getSaturation(), requested, getAverageWaitMillis());
+    }
+
+    private static BoneCPDataSource unwrap(DataSource dataSource)
+    {
+        if (dataSource instanceof BoneCPDataSource)
+        {
+            return (BoneCPDataSource) dataSource;
+        }
+        try
+        {
+            // e.g. wrapped to log statements
+            return dataSource.isWrapperFor(BoneCPDataSource.class) ? dataSource.unwrap(BoneCPDataSource.class) : null;
+        }
+        catch (SQLException e)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.atlassian.connect.play.java.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import play.libs.F;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.String.format;
+import static play.libs.F.Promise;
+import static play.libs.F.RedeemablePromise;
+
+/**
+ * A fixed size thread pool with a bounded queue, for blocking work (database access, crypto) that should not run on
+ * Play's default dispatcher. Work submitted while the queue is full fails with a {@link RejectedExecutionException}
+ * rather than waiting. Queue wait and execution times are recorded, see {@link #stats()}, and {@link #allStats()} for
+ * those of every executor.
+ */
+public final class MeteredExecutor
+{
+    private static final Set<MeteredExecutor> RUNNING =
+            Collections.newSetFromMap(new ConcurrentHashMap<MeteredExecutor, Boolean>());
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    public MeteredExecutor(String name, int threads, int queueSize)
+    {
+        checkArgument(threads > 0, "An executor needs at least one thread");
+        checkArgument(queueSize > 0, "An executor needs a queue");
+        this.name = checkNotNull(name);
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder().setNameFormat(name + "-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        RUNNING.add(this);
+    }
+
+    /**
+     * @return the statistics of every executor that wasn't shut down, e.g. to log them together
+     */
+    public static List<Stats> allStats()
+    {
+        final List<Stats> stats = new ArrayList<Stats>();
+        for (MeteredExecutor executor : RUNNING)
+        {
+            stats.add(executor.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * Runs the function on this executor.
+     *
+     * @return a promise of the function's result, failed with a {@link RejectedExecutionException} if the queue is full
+     */
+    public <A> Promise<A> promise(final F.Function0<A> function)
+    {
+        final RedeemablePromise<A> promise = RedeemablePromise.empty();
+        final long queuedAt = System.nanoTime();
+        try
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final long startedAt = System.nanoTime();
+                    totalQueueNanos.addAndGet(startedAt - queuedAt);
+                    try
+                    {
+                        promise.success(function.apply());
+                    }
+                    catch (Throwable t)
+                    {
+                        promise.failure(t);
+                    }
+                    finally
+                    {
+                        totalRunNanos.addAndGet(System.nanoTime() - startedAt);
+                        completed.incrementAndGet();
+                    }
+                }
+            });
+            submitted.incrementAndGet();
+            return promise;
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected.incrementAndGet();
+            return Promise.throwing(e);
+        }
+    }
+
+    public Stats stats()
+    {
+        return new Stats(name, executor.getActiveCount(), executor.getQueue().size(), submitted.get(), rejected.get(),
+                completed.get(), totalQueueNanos.get(), totalRunNanos.get());
+    }
+
+    public void shutdown()
+    {
+        RUNNING.remove(this);
+        executor.shutdown();
+    }
+
+    public static final class Stats
+    {
+        private final String name;
+        private final int active;
+        private final int queued;
+        private final long submitted;
+        private final long rejected;
+        private final long completed;
+        private final long totalQueueNanos;
+        private final long totalRunNanos;
+
+        Stats(String name, int active, int queued, long submitted, long rejected, long completed, long totalQueueNanos,
+              long totalRunNanos)
+        {
+            this.name = name;
+            this.active = active;
+            this.queued = queued;
+            this.submitted = submitted;
+            this.rejected = rejected;
+            this.completed = completed;
+            this.totalQueueNanos = totalQueueNanos;
+            this.totalRunNanos = totalRunNanos;
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getActive()
+        {
+            return active;
+        }
+
+        public int getQueued()
+        {
+            return queued;
+        }
+
+        public long getSubmitted()
+        {
+            return submitted;
+        }
+
+        public long getRejected()
+        {
+            return rejected;
+        }
+
+        public long getCompleted()
+        {
+            return completed;
+        }
+
+        public double getAverageQueueMillis()
+        {
+            return completed == 0 ? 0 : totalQueueNanos / (completed * 1e6);
+        }
+
+        public double getAverageRunMillis()
+        {
+            return completed == 0 ? 0 : totalRunNanos / (completed * 1e6);
+        }
+
+        @Override
+        public String toString()
+        {
+            return format("%s: active=%d, queued=%d, submitted=%d, rejected=%d, completed=%d, avgQueueMs=%.2f, avgRunMs=%.2f",
+                    name, active, queued, submitted, rejected, completed, getAverageQueueMillis(), getAverageRunMillis());
+        }
+    }
+}
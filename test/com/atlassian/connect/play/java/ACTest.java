@@ -0,0 +1,166 @@
+package com.atlassian.connect.play.java;
+
+import com.atlassian.connect.play.java.service.AcHostService;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.atlassian.fugue.Option;
+import com.google.common.base.Throwables;
+import org.junit.Before;
+import org.junit.Test;
+import play.api.mvc.RequestHeader;
+import play.libs.F;
+import play.mvc.Http;
+
+import java.util.HashMap;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.test.Helpers.fakeApplication;
+import static play.test.Helpers.running;
+
+public class ACTest {
+    private static final String KEY = "client-key";
+
+    private final AcHostService hostService = mock(AcHostService.class);
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        acHost = new AcHost();
+        acHost.setKey(KEY);
+        when(hostService.findByKey(KEY)).thenReturn(some(acHost));
+        when(hostService.findByKey("unknown")).thenReturn(none(AcHost.class));
+    }
+
+    @Test
+    public void looksHostUpOncePerRequest() throws Throwable {
+        inRequest(new Block() {
+            @Override
+            public void run() throws Throwable {
+                assertThat(AC.getAcHost(KEY).get(), sameInstance(acHost));
+                assertThat(AC.getAcHost(KEY).get(), sameInstance(acHost));
+            }
+        });
+        verify(hostService, times(1)).findByKey(KEY);
+    }
+
+    @Test
+    public void remembersUnknownHostsWithinRequest() throws Throwable {
+        inRequest(new Block() {
+            @Override
+            public void run() throws Throwable {
+                assertThat(AC.getAcHost("unknown").isEmpty(), equalTo(true));
+                assertThat(AC.getAcHost("unknown").isEmpty(), equalTo(true));
+            }
+        });
+        verify(hostService, times(1)).findByKey("unknown");
+    }
+
+    @Test
+    public void looksHostUpAgainInAnotherRequest() throws Throwable {
+        final Block lookup = new Block() {
+            @Override
+            public void run() throws Throwable {
+                AC.getAcHost(KEY);
+            }
+        };
+        inRequest(lookup);
+        inRequest(lookup);
+        verify(hostService, times(2)).findByKey(KEY);
+    }
+
+    @Test
+    public void remembersHostLookedUpAsynchronouslyInRequest() throws Throwable {
+        final MeteredExecutor executor = new MeteredExecutor("test-hosts", 1, 10);
+        when(hostService.findByKeyAsync(KEY)).thenReturn(executor.promise(new F.Function0<Option<AcHost>>() {
+            @Override
+            public Option<AcHost> apply() {
+                return some(acHost);
+            }
+        }));
+        try {
+            inRequest(new Block() {
+                @Override
+                public void run() throws Throwable {
+                    assertThat(AC.getAcHostAsync(KEY).get(1000).get(), sameInstance(acHost));
+                    assertThat(AC.getAcHostAsync(KEY).get(0).get(), sameInstance(acHost));
+                    assertThat(AC.getAcHost(KEY).get(), sameInstance(acHost));
+                }
+            });
+        } finally {
+            executor.shutdown();
+        }
+        verify(hostService, times(1)).findByKeyAsync(KEY);
+        verify(hostService, never()).findByKey(KEY);
+    }
+
+    @Test
+    public void looksHostUpAsynchronouslyOnlyIfNotLookedUpInRequest() throws Throwable {
+        inRequest(new Block() {
+            @Override
+            public void run() throws Throwable {
+                AC.getAcHost(KEY);
+                assertThat(AC.getAcHostAsync(KEY).get(0).get(), sameInstance(acHost));
+            }
+        });
+        verify(hostService, never()).findByKeyAsync(KEY);
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void fallsBackToHostParamWithoutRequestContext() throws Throwable {
+        inRequest(new Block() {
+            @Override
+            public void run() throws Throwable {
+                assertThat(AC.getAcHost(), nullValue());
+                Http.Context.current().args.put(Constants.AC_HOST_PARAM, acHost);
+                assertThat(AC.getAcHost(), sameInstance(acHost));
+            }
+        });
+    }
+
+    @Test
+    public void prefersHostOfRequestContext() throws Throwable {
+        inRequest(new Block() {
+            @Override
+            public void run() throws Throwable {
+                final AcHost other = new AcHost();
+                AC.setRequestContext(AcRequestContext.fromJwt(acHost, KEY, null, null));
+                Http.Context.current().args.put(Constants.AC_HOST_PARAM, other);
+                assertThat(AC.getAcHost(), sameInstance(acHost));
+            }
+        });
+    }
+
+    private void inRequest(final Block block) {
+        running(fakeApplication(), new Runnable() {
+            @Override
+            public void run() {
+                final AcHostService previous = AC.acHostService;
+                AC.acHostService = hostService;
+                Http.Context.current.set(new Http.Context(1L, mock(RequestHeader.class), mock(Http.Request.class),
+                        new HashMap<String, String>(), new HashMap<String, String>(), new HashMap<String, Object>()));
+                try {
+                    block.run();
+                } catch (Throwable t) {
+                    throw Throwables.propagate(t);
+                } finally {
+                    Http.Context.current.remove();
+                    AC.acHostService = previous;
+                }
+            }
+        });
+    }
+
+    private interface Block {
+        void run() throws Throwable;
+    }
+}
@@ -0,0 +1,54 @@
+package com.atlassian.connect.play.java;
+
+import com.atlassian.connect.play.java.token.Token;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AcRequestContextTest {
+
+    private static final String ISSUER = "host";
+    private static final String SUBJECT = "admin";
+
+    @Test
+    public void readsTheAccountIdOfTheUserContext() {
+        final AcRequestContext context = fromJwt("{\"iss\":\"host\",\"iat\":10,\"qsh\":\"abc\","
+                + "\"context\":{\"license\":{\"active\":true},\"user\":{\"userKey\":\"admin\",\"accountId\":\"5a1b\"}},"
+                + "\"exp\":190}");
+
+        assertThat(context.getUserAccountId(), equalTo(Optional.of("5a1b")));
+        assertThat(context.getIssuedAt(), equalTo(Optional.of(10L)));
+        assertThat(context.getExpiresAt(), equalTo(Optional.of(190L)));
+        assertThat(context.getIssuer(), equalTo(ISSUER));
+    }
+
+    @Test
+    public void hasNoAccountIdForAUserContextWithoutOne() {
+        final AcRequestContext context = fromJwt("{\"context\":{\"user\":{\"userKey\":\"admin\"}}}");
+
+        assertThat(context.getUserAccountId(), equalTo(Optional.<String>empty()));
+    }
+
+    @Test
+    public void fallsBackToTheSubjectWithoutAUserContext() {
+        assertThat(fromJwt("{\"sub\":\"admin\",\"context\":{\"user\":null}}").getUserAccountId(),
+                equalTo(Optional.of(SUBJECT)));
+        assertThat(fromJwt("{\"sub\":\"admin\"}").getUserAccountId(), equalTo(Optional.of(SUBJECT)));
+    }
+
+    @Test
+    public void takesTheAccountIdOfPageTokens() {
+        final AcRequestContext context = AcRequestContext.fromToken(null,
+                new Token(ISSUER, Optional.of("5a1b"), 0, false));
+
+        assertThat(context.getUserAccountId(), equalTo(Optional.of("5a1b")));
+        assertThat(context.getIssuer(), equalTo(ISSUER));
+    }
+
+    private static AcRequestContext fromJwt(String jsonPayload) {
+        return AcRequestContext.fromJwt(null, ISSUER, SUBJECT, jsonPayload);
+    }
+}
@@ -0,0 +1,106 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class AuthenticationFailureThrottleTest {
+
+    private ManualTicker ticker;
+    private AuthenticationFailureThrottle throttle;
+
+    @Before
+    public void init() {
+        ticker = new ManualTicker();
+        // 3 failures in a row, then one every 10 seconds
+        throttle = new AuthenticationFailureThrottle(3, 30, 100, ticker);
+    }
+
+    @Test
+    public void doesNotThrottleUnknownKeys() {
+        assertThat(throttle.retryAfterSeconds("iss:unknown"), equalTo(0L));
+    }
+
+    @Test
+    public void throttlesKeysOnceTheyRanOutOfFailures() {
+        recordFailures("iss:host", 2);
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(0L));
+
+        throttle.recordFailure("iss:host");
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(10L));
+    }
+
+    @Test
+    public void throttlesKeysSeparately() {
+        recordFailures("iss:host", 3);
+
+        assertThat(throttle.retryAfterSeconds("ip:10.0.0.1"), equalTo(0L));
+    }
+
+    @Test
+    public void allowsAnotherFailureEveryInterval() {
+        recordFailures("iss:host", 3);
+
+        ticker.advance(9);
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(1L));
+        ticker.advance(1);
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(0L));
+
+        throttle.recordFailure("iss:host");
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(10L));
+    }
+
+    @Test
+    public void forgetsFailuresOnceTheBucketIsFullAgain() {
+        recordFailures("iss:host", 3);
+
+        ticker.advance(30);
+        recordFailures("iss:host", 2);
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(0L));
+    }
+
+    @Test
+    public void neverThrottlesForLongerThanTheBurst() {
+        recordFailures("iss:host", 100);
+
+        assertThat(throttle.retryAfterSeconds("iss:host"), equalTo(10L));
+    }
+
+    @Test
+    public void keepsABoundedNumberOfBuckets() {
+        final AuthenticationFailureThrottle small = new AuthenticationFailureThrottle(1, 30, 10, ticker);
+        for (int i = 0; i < 1000; i++) {
+            small.recordFailure("ip:" + i);
+        }
+
+        int throttled = 0;
+        for (int i = 0; i < 1000; i++) {
+            throttled += small.retryAfterSeconds("ip:" + i) > 0 ? 1 : 0;
+        }
+        assertThat(throttled <= 10, equalTo(true));
+    }
+
+    private void recordFailures(String key, int failures) {
+        for (int i = 0; i < failures; i++) {
+            throttle.recordFailure(key);
+        }
+    }
+
+    private static final class ManualTicker extends Ticker {
+        private long nanos = 1000;
+
+        void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
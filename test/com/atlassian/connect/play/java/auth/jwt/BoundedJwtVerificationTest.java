@@ -0,0 +1,91 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import play.libs.F;
+import play.mvc.Result;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.libs.F.Either;
+import static play.libs.F.Promise;
+import static play.mvc.Http.Context;
+import static play.mvc.Http.Request;
+import static play.mvc.Http.Response;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoundedJwtVerificationTest {
+
+    @Mock
+    private Context context;
+    @Mock
+    private Request request;
+    @Mock
+    private Response response;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private MeteredExecutor executor;
+    private BoundedJwtVerification verification;
+
+    @Before
+    public void init() {
+        when(context.request()).thenReturn(request);
+        when(context.response()).thenReturn(response);
+        when(request.path()).thenReturn("/page");
+        executor = new MeteredExecutor("test-jwt-verification", 1, 1);
+        verification = new BoundedJwtVerification(executor);
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void verifiesWithTheRequestAsCurrentContext() {
+        final Either<Result, Context> verified = verification.verify(context, new F.Function0<Either<Result, Context>>() {
+            @Override
+            public Either<Result, Context> apply() {
+                return Either.Right(Context.current.get());
+            }
+        }).get(1000);
+
+        assertThat(verified.right.get(), sameInstance(context));
+    }
+
+    @Test
+    public void turnsRequestsAwayWhileTooManyAreWaiting() {
+        final Promise<Either<Result, String>> running = verification.verify(context, blocked());
+        verification.verify(context, blocked());
+
+        final Either<Result, String> rejected = verification.verify(context, blocked()).get(1000);
+        assertThat(rejected.left.get().toScala().header().status(), equalTo(503));
+        verify(response).setHeader("Retry-After", BoundedJwtVerification.RETRY_AFTER_SECONDS);
+        assertThat(executor.stats().getRejected(), equalTo(1L));
+
+        release.countDown();
+        assertThat(running.get(1000).right.get(), equalTo("verified"));
+    }
+
+    private F.Function0<Either<Result, String>> blocked() {
+        return new F.Function0<Either<Result, String>>() {
+            @Override
+            public Either<Result, String> apply() throws Throwable {
+                release.await(1, TimeUnit.SECONDS);
+                return Either.Right("verified");
+            }
+        };
+    }
+}
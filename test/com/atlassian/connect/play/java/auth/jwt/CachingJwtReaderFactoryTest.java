@@ -0,0 +1,96 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.jwt.Jwt;
+import com.atlassian.jwt.SigningAlgorithm;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.core.reader.JwtIssuerValidator;
+import com.atlassian.jwt.core.writer.JsonSmartJwtJsonBuilderFactory;
+import com.atlassian.jwt.exception.JwtVerificationException;
+import com.atlassian.jwt.reader.JwtClaimVerifier;
+import com.atlassian.jwt.reader.JwtReader;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingJwtReaderFactoryTest {
+    private static final String ISSUER = "joe";
+    private static final String SUBJECT = "fred";
+    private static final String SECRET = "secret";
+
+    @Mock
+    private JwtIssuerSharedSecretService sharedSecretService;
+
+    @Mock
+    private JwtIssuerValidator issuerValidator;
+
+    private CachingJwtReaderFactory readerFactory;
+
+    @Before
+    public void init() throws Exception {
+        readerFactory = new CachingJwtReaderFactory(issuerValidator, sharedSecretService);
+        when(issuerValidator.isValid(ISSUER)).thenReturn(true);
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn(SECRET);
+    }
+
+    @Test
+    public void readsJwtsSignedWithSharedSecret() throws Exception {
+        assertThat(read(jwt(SECRET)).getSubject(), equalTo(SUBJECT));
+        assertThat(read(jwt(SECRET)).getIssuer(), equalTo(ISSUER));
+    }
+
+    @Test
+    public void reusesReaderOfIssuer() throws Exception {
+        final JwtReader first = readerFactory.getReader(jwt(SECRET));
+        final JwtReader second = readerFactory.getReader(jwt(SECRET));
+
+        assertThat(second, sameInstance(first));
+        verify(issuerValidator, times(1)).isValid(ISSUER);
+    }
+
+    @Test
+    public void setsUpNewReaderWhenSecretChanges() throws Exception {
+        final JwtReader first = readerFactory.getReader(jwt(SECRET));
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn("new secret");
+
+        final String jwt = jwt("new secret");
+        final JwtReader second = readerFactory.getReader(jwt);
+
+        assertThat(second, not(sameInstance(first)));
+        assertThat(second.read(jwt, ImmutableMap.<String, JwtClaimVerifier>of()).getSubject(), equalTo(SUBJECT));
+    }
+
+    @Test(expected = JwtVerificationException.class)
+    public void rejectsJwtsSignedWithAnotherSecret() throws Exception {
+        read(jwt(SECRET));
+        read(jwt("another secret"));
+    }
+
+    private Jwt read(String jwt) throws Exception {
+        return readerFactory.getReader(jwt).read(jwt, ImmutableMap.<String, JwtClaimVerifier>of());
+    }
+
+    private static String jwt(String secret) {
+        final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        return new HmacJwtWriterFactory().macSigningWriter(SigningAlgorithm.HS256, secret).jsonToJwt(
+                new JsonSmartJwtJsonBuilderFactory().jsonBuilder()
+                        .issuer(ISSUER)
+                        .issuedAt(now)
+                        .expirationTime(now + TimeUnit.MINUTES.toSeconds(10))
+                        .subject(SUBJECT)
+                        .build());
+    }
+}
@@ -0,0 +1,126 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.jwt.CanonicalHttpRequest;
+import com.atlassian.jwt.core.HttpRequestCanonicalizer;
+import com.atlassian.jwt.httpclient.CanonicalHttpUriRequest;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class CanonicalRequestHashTest {
+
+    // ASCII, with and without special meaning in urls, and characters of 2, 3 and 4 bytes in UTF-8
+    private static final String CHARACTERS = "aZ09-._~ *+&=/%,?#;:@!'()\t\u00e9\u4e2d\ud83d\ude00";
+    private static final String[] METHODS = {"GET", "post", "Put", "DELETE"};
+
+    @Test
+    public void hashesAsTheLibraryForASimpleRequest() throws Exception {
+        assertThat(CanonicalRequestHash.of("GET", "/foo", ImmutableMap.<String, String[]>of()),
+                equalTo("dc884e24fe0f4113b128fd19b1426d7d841b6fabc03e79c2d4f27774964a5935"));
+    }
+
+    @Test
+    public void canonicalizesParametersSortedByNameAndValue() {
+        final Map<String, String[]> parameters = ImmutableMap.of(
+                "zee_last", new String[]{"param"},
+                "repeated", new String[]{"parameter 2", "parameter 1"},
+                "first", new String[]{"param"},
+                "jwt", new String[]{"ignored"});
+
+        assertThat(CanonicalRequestHash.canonicalize("get", "/path/to/service/", parameters),
+                equalTo("GET&/path/to/service&first=param&repeated=parameter%201,parameter%202&zee_last=param"));
+    }
+
+    @Test
+    public void hashesRandomRequestsAsTheLibrary() throws Exception {
+        final Random random = new Random(20141);
+        for (int i = 0; i < 10000; i++) {
+            final String method = METHODS[random.nextInt(METHODS.length)];
+            final String path = (random.nextBoolean() ? "/" : "") + randomString(random, 12) + (random.nextBoolean() ? "/" : "");
+            final Map<String, String[]> parameters = randomParameters(random);
+
+            final String expected = HttpRequestCanonicalizer.computeCanonicalRequestHash(
+                    new CanonicalHttpUriRequest(method, path, "", copy(parameters)));
+            final String relativePath = new CanonicalHttpUriRequest(method, path, "", parameters).getRelativePath();
+
+            assertThat(CanonicalRequestHash.canonicalize(method, relativePath, parameters),
+                    CanonicalRequestHash.of(method, relativePath, copy(parameters)), equalTo(expected));
+        }
+    }
+
+    @Test
+    public void hashesRandomRelativePathsAsTheLibrary() throws Exception {
+        final Random random = new Random(20142);
+        for (int i = 0; i < 10000; i++) {
+            final String method = METHODS[random.nextInt(METHODS.length)];
+            final String relativePath = randomString(random, 12);
+            final Map<String, String[]> parameters = randomParameters(random);
+
+            final String expected = HttpRequestCanonicalizer.computeCanonicalRequestHash(
+                    request(method, relativePath, copy(parameters)));
+
+            assertThat(CanonicalRequestHash.canonicalize(method, relativePath, parameters),
+                    CanonicalRequestHash.of(method, relativePath, copy(parameters)), equalTo(expected));
+        }
+    }
+
+    private static CanonicalHttpRequest request(final String method, final String relativePath,
+                                                final Map<String, String[]> parameters) {
+        return new CanonicalHttpRequest() {
+            @Override
+            public String getMethod() {
+                return method;
+            }
+
+            @Override
+            public String getRelativePath() {
+                return relativePath;
+            }
+
+            @Override
+            public Map<String, String[]> getParameterMap() {
+                return parameters;
+            }
+        };
+    }
+
+    private static Map<String, String[]> randomParameters(Random random) {
+        final Map<String, String[]> parameters = new HashMap<String, String[]>();
+        final int count = random.nextInt(6);
+        for (int p = 0; p < count; p++) {
+            final String[] values = new String[1 + random.nextInt(3)];
+            for (int v = 0; v < values.length; v++) {
+                values[v] = randomString(random, 6);
+            }
+            parameters.put(random.nextInt(8) == 0 ? "jwt" : randomString(random, 5), values);
+        }
+        return parameters;
+    }
+
+    private static String randomString(Random random, int maximumLength) {
+        final StringBuilder string = new StringBuilder();
+        final int length = random.nextInt(maximumLength + 1);
+        while (string.length() < length) {
+            // never picks the last, low, surrogate alone
+            string.appendCodePoint(CHARACTERS.codePointAt(random.nextInt(CHARACTERS.length() - 1)));
+        }
+        return string.toString();
+    }
+
+    /**
+     * The library sorts the values of the given parameters in place.
+     */
+    private static Map<String, String[]> copy(Map<String, String[]> parameters) {
+        final Map<String, String[]> copy = new HashMap<String, String[]>();
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            copy.put(parameter.getKey(), parameter.getValue().clone());
+        }
+        return copy;
+    }
+}
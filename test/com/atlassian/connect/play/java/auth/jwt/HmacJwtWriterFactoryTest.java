@@ -0,0 +1,76 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.jwt.Jwt;
+import com.atlassian.jwt.SigningAlgorithm;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.core.reader.JwtIssuerValidator;
+import com.atlassian.jwt.core.reader.NimbusJwtReaderFactory;
+import com.atlassian.jwt.core.writer.JsonSmartJwtJsonBuilderFactory;
+import com.atlassian.jwt.exception.JwtVerificationException;
+import com.atlassian.jwt.reader.JwtClaimVerifier;
+import com.atlassian.jwt.writer.JwtWriter;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HmacJwtWriterFactoryTest {
+    private static final String ISSUER = "joe";
+    private static final String SUBJECT = "fred";
+    private static final String SECRET = "secret";
+
+    @Mock
+    private JwtIssuerSharedSecretService sharedSecretService;
+
+    @Mock
+    private JwtIssuerValidator issuerValidator;
+
+    private final JwtWriter writer = new HmacJwtWriterFactory().macSigningWriter(SigningAlgorithm.HS256, SECRET);
+
+    @Before
+    public void init() throws Exception {
+        when(issuerValidator.isValid(ISSUER)).thenReturn(true);
+    }
+
+    @Test
+    public void signedJwtsAreReadByNimbus() throws Exception {
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn(SECRET);
+
+        final Jwt first = read(writer.jsonToJwt(json()));
+        final Jwt second = read(writer.jsonToJwt(json()));
+
+        assertThat(first.getIssuer(), equalTo(ISSUER));
+        assertThat(second.getSubject(), equalTo(SUBJECT));
+    }
+
+    @Test(expected = JwtVerificationException.class)
+    public void jwtsSignedWithAnotherSecretAreRejected() throws Exception {
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn("another secret");
+
+        read(writer.jsonToJwt(json()));
+    }
+
+    private Jwt read(String jwt) throws Exception {
+        return new NimbusJwtReaderFactory(issuerValidator, sharedSecretService).getReader(jwt)
+                .read(jwt, ImmutableMap.<String, JwtClaimVerifier>of());
+    }
+
+    private static String json() {
+        final long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        return new JsonSmartJwtJsonBuilderFactory().jsonBuilder()
+                .issuer(ISSUER)
+                .issuedAt(now)
+                .expirationTime(now + TimeUnit.MINUTES.toSeconds(10))
+                .subject(SUBJECT)
+                .build();
+    }
+}
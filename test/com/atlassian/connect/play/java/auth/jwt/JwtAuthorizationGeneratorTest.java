@@ -116,6 +116,14 @@ public class JwtAuthorizationGeneratorTest {
         verify(jwtWriter).jsonToJwt(argThat(isJwtWithStringFieldValue("qsh", "dc884e24fe0f4113b128fd19b1426d7d841b6fabc03e79c2d4f27774964a5935")));
     }
 
+    @Test
+    public void callsWriterWithQueryHashOfRepeatedParameters() throws JwtUnknownIssuerException, JwtIssuerLacksSharedSecretException, URISyntaxException {
+        aUrl = aUrl + "?a=1&b=3&a=2";
+        generate();
+        // GET&/foo&a=1,2&b=3
+        verify(jwtWriter).jsonToJwt(argThat(isJwtWithStringFieldValue("qsh", "e8c7120a882d9b0b21fb86544633bafe547532b79100c8fab3d49f63523ba1dd")));
+    }
+
     @Test
     public void worksWithEmptyProductContext() throws JwtUnknownIssuerException, JwtIssuerLacksSharedSecretException, URISyntaxException {
         init(HOST);
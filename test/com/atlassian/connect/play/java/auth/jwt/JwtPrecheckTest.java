@@ -0,0 +1,81 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static play.mvc.Http.Status.BAD_REQUEST;
+import static play.mvc.Http.Status.UNAUTHORIZED;
+
+public class JwtPrecheckTest {
+
+    private static final String HEADER = "{\"alg\":\"HS256\",\"typ\":\"JWT\"}";
+
+    private final JwtPrecheck precheck = new JwtPrecheck(1024);
+
+    @Test
+    public void passesWellFormedJwtsOnWithTheirIssuer() {
+        final String jwt = jwt("{\"iss\":\"host\",\"context\":{\"user\":{}},\"exp\":" + (now() + 60) + "}");
+
+        assertThat(precheck.check(jwt).right.get().get().getIssuer().get(), equalTo("host"));
+    }
+
+    @Test
+    public void passesRequestsWithoutJwtOn() {
+        assertThat(precheck.check(null).right.get().isEmpty(), is(true));
+    }
+
+    @Test
+    public void rejectsJwtsLongerThanTheMaximum() {
+        assertRejected(jwt("{\"iss\":\"" + Strings.repeat("a", 1024) + "\",\"exp\":" + (now() + 60) + "}"), BAD_REQUEST);
+    }
+
+    @Test
+    public void rejectsJwtsThatArentMadeOfThreeSegments() {
+        assertRejected("abc", BAD_REQUEST);
+        assertRejected("abc.def", BAD_REQUEST);
+        assertRejected(jwt("{\"iss\":\"host\"}") + ".ghi", BAD_REQUEST);
+        assertRejected(".e30.abc", BAD_REQUEST);
+    }
+
+    @Test
+    public void rejectsJwtsWithoutAJsonPayload() {
+        assertRejected(encode(HEADER) + "." + encode("not json") + ".c2ln", BAD_REQUEST);
+        assertRejected(encode(HEADER) + "." + encode("[1]") + ".c2ln", BAD_REQUEST);
+        assertRejected(encode(HEADER) + ".e30!.c2ln", BAD_REQUEST);
+    }
+
+    @Test
+    public void rejectsJwtsWithoutIssuer() {
+        assertRejected(jwt("{\"exp\":" + (now() + 60) + "}"), UNAUTHORIZED);
+    }
+
+    @Test
+    public void rejectsExpiredJwtsAfterTheLeeway() {
+        assertRejected(jwt("{\"iss\":\"host\",\"exp\":" + (now() - 60) + "}"), UNAUTHORIZED);
+        assertRejected(jwt("{\"iss\":\"host\"}"), UNAUTHORIZED);
+        assertThat(precheck.check(jwt("{\"iss\":\"host\",\"exp\":" + (now() - 10) + "}")).right.isDefined(), is(true));
+    }
+
+    private void assertRejected(String jwt, int status) {
+        assertThat(precheck.check(jwt).left.get().toScala().header().status(), equalTo(status));
+    }
+
+    private static String jwt(String payload) {
+        return encode(HEADER) + "." + encode(payload) + ".c2lnbmF0dXJl";
+    }
+
+    private static String encode(String segment) {
+        return Base64.encodeBase64URLSafeString(segment.getBytes(Charsets.UTF_8));
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,53 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.emptyIterable;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.mvc.Http.Request;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PlayRequestWrapperTest {
+
+    @Mock
+    private Request request;
+
+    private PlayRequestWrapper wrapper;
+
+    @Before
+    public void init() {
+        when(request.headers()).thenReturn(ImmutableMap.of(
+                "Authorization", new String[]{"JWT abc"},
+                "X-Forwarded-For", new String[]{"10.0.0.1", "10.0.0.2"}));
+        wrapper = new PlayRequestWrapper(request, "/addon");
+    }
+
+    @Test
+    public void findsHeadersWhateverTheirCase() {
+        assertThat(wrapper.getHeaderValues("authorization"), contains("JWT abc"));
+        assertThat(wrapper.getHeaderValues("AUTHORIZATION"), contains("JWT abc"));
+        assertThat(wrapper.getHeaderValues("x-forwarded-for"), contains("10.0.0.1", "10.0.0.2"));
+    }
+
+    @Test
+    public void hasNoValuesForMissingHeaders() {
+        assertThat(wrapper.getHeaderValues("Cookie"), emptyIterable());
+    }
+
+    @Test
+    public void readsTheHeadersOfTheRequestOnce() {
+        wrapper.getHeaderValues("Authorization");
+        wrapper.getHeaderValues("Cookie");
+
+        verify(request, times(1)).headers();
+    }
+}
@@ -0,0 +1,121 @@
+package com.atlassian.connect.play.java.auth.jwt;
+
+import com.atlassian.jwt.Jwt;
+import com.atlassian.jwt.core.reader.JwtIssuerSharedSecretService;
+import com.atlassian.jwt.exception.JwtInvalidClaimException;
+import com.atlassian.jwt.exception.JwtUnknownIssuerException;
+import com.atlassian.jwt.reader.JwtClaimVerifier;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class VerifiedJwtCacheTest {
+    private static final String ISSUER = "host";
+    private static final String TOKEN = "header.payload.signature";
+    private static final String QSH = "a1b2c3";
+
+    @Mock
+    private JwtIssuerSharedSecretService sharedSecretService;
+    @Mock
+    private Jwt jwt;
+    @Mock
+    private JwtClaimVerifier qshVerifier;
+
+    private VerifiedJwtCache cache;
+
+    @Before
+    public void init() throws Exception {
+        cache = new VerifiedJwtCache(100, 180, sharedSecretService);
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn("secret");
+        when(jwt.getIssuer()).thenReturn(ISSUER);
+        when(jwt.getJsonPayload()).thenReturn(payload(now() + 60));
+    }
+
+    @Test
+    public void returnsTheVerifiedTokenAfterCheckingTheRequestsClaimsAgain() throws Exception {
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+
+        final JwtClaimVerifier nextRequestVerifier = mock(JwtClaimVerifier.class);
+        assertThat(cache.getIfValid(TOKEN, qsh(nextRequestVerifier)), sameInstance(jwt));
+        verify(nextRequestVerifier).verify(QSH);
+    }
+
+    @Test
+    public void missesWhenTheTokenIsSentWithAnotherRequest() throws Exception {
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+
+        final JwtClaimVerifier otherRequestVerifier = mock(JwtClaimVerifier.class);
+        doThrow(new JwtInvalidClaimException("Expecting claim 'qsh' to have value 'other' but instead it has the value 'a1b2c3'"))
+                .when(otherRequestVerifier).verify(QSH);
+        assertThat(cache.getIfValid(TOKEN, qsh(otherRequestVerifier)), nullValue());
+    }
+
+    @Test
+    public void missesOnceTheSharedSecretChanged() throws Exception {
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenReturn("new secret");
+
+        assertThat(cache.getIfValid(TOKEN, qsh(qshVerifier)), nullValue());
+        assertThat(cache.size(), equalTo(0L));
+    }
+
+    @Test
+    public void missesExpiredTokens() throws Exception {
+        when(jwt.getJsonPayload()).thenReturn(payload(now() - 1));
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+
+        assertThat(cache.getIfValid(TOKEN, qsh(qshVerifier)), nullValue());
+    }
+
+    @Test
+    public void neverCachesTokensOfUnknownIssuers() throws Exception {
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenThrow(new JwtUnknownIssuerException(ISSUER));
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+
+        assertThat(cache.size(), equalTo(0L));
+        assertThat(cache.getIfValid(TOKEN, qsh(qshVerifier)), nullValue());
+    }
+
+    @Test
+    public void missesOnceTheIssuerIsNoLongerKnown() throws Exception {
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+        when(sharedSecretService.getSharedSecret(ISSUER)).thenThrow(new JwtUnknownIssuerException(ISSUER));
+
+        assertThat(cache.getIfValid(TOKEN, qsh(qshVerifier)), nullValue());
+    }
+
+    @Test
+    public void missesOtherTokens() throws Exception {
+        cache.put(TOKEN, jwt, qsh(qshVerifier));
+
+        assertThat(cache.getIfValid("header.payload.other", qsh(qshVerifier)), nullValue());
+    }
+
+    private static Map<String, JwtClaimVerifier> qsh(JwtClaimVerifier verifier) {
+        return ImmutableMap.of("qsh", verifier);
+    }
+
+    private static String payload(long expiry) {
+        return "{\"iss\":\"" + ISSUER + "\",\"qsh\":\"" + QSH + "\",\"iat\":" + (expiry - 180) + ",\"exp\":" + expiry + "}";
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+}
@@ -1,9 +1,12 @@
 package com.atlassian.connect.play.java.controllers;
 
+import com.atlassian.connect.play.java.plugin.AcWarmUpPlugin;
 import com.atlassian.connect.play.java.service.AcHostService;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import play.Play;
 import play.libs.F.Function0;
 import play.libs.F.Promise;
 import play.libs.Json;
@@ -45,6 +48,51 @@ public class AcControllerTest {
         });
     }
 
+    @Test
+    public void isNotReadyWhileWarmingUp() {
+        // enough iterations for the warm up to still be running when asked
+        running(fakeApplication(ImmutableMap.<String, Object>of("ac.warmup.enabled", true,
+                "ac.warmup.iterations", Integer.MAX_VALUE)), new Runnable() {
+            public void run() {
+                assertThat(status(AcController.ready())).isEqualTo(SERVICE_UNAVAILABLE);
+            }
+        });
+    }
+
+    @Test
+    public void isReadyOnceWarmedUp() {
+        running(fakeApplication(ImmutableMap.<String, Object>of("ac.warmup.enabled", true,
+                "ac.warmup.iterations", 1)), new Runnable() {
+            public void run() {
+                final AcWarmUpPlugin warmUp = Play.application().plugin(AcWarmUpPlugin.class);
+                final long deadline = System.currentTimeMillis() + 10000;
+                while (!warmUp.isReady() && System.currentTimeMillis() < deadline) {
+                    Thread.yield();
+                }
+                assertThat(status(AcController.ready())).isEqualTo(OK);
+            }
+        });
+    }
+
+    @Test
+    public void isReadyWithoutWarmUp() {
+        running(fakeApplication(ImmutableMap.<String, Object>of("ac.warmup.enabled", false)), new Runnable() {
+            public void run() {
+                assertThat(Play.application().plugin(AcWarmUpPlugin.class)).isNull();
+                assertThat(status(AcController.ready())).isEqualTo(OK);
+            }
+        });
+    }
+
+    @Test
+    public void doesNotWarmUpInTestModeByDefault() {
+        running(fakeApplication(), new Runnable() {
+            public void run() {
+                assertThat(status(AcController.ready())).isEqualTo(OK);
+            }
+        });
+    }
+
     private JsonNode readJsonFromTestFile(String filename) throws IOException {
         return Json.parse(FileUtils.readFileToString(new File("test/resources/" + filename)));
     }
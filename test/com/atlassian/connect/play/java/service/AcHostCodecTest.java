@@ -0,0 +1,50 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class AcHostCodecTest {
+
+    @Test
+    public void decodesEncodedHost() {
+        final AcHost acHost = new AcHost();
+        acHost.setId(42L);
+        acHost.setKey("client-key");
+        acHost.setBaseUrl("http://example.com");
+        acHost.setSharedSecret("secret");
+        acHost.setName("Example");
+
+        final AcHost decoded = AcHostCodec.decode(AcHostCodec.encode(acHost));
+        assertThat(decoded.getId(), equalTo(42L));
+        assertThat(decoded.getKey(), equalTo("client-key"));
+        assertThat(decoded.getBaseUrl(), equalTo("http://example.com"));
+        assertThat(decoded.getPublicKey(), nullValue());
+        assertThat(decoded.getSharedSecret(), equalTo("secret"));
+        assertThat(decoded.getName(), equalTo("Example"));
+    }
+
+    @Test
+    public void doesNotDecodeOtherVersions() {
+        final AcHost acHost = new AcHost();
+        acHost.setKey("client-key");
+        final byte[] encoded = AcHostCodec.encode(acHost);
+        encoded[0] = AcHostCodec.VERSION + 1;
+
+        assertThat(AcHostCodec.decode(encoded), nullValue());
+    }
+
+    @Test
+    public void doesNotDecodeTruncatedHost() {
+        final AcHost acHost = new AcHost();
+        acHost.setKey("client-key");
+        final byte[] encoded = AcHostCodec.encode(acHost);
+
+        assertThat(AcHostCodec.decode(Arrays.copyOf(encoded, encoded.length - 2)), nullValue());
+    }
+}
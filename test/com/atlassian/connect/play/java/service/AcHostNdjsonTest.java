@@ -0,0 +1,56 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Iterator;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class AcHostNdjsonTest {
+
+    @Test
+    public void readsWrittenHostsOnePerLine() throws Exception {
+        final StringWriter writer = new StringWriter();
+        AcHostNdjson.write(host(1L, "a", "http://a"), writer);
+        AcHostNdjson.write(host(2L, "b", "http://b"), writer);
+        assertThat(writer.toString().split("\n").length, equalTo(2));
+
+        final Iterator<AcHost> acHosts = AcHostNdjson.read(new BufferedReader(new StringReader(writer.toString() + "\n")));
+        final AcHost first = acHosts.next();
+        assertThat(first.getId(), equalTo(1L));
+        assertThat(first.getKey(), equalTo("a"));
+        assertThat(first.getSharedSecret(), equalTo("secret-a"));
+        assertThat(first.getPublicKey(), nullValue());
+        assertThat(acHosts.next().getBaseUrl(), equalTo("http://b"));
+        assertThat(acHosts.hasNext(), equalTo(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHostWithoutKey() {
+        AcHostNdjson.read(new BufferedReader(new StringReader("{\"baseUrl\":\"http://a\"}\n"))).next();
+    }
+
+    @Test
+    public void skipsMalformedLinesWhenAsked() {
+        final Iterator<AcHost> hosts = AcHostNdjson.readSkippingMalformed(new BufferedReader(new StringReader(
+                "{\"baseUrl\":\"http://a\"}\n{\"key\":\"b\",\"baseUrl\":\"http://b\"}\n{")));
+
+        assertThat(hosts.next().getKey(), equalTo("b"));
+        assertThat(hosts.hasNext(), equalTo(false));
+    }
+
+    private static AcHost host(Long id, String key, String baseUrl) {
+        final AcHost acHost = new AcHost();
+        acHost.setId(id);
+        acHost.setKey(key);
+        acHost.setBaseUrl(baseUrl);
+        acHost.setSharedSecret("secret-" + key);
+        return acHost;
+    }
+}
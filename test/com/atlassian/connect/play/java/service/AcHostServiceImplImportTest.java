@@ -0,0 +1,162 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static play.libs.F.Callback;
+
+/**
+ * Tests {@link AcHostServiceImpl#importHosts} and {@link AcHostServiceImpl#exportHosts}.
+ */
+public class AcHostServiceImplImportTest {
+
+    private final AcHostRepository repository = mock(AcHostRepository.class);
+    private final AcHostInvalidationChannel invalidationChannel = mock(AcHostInvalidationChannel.class);
+    private final List<Long> progress = new ArrayList<Long>();
+    private final Callback<Long> recordProgress = new Callback<Long>() {
+        @Override
+        public void invoke(Long count) {
+            progress.add(count);
+        }
+    };
+
+    private MeteredExecutor executor;
+    private AcHostServiceImpl service;
+
+    @Before
+    public void init() {
+        executor = new MeteredExecutor("test-hosts", 1, 10);
+        service = new AcHostServiceImpl(repository, executor, invalidationChannel);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void importsInBatchesOfConfiguredSize() throws Throwable {
+        final long imported = service.importHosts(hosts("a", "b", "c", "d", "e").iterator(), 2, recordProgress);
+
+        final List<List<AcHost>> batches = batches(repository, 3);
+        assertThat(keys(batches.get(0)), contains("a", "b"));
+        assertThat(keys(batches.get(1)), contains("c", "d"));
+        assertThat(keys(batches.get(2)), contains("e"));
+        assertThat(imported, equalTo(5L));
+    }
+
+    @Test
+    public void publishesSingleInvalidationPerBatch() throws Throwable {
+        service.importHosts(hosts("a", "b", "c", "d", "e").iterator(), 2, recordProgress);
+
+        verify(invalidationChannel, times(3)).publishAll();
+        verify(invalidationChannel, never()).publish(anyString());
+    }
+
+    @Test
+    public void reportsProgressAfterEachBatch() throws Throwable {
+        service.importHosts(hosts("a", "b", "c", "d", "e").iterator(), 2, recordProgress);
+
+        assertThat(progress, contains(2L, 4L, 5L));
+    }
+
+    @Test
+    public void keepsLastHostOfKeyRepeatedInBatch() throws Throwable {
+        final List<AcHost> hosts = hosts("a", "b", "a");
+        hosts.get(2).setSharedSecret("changed");
+
+        assertThat(service.importHosts(hosts.iterator(), 10, recordProgress), equalTo(2L));
+
+        final List<AcHost> written = batches(repository, 1).get(0);
+        assertThat(keys(written), contains("b", "a"));
+        assertThat(written.get(1).getSharedSecret(), equalTo("changed"));
+    }
+
+    @Test
+    public void skipsMalformedLines() throws Throwable {
+        final String ndjson = "{\"key\":\"a\",\"baseUrl\":\"http://a\"}\n"
+                + "not json\n"
+                + "{\"baseUrl\":\"http://no-key\"}\n"
+                + "\n"
+                + "{\"key\":\"b\",\"baseUrl\":\"http://b\"}\n";
+
+        final long imported = service.importHosts(
+                AcHostNdjson.readSkippingMalformed(new BufferedReader(new StringReader(ndjson))), 10, recordProgress);
+
+        assertThat(keys(batches(repository, 1).get(0)), contains("a", "b"));
+        assertThat(imported, equalTo(2L));
+    }
+
+    @Test
+    public void importsWhatItExported() throws Throwable {
+        final List<AcHost> stored = hosts("a", "b", "c");
+        when(repository.iterate(2)).thenReturn(stored);
+
+        final StringWriter writer = new StringWriter();
+        assertThat(service.exportHosts(writer, 2, recordProgress), equalTo(3L));
+        assertThat(progress, contains(2L, 3L));
+
+        final AcHostRepository target = mock(AcHostRepository.class);
+        final AcHostServiceImpl targetService = new AcHostServiceImpl(target, executor, invalidationChannel);
+        targetService.importHosts(AcHostNdjson.read(new BufferedReader(new StringReader(writer.toString()))), 10,
+                recordProgress);
+
+        final List<AcHost> imported = batches(target, 1).get(0);
+        assertThat(keys(imported), contains("a", "b", "c"));
+        for (int i = 0; i < imported.size(); i++) {
+            assertThat(imported.get(i).getBaseUrl(), equalTo(stored.get(i).getBaseUrl()));
+            assertThat(imported.get(i).getSharedSecret(), equalTo(stored.get(i).getSharedSecret()));
+            // matched by key or base url where it is imported
+            assertThat(imported.get(i).getId(), nullValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<List<AcHost>> batches(AcHostRepository repository, int count) throws Throwable {
+        final ArgumentCaptor<List> batches = ArgumentCaptor.forClass(List.class);
+        verify(repository, times(count)).upsertAll(batches.capture());
+        return (List) batches.getAllValues();
+    }
+
+    private static List<AcHost> hosts(String... keys) {
+        final List<AcHost> hosts = new ArrayList<AcHost>();
+        for (String key : keys) {
+            final AcHost acHost = new AcHost();
+            acHost.setId((long) hosts.size() + 1);
+            acHost.setKey(key);
+            acHost.setBaseUrl("http://" + key);
+            acHost.setSharedSecret("secret-" + key);
+            hosts.add(acHost);
+        }
+        return hosts;
+    }
+
+    private static List<String> keys(List<AcHost> hosts) {
+        final ImmutableList.Builder<String> keys = ImmutableList.builder();
+        for (AcHost acHost : hosts) {
+            keys.add(acHost.getKey());
+        }
+        return keys.build();
+    }
+}
@@ -0,0 +1,82 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import com.atlassian.fugue.Option;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class AsyncAcHostRepositoryAdapterTest {
+    private static final String KEY = "client-key";
+
+    private final AcHostRepository repository = mock(AcHostRepository.class,
+            withSettings().extraInterfaces(AcHostCache.class));
+    private final AtomicReference<String> loadingThread = new AtomicReference<String>();
+
+    private MeteredExecutor executor;
+    private AsyncAcHostRepositoryAdapter adapter;
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        executor = new MeteredExecutor("test-hosts", 1, 10);
+        adapter = new AsyncAcHostRepositoryAdapter(repository, executor);
+        acHost = new AcHost();
+        acHost.setKey(KEY);
+        when(repository.findByKey(KEY)).thenAnswer(new Answer<Option<AcHost>>() {
+            @Override
+            public Option<AcHost> answer(InvocationOnMock invocation) {
+                loadingThread.set(Thread.currentThread().getName());
+                return some(acHost);
+            }
+        });
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void returnsHostsHeldInMemoryWithoutDispatching() throws Throwable {
+        when(((AcHostCache) repository).getIfPresent(KEY)).thenReturn(acHost);
+
+        assertThat(adapter.findByKey(KEY).get(0).get(), sameInstance(acHost));
+        assertThat(executor.stats().getSubmitted(), equalTo(0L));
+        verify(repository, never()).findByKey(anyString());
+    }
+
+    @Test
+    public void loadsOtherHostsOnExecutor() throws Throwable {
+        assertThat(adapter.findByKey(KEY).get(1000).get(), sameInstance(acHost));
+        assertThat(executor.stats().getSubmitted(), equalTo(1L));
+        assertThat(loadingThread.get(), startsWith("test-hosts-"));
+    }
+
+    @Test
+    public void loadsHostsOfRepositoriesNotHoldingThemInMemoryOnExecutor() throws Throwable {
+        final AcHostRepository blocking = mock(AcHostRepository.class);
+        when(blocking.findByKey(KEY)).thenReturn(some(acHost));
+
+        assertThat(new AsyncAcHostRepositoryAdapter(blocking, executor).findByKey(KEY).get(1000).get(),
+                sameInstance(acHost));
+        assertThat(executor.stats().getSubmitted(), equalTo(1L));
+    }
+}
@@ -0,0 +1,145 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingAcHostRepositoryTest {
+    private static final String KEY = "client-key";
+
+    @Mock
+    private AcHostRepository delegate;
+
+    private CachingAcHostRepository repository;
+    private AcHost acHost;
+
+    private final ManualTicker ticker = new ManualTicker();
+
+    @Before
+    public void init() throws Throwable {
+        repository = new CachingAcHostRepository(delegate, 100, 60, 600, MoreExecutors.sameThreadExecutor(), ticker);
+        acHost = new AcHost();
+        acHost.setId(1L);
+        acHost.setKey(KEY);
+        when(delegate.findByKey(KEY)).thenReturn(some(acHost));
+    }
+
+    @Test
+    public void loadsHostOnlyOnce() throws Throwable {
+        repository.findByKey(KEY);
+        assertThat(repository.findByKey(KEY).get(), sameInstance(acHost));
+        verify(delegate, times(1)).findByKey(KEY);
+    }
+
+    @Test
+    public void doesNotCacheUnknownHosts() throws Throwable {
+        when(delegate.findByKey("unknown")).thenReturn(none(AcHost.class));
+        assertThat(repository.findByKey("unknown").isEmpty(), equalTo(true));
+        assertThat(repository.findByKey("unknown").isEmpty(), equalTo(true));
+        verify(delegate, times(2)).findByKey("unknown");
+    }
+
+    @Test
+    public void invalidatesHostOnSave() throws Throwable {
+        repository.findByKey(KEY);
+        repository.save(acHost);
+        repository.findByKey(KEY);
+        verify(delegate).save(acHost);
+        verify(delegate, times(2)).findByKey(KEY);
+    }
+
+    @Test
+    public void invalidatesHostOnDelete() throws Throwable {
+        repository.findByKey(KEY);
+        repository.delete(acHost.getId());
+        repository.findByKey(KEY);
+        verify(delegate).delete(acHost.getId());
+        verify(delegate, times(2)).findByKey(KEY);
+    }
+
+    @Test
+    public void invalidatesHostPublishedOnChannel() throws Throwable {
+        final LocalAcHostInvalidationChannel channel = new LocalAcHostInvalidationChannel();
+        channel.subscribe(repository);
+        repository.findByKey(KEY);
+        channel.publish(KEY);
+        repository.findByKey(KEY);
+        verify(delegate, times(2)).findByKey(KEY);
+    }
+
+    @Test
+    public void recordsHitsAndMisses() throws Throwable {
+        repository.findByKey(KEY);
+        repository.findByKey(KEY);
+        assertThat(repository.stats().missCount(), equalTo(1L));
+        assertThat(repository.stats().hitCount(), equalTo(1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void propagatesRepositoryFailures() throws Throwable {
+        when(delegate.findByKey("broken")).thenThrow(new IllegalStateException("database is down"));
+        repository.findByKey("broken");
+    }
+
+    @Test
+    public void refreshesHostsAfterTheRefreshInterval() throws Throwable {
+        repository.findByKey(KEY);
+        final AcHost updated = new AcHost();
+        updated.setKey(KEY);
+        when(delegate.findByKey(KEY)).thenReturn(some(updated));
+
+        ticker.advance(61);
+        assertThat(repository.findByKey(KEY).get(), sameInstance(updated));
+    }
+
+    @Test
+    public void dropsHostsDeletedElsewhereOnRefresh() throws Throwable {
+        repository.findByKey(KEY);
+        when(delegate.findByKey(KEY)).thenReturn(none(AcHost.class));
+
+        ticker.advance(61);
+        assertThat(repository.findByKey(KEY).isEmpty(), equalTo(true));
+        assertThat(repository.getIfPresent(KEY), nullValue());
+        assertThat(repository.size(), equalTo(0L));
+    }
+
+    @Test
+    public void keepsServingHostsWhenTheRefreshFails() throws Throwable {
+        repository.findByKey(KEY);
+        when(delegate.findByKey(KEY)).thenThrow(new IllegalStateException("database is down"));
+
+        ticker.advance(61);
+        assertThat(repository.findByKey(KEY).get(), sameInstance(acHost));
+    }
+
+    private static final class ManualTicker extends Ticker {
+        private long nanos;
+
+        void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
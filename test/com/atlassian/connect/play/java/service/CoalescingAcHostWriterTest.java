@@ -0,0 +1,132 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.atlassian.connect.play.java.util.MeteredExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static play.libs.F.Promise;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CoalescingAcHostWriterTest {
+
+    @Mock
+    private AcHostRepository repository;
+
+    private MeteredExecutor executor;
+    private CoalescingAcHostWriter writer;
+    private final CountDownLatch upserting = new CountDownLatch(1);
+
+    @Before
+    public void init() {
+        executor = new MeteredExecutor("test", 1, 10);
+        writer = new CoalescingAcHostWriter(repository, executor, 10);
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void upsertsSingleHost() throws Throwable {
+        final AcHost acHost = host("a", "http://a");
+        writer.write(acHost).get(1, TimeUnit.SECONDS);
+        verify(repository).upsert(acHost);
+    }
+
+    @Test
+    public void coalescesWritesWaitingForAPreviousWrite() throws Throwable {
+        final AcHost first = host("a", "http://a");
+        final AcHost replaced = host("b", "http://b");
+        final AcHost latest = host("b", "http://b2");
+        final AcHost other = host("c", "http://c");
+        final CountDownLatch released = blockUpsertOf(first);
+
+        final Promise<Void> firstWritten = writer.write(first);
+        awaitUpsertOf(first);
+        final Promise<Void> replacedWritten = writer.write(replaced);
+        final Promise<Void> latestWritten = writer.write(latest);
+        final Promise<Void> otherWritten = writer.write(other);
+        released.countDown();
+
+        firstWritten.get(1, TimeUnit.SECONDS);
+        replacedWritten.get(1, TimeUnit.SECONDS);
+        latestWritten.get(1, TimeUnit.SECONDS);
+        otherWritten.get(1, TimeUnit.SECONDS);
+
+        final ArgumentCaptor<List> batch = ArgumentCaptor.forClass(List.class);
+        verify(repository).upsertAll(batch.capture());
+        assertThat((List<AcHost>) batch.getValue(), contains(latest, other));
+    }
+
+    @Test
+    public void writesHostsOneAtATimeWhenBatchFails() throws Throwable {
+        final AcHost first = host("a", "http://a");
+        final AcHost good = host("b", "http://b");
+        final AcHost bad = host("c", "http://c");
+        final CountDownLatch released = blockUpsertOf(first);
+        doThrow(new IllegalStateException("batch")).when(repository).upsertAll(anyListOf(AcHost.class));
+        doThrow(new IllegalStateException("bad")).when(repository).upsert(bad);
+
+        writer.write(first);
+        awaitUpsertOf(first);
+        final Promise<Void> goodWritten = writer.write(good);
+        final Promise<Void> badWritten = writer.write(bad);
+        released.countDown();
+
+        goodWritten.get(1, TimeUnit.SECONDS);
+        verify(repository).upsert(good);
+        try {
+            badWritten.get(1, TimeUnit.SECONDS);
+            fail("Expected the bad write to fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), equalTo("bad"));
+        }
+    }
+
+    private CountDownLatch blockUpsertOf(AcHost acHost) throws Throwable {
+        final CountDownLatch released = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                upserting.countDown();
+                released.await(1, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(repository).upsert(acHost);
+        return released;
+    }
+
+    private void awaitUpsertOf(AcHost acHost) throws Throwable {
+        // so that the hosts written next wait for it, rather than being written in the same batch
+        upserting.await(1, TimeUnit.SECONDS);
+        verify(repository).upsert(acHost);
+    }
+
+    private static AcHost host(String key, String baseUrl) {
+        final AcHost acHost = new AcHost();
+        acHost.setKey(key);
+        acHost.setBaseUrl(baseUrl);
+        return acHost;
+    }
+}
@@ -0,0 +1,168 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.hibernate.Cache;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.Before;
+import org.junit.Test;
+import play.libs.F;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class DefaultAcHostRepositoryTest {
+    private static final String WRITE_UNIT = "default";
+    private static final String READ_UNIT = "replica";
+    private static final String KEY = "client-key";
+    private static final String BASE_URL = "http://example.atlassian.net";
+
+    private final ManualTicker ticker = new ManualTicker();
+    private final Map<String, EntityManager> entityManagers = new HashMap<String, EntityManager>();
+    private final Map<String, Cache> caches = new HashMap<String, Cache>();
+    private final List<String> readUnits = new ArrayList<String>();
+
+    private DefaultAcHostRepository repository;
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        acHost = new AcHost();
+        acHost.setId(1L);
+        acHost.setKey(KEY);
+        acHost.setBaseUrl(BASE_URL);
+
+        for (String unit : ImmutableList.of(WRITE_UNIT, READ_UNIT)) {
+            entityManagers.put(unit, entityManager(unit));
+        }
+
+        repository = new DefaultAcHostRepository(WRITE_UNIT, READ_UNIT, 5, ticker) {
+            private String unit;
+
+            @Override
+            <T> T withTransaction(String persistenceUnit, boolean readOnly, F.Function0<T> block) throws Throwable {
+                if (readOnly) {
+                    readUnits.add(persistenceUnit);
+                }
+                unit = persistenceUnit;
+                return block.apply();
+            }
+
+            @Override
+            EntityManager em() {
+                return entityManagers.get(unit);
+            }
+        };
+    }
+
+    @Test
+    public void readsFromReadUnit() throws Throwable {
+        repository.findByKey(KEY);
+        repository.findByUrl(BASE_URL);
+        repository.all();
+        assertThat(readUnits, contains(READ_UNIT, READ_UNIT, READ_UNIT));
+    }
+
+    @Test
+    public void readsOwnWritesFromWriteUnit() throws Throwable {
+        repository.save(acHost);
+        readUnits.clear();
+
+        repository.findByKey(KEY);
+        repository.findByUrl(BASE_URL);
+        repository.all();
+        repository.findByKey("other-client-key");
+        assertThat(readUnits, contains(WRITE_UNIT, WRITE_UNIT, WRITE_UNIT, READ_UNIT));
+    }
+
+    @Test
+    public void readsFromReadUnitOnceWritesAreOlderThanWindow() throws Throwable {
+        repository.upsert(acHost);
+        readUnits.clear();
+
+        ticker.advance(4);
+        repository.findByKey(KEY);
+        ticker.advance(2);
+        repository.findByKey(KEY);
+        repository.all();
+        assertThat(readUnits, contains(WRITE_UNIT, READ_UNIT, READ_UNIT));
+    }
+
+    @Test
+    public void evictsSavedHostFromBothUnits() throws Throwable {
+        repository.save(acHost);
+        for (String unit : ImmutableList.of(WRITE_UNIT, READ_UNIT)) {
+            verify(caches.get(unit)).evictEntity(AcHost.class, 1L);
+            verify(caches.get(unit)).evictQueryRegion(AcHost.QUERY_CACHE_REGION);
+        }
+    }
+
+    @Test
+    public void evictsDeletedHostFromBothUnits() throws Throwable {
+        when(entityManagers.get(WRITE_UNIT).find(AcHost.class, 1L)).thenReturn(acHost);
+        repository.delete(1L);
+        verify(entityManagers.get(WRITE_UNIT)).remove(acHost);
+        for (String unit : ImmutableList.of(WRITE_UNIT, READ_UNIT)) {
+            verify(caches.get(unit)).evictEntity(AcHost.class, 1L);
+            verify(caches.get(unit)).evictQueryRegion(AcHost.QUERY_CACHE_REGION);
+        }
+    }
+
+    @Test
+    public void doesNotEvictUnknownHosts() throws Throwable {
+        repository.delete(1L);
+        verifyZeroInteractions(caches.get(WRITE_UNIT), caches.get(READ_UNIT));
+    }
+
+    @SuppressWarnings("unchecked")
+    private EntityManager entityManager(final String unit) {
+        final EntityManager entityManager = mock(EntityManager.class);
+        final TypedQuery<AcHost> query = mock(TypedQuery.class);
+        when(entityManager.createNamedQuery(anyString(), eq(AcHost.class))).thenReturn(query);
+        when(query.setParameter(anyString(), any())).thenReturn(query);
+        when(query.setHint(anyString(), anyBoolean())).thenReturn(query);
+        when(query.setMaxResults(anyInt())).thenReturn(query);
+        when(query.getResultList()).thenReturn(new ArrayList<AcHost>());
+
+        final Session session = mock(Session.class);
+        final SessionFactory sessionFactory = mock(SessionFactory.class);
+        final Cache cache = mock(Cache.class);
+        when(entityManager.unwrap(Session.class)).thenReturn(session);
+        when(session.getSessionFactory()).thenReturn(sessionFactory);
+        when(sessionFactory.getCache()).thenReturn(cache);
+        caches.put(unit, cache);
+        return entityManager;
+    }
+
+    private static final class ManualTicker extends Ticker {
+        private long nanos;
+
+        void advance(long seconds) {
+            nanos += TimeUnit.SECONDS.toNanos(seconds);
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
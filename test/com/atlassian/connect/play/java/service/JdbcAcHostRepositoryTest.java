@@ -0,0 +1,209 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JdbcAcHostRepositoryTest {
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    @Mock
+    private Connection writeConnection;
+    @Mock
+    private Connection readConnection;
+    @Mock
+    private PreparedStatement statement;
+    @Mock
+    private ResultSet resultSet;
+
+    private JdbcAcHostRepository repository;
+
+    @Before
+    public void init() throws SQLException {
+        repository = new JdbcAcHostRepository("write", "read", 60) {
+            @Override
+            Connection getConnection(String datasource, boolean autocommit) {
+                return "write".equals(datasource) ? writeConnection : readConnection;
+            }
+        };
+        when(writeConnection.prepareStatement(anyString())).thenReturn(statement);
+        when(readConnection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+    }
+
+    @Test
+    public void setsTheIdOfAnUpsertedHost() throws Throwable {
+        when(resultSet.getLong(1)).thenReturn(50L);
+
+        final AcHost acHost = acHost("host");
+        repository.upsert(acHost);
+
+        assertThat(acHost.getId(), equalTo(50L));
+        verify(statement).executeQuery();
+    }
+
+    @Test
+    public void onlyUpdatesHostsThatChanged() throws Throwable {
+        final AcHost acHost = acHost("host");
+        repository.upsert(acHost);
+
+        verify(writeConnection).prepareStatement(contains("IS DISTINCT FROM (?, ?, ?, ?, ?)"));
+        verify(statement).setString(9, acHost.getKey());
+        verify(statement).setString(10, acHost.getBaseUrl());
+        verify(statement).setString(11, acHost.getPublicKey());
+        verify(statement).setString(12, acHost.getSharedSecret());
+        verify(statement).setString(13, acHost.getName());
+    }
+
+    @Test
+    public void upsertsAgainWhenTheHostWasInsertedConcurrently() throws Throwable {
+        when(statement.executeQuery())
+                .thenThrow(new SQLException("duplicate key value violates unique constraint", UNIQUE_VIOLATION))
+                .thenReturn(resultSet);
+        when(resultSet.getLong(1)).thenReturn(100L);
+
+        final AcHost acHost = acHost("host");
+        repository.upsert(acHost);
+
+        assertThat(acHost.getId(), equalTo(100L));
+        verify(writeConnection, times(2)).prepareStatement(startsWith("WITH existing AS"));
+        verify(writeConnection).close();
+    }
+
+    @Test
+    public void upsertsAgainOnlyOnce() throws Throwable {
+        final SQLException retryFailure = new SQLException("duplicate key value violates unique constraint", UNIQUE_VIOLATION);
+        when(statement.executeQuery())
+                .thenThrow(new SQLException("duplicate key value violates unique constraint", UNIQUE_VIOLATION))
+                .thenThrow(retryFailure);
+
+        try {
+            repository.upsert(acHost("host"));
+            fail("Expected the second unique violation to be thrown");
+        } catch (SQLException e) {
+            assertThat(e, sameInstance((Throwable) retryFailure));
+        }
+        verify(statement, times(2)).executeQuery();
+    }
+
+    @Test
+    public void doesNotUpsertAgainOnOtherFailures() throws Throwable {
+        final SQLException failure = new SQLException("connection reset", "08006");
+        when(statement.executeQuery()).thenThrow(failure);
+
+        try {
+            repository.upsert(acHost("host"));
+            fail("Expected the failure to be thrown");
+        } catch (SQLException e) {
+            assertThat(e, sameInstance((Throwable) failure));
+        }
+        verify(statement).executeQuery();
+    }
+
+    @Test
+    public void upsertsAllHostsInOneCommittedBatch() throws Throwable {
+        repository.upsertAll(ImmutableList.of(acHost("host1"), acHost("host2")));
+
+        final InOrder inOrder = inOrder(statement, writeConnection);
+        inOrder.verify(statement, times(2)).addBatch();
+        inOrder.verify(statement).executeBatch();
+        inOrder.verify(writeConnection).commit();
+        verify(writeConnection, never()).rollback();
+    }
+
+    @Test
+    public void rollsTheBatchBackWhenItFails() throws Throwable {
+        final SQLException failure = new SQLException("deadlock detected", "40P01");
+        when(statement.executeBatch()).thenThrow(failure);
+
+        try {
+            repository.upsertAll(ImmutableList.of(acHost("host1"), acHost("host2")));
+            fail("Expected the failure to be thrown");
+        } catch (SQLException e) {
+            assertThat(e, sameInstance((Throwable) failure));
+        }
+        verify(writeConnection).rollback();
+        verify(writeConnection, never()).commit();
+        verify(writeConnection).close();
+    }
+
+    @Test
+    public void savesNewHostsWithAnUpsertOnTheirKeyOrBaseUrl() throws Throwable {
+        when(resultSet.getLong(1)).thenReturn(150L);
+
+        final AcHost acHost = acHost("host");
+        repository.save(acHost);
+
+        assertThat(acHost.getId(), equalTo(150L));
+        verify(writeConnection).prepareStatement(startsWith("WITH existing AS (SELECT id FROM ac_host WHERE key = ? OR baseUrl = ?"));
+        verify(statement).setString(2, acHost.getBaseUrl());
+    }
+
+    @Test
+    public void retriesSavingNewHostInsertedConcurrently() throws Throwable {
+        when(statement.executeQuery()).thenThrow(new SQLException("duplicate key", UNIQUE_VIOLATION)).thenReturn(resultSet);
+        when(resultSet.getLong(1)).thenReturn(150L);
+
+        final AcHost acHost = acHost("host");
+        repository.save(acHost);
+
+        assertThat(acHost.getId(), equalTo(150L));
+        verify(statement, times(2)).executeQuery();
+    }
+
+    @Test
+    public void updatesSavedHostsById() throws Throwable {
+        final AcHost acHost = acHost("host");
+        acHost.setId(100L);
+        repository.save(acHost);
+
+        verify(writeConnection).prepareStatement(startsWith("UPDATE ac_host SET"));
+        verify(statement).setLong(6, 100L);
+        verify(statement).executeUpdate();
+    }
+
+    @Test
+    public void readsHostsFromTheReadDatasourceUntilWritten() throws Throwable {
+        repository.findByKey("host");
+        verify(readConnection).prepareStatement(anyString());
+
+        when(resultSet.getLong(1)).thenReturn(50L);
+        repository.upsert(acHost("host"));
+        repository.findByKey("host");
+        verify(writeConnection, times(2)).prepareStatement(anyString());
+        verify(readConnection).prepareStatement(anyString());
+    }
+
+    private static AcHost acHost(String key) {
+        final AcHost acHost = new AcHost();
+        acHost.setKey(key);
+        acHost.setBaseUrl("http://" + key + ".example.com");
+        acHost.setPublicKey("public key");
+        acHost.setSharedSecret("secret");
+        return acHost;
+    }
+}
@@ -0,0 +1,66 @@
+package com.atlassian.connect.play.java.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LocalAcHostInvalidationChannelTest {
+
+    @Mock
+    private AcHostInvalidationChannel.Listener listener;
+    @Mock
+    private AcHostInvalidationChannel.Listener otherListener;
+
+    private LocalAcHostInvalidationChannel channel;
+
+    @Before
+    public void init() {
+        channel = new LocalAcHostInvalidationChannel();
+    }
+
+    @Test
+    public void deliversPublishedKeysToEveryListener() throws Throwable {
+        channel.subscribe(listener);
+        channel.subscribe(otherListener);
+
+        channel.publish("host");
+
+        verify(listener).invalidate("host");
+        verify(otherListener).invalidate("host");
+    }
+
+    @Test
+    public void invalidatesEverythingOnPublishAll() throws Throwable {
+        channel.subscribe(listener);
+
+        channel.publishAll();
+
+        verify(listener).invalidateAll();
+    }
+
+    @Test
+    public void deliversToTheOtherListenersWhenOneFails() throws Throwable {
+        doThrow(new IllegalStateException("broken")).when(listener).invalidate("host");
+        channel.subscribe(listener);
+        channel.subscribe(otherListener);
+
+        channel.publish("host");
+
+        verify(otherListener).invalidate("host");
+    }
+
+    @Test
+    public void deliversNothingToListenersSubscribedLater() throws Throwable {
+        channel.publish("host");
+        channel.subscribe(listener);
+
+        verifyZeroInteractions(listener);
+    }
+}
@@ -0,0 +1,168 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class MappedFileAcHostRepositoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private MappedFileAcHostRepository repository;
+
+    @Before
+    public void init() throws Exception {
+        file = new File(folder.getRoot(), "ac-hosts.db");
+        repository = new MappedFileAcHostRepository(file);
+    }
+
+    @After
+    public void close() throws Exception {
+        repository.close();
+    }
+
+    @Test
+    public void findsSavedHostByKeyAndUrl() throws Throwable {
+        final AcHost acHost = host("key", "http://example.com");
+        repository.save(acHost);
+
+        assertThat(acHost.getId(), equalTo(1L));
+        assertThat(repository.findByKey("key").get().getSharedSecret(), equalTo("secret-key"));
+        assertThat(repository.findByUrl("http://example.com").get().getKey(), equalTo("key"));
+        assertThat(repository.findByKey("other").isEmpty(), equalTo(true));
+    }
+
+    @Test
+    public void upsertReplacesHostWithSameBaseUrl() throws Throwable {
+        repository.save(host("old-key", "http://example.com"));
+        repository.upsert(host("new-key", "http://example.com"));
+
+        assertThat(repository.findByKey("old-key").isEmpty(), equalTo(true));
+        assertThat(repository.findByKey("new-key").get().getId(), equalTo(1L));
+        assertThat(repository.all().size(), equalTo(1));
+    }
+
+    @Test
+    public void replaysLogWhenReopened() throws Throwable {
+        repository.save(host("a", "http://a"));
+        final AcHost deleted = host("b", "http://b");
+        repository.save(deleted);
+        repository.delete(deleted.getId());
+        repository.close();
+
+        repository = new MappedFileAcHostRepository(file);
+        assertThat(repository.findByKey("a").isDefined(), equalTo(true));
+        assertThat(repository.findByKey("b").isEmpty(), equalTo(true));
+        repository.save(host("c", "http://c"));
+        assertThat(repository.findByKey("c").get().getId(), equalTo(3L));
+    }
+
+    @Test
+    public void discardsIncompleteRecordWhenReopened() throws Throwable {
+        repository.save(host("a", "http://a"));
+        repository.save(host("b", "http://b"));
+        repository.close();
+
+        // corrupt the last byte of the second record, as if the process died while writing it
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            final long end = lastNonZeroByte(raf);
+            raf.seek(end);
+            final int last = raf.read();
+            raf.seek(end);
+            raf.write(last ^ 0xff);
+        }
+
+        repository = new MappedFileAcHostRepository(file);
+        assertThat(repository.findByKey("a").isDefined(), equalTo(true));
+        assertThat(repository.findByKey("b").isEmpty(), equalTo(true));
+        repository.save(host("b", "http://b"));
+        assertThat(repository.findByKey("b").isDefined(), equalTo(true));
+    }
+
+    @Test
+    public void compactionKeepsOnlyCurrentHosts() throws Throwable {
+        final AcHost acHost = host("a", "http://a");
+        for (int i = 0; i < 100; i++) {
+            acHost.setName("name " + i);
+            repository.save(acHost);
+        }
+        final long before = logLength();
+        repository.compact();
+
+        assertThat(logLength(), lessThan(before));
+        assertThat(repository.findByKey("a").get().getName(), equalTo("name 99"));
+        assertThat(repository.all().size(), equalTo(1));
+    }
+
+    @Test
+    public void keepsWritingToTheFileOnceCompacted() throws Throwable {
+        repository.save(host("a", "http://a"));
+        repository.compact();
+        repository.save(host("b", "http://b"));
+        repository.close();
+
+        repository = new MappedFileAcHostRepository(file);
+        assertThat(repository.findByKey("a").isDefined(), equalTo(true));
+        assertThat(repository.findByKey("b").isDefined(), equalTo(true));
+        assertThat(new File(file.getPath() + ".compact").exists(), equalTo(false));
+    }
+
+    @Test
+    public void pagesThroughHostsInIdOrder() throws Throwable {
+        for (int i = 0; i < 5; i++) {
+            repository.save(host("key-" + i, "http://" + i));
+        }
+
+        assertThat(keys(repository.findPage(null, 2)), contains("key-0", "key-1"));
+        assertThat(keys(repository.findPage(2L, 2)), contains("key-2", "key-3"));
+        assertThat(keys(repository.findPage(4L, 2)), contains("key-4"));
+        assertThat(keys(repository.iterate(2)), contains("key-0", "key-1", "key-2", "key-3", "key-4"));
+    }
+
+    private static List<String> keys(Iterable<AcHost> acHosts) {
+        final List<String> keys = new ArrayList<String>();
+        for (AcHost acHost : acHosts) {
+            keys.add(acHost.getKey());
+        }
+        return keys;
+    }
+
+    private long logLength() throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return lastNonZeroByte(raf);
+        }
+    }
+
+    private static long lastNonZeroByte(RandomAccessFile raf) throws Exception {
+        long position = raf.length() - 1;
+        raf.seek(position);
+        while (raf.read() == 0) {
+            raf.seek(--position);
+        }
+        return position;
+    }
+
+    private static AcHost host(String key, String baseUrl) {
+        final AcHost acHost = new AcHost();
+        acHost.setKey(key);
+        acHost.setBaseUrl(baseUrl);
+        acHost.setSharedSecret("secret-" + key);
+        acHost.setName(key);
+        return acHost;
+    }
+}
@@ -0,0 +1,176 @@
+package com.atlassian.connect.play.java.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PollingAcHostInvalidationChannelTest {
+    private static final long LOOKBACK_MILLIS = 10000;
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+    @Mock
+    private ScheduledFuture polling;
+    @Mock
+    private Connection connection;
+    @Mock
+    private PreparedStatement latestStatement;
+    @Mock
+    private PreparedStatement changedStatement;
+    @Mock
+    private AcHostInvalidationChannel.Listener listener;
+
+    private PollingAcHostInvalidationChannel channel;
+    private Runnable poll;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void init() throws SQLException {
+        when(scheduler.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(polling);
+        when(connection.prepareStatement(startsWith("SELECT greatest"))).thenReturn(latestStatement);
+        when(connection.prepareStatement(startsWith("SELECT key"))).thenReturn(changedStatement);
+        final ResultSet latest = mock(ResultSet.class);
+        when(latest.next()).thenReturn(true);
+        when(latest.getLong(1)).thenReturn(100000L);
+        when(latestStatement.executeQuery()).thenReturn(latest);
+
+        channel = new PollingAcHostInvalidationChannel("default", scheduler, 1000, LOOKBACK_MILLIS) {
+            @Override
+            Connection getConnection(String datasourceName) {
+                return connection;
+            }
+        };
+        channel.subscribe(listener);
+        final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).scheduleWithFixedDelay(task.capture(), eq(0L), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        poll = task.getValue();
+    }
+
+    @Test
+    public void onlyFindsOutWhereToStartFromOnTheFirstPoll() throws SQLException {
+        poll.run();
+
+        verify(latestStatement).executeQuery();
+        verify(changedStatement, never()).executeQuery();
+        verifyZeroInteractions(listener);
+    }
+
+    @Test
+    public void invalidatesHostsWrittenOrDeletedSinceTheLatestVersionLessTheLookback() throws SQLException {
+        poll.run();
+        changed(row("host", 100500L), row("deleted", 100600L));
+        poll.run();
+
+        verify(changedStatement).setLong(1, 100000L - LOOKBACK_MILLIS);
+        verify(changedStatement).setLong(2, 100000L - LOOKBACK_MILLIS);
+        verify(listener).invalidate("host");
+        verify(listener).invalidate("deleted");
+    }
+
+    @Test
+    public void invalidatesHostsReadAgainOnlyWhenTheirVersionChanged() throws SQLException {
+        poll.run();
+        changed(row("host", 100500L));
+        poll.run();
+        changed(row("host", 100500L));
+        poll.run();
+        verify(listener).invalidate("host");
+
+        changed(row("host", 100700L));
+        poll.run();
+        verify(listener, times(2)).invalidate("host");
+    }
+
+    @Test
+    public void carriesOnFromTheLatestVersionSeen() throws SQLException {
+        poll.run();
+        changed(row("host", 120000L));
+        poll.run();
+        changed();
+        poll.run();
+
+        verify(changedStatement).setLong(1, 120000L - LOOKBACK_MILLIS);
+    }
+
+    @Test
+    public void keepsPollingAfterAFailure() throws SQLException {
+        poll.run();
+        when(changedStatement.executeQuery()).thenThrow(new SQLException("connection reset", "08006"));
+        poll.run();
+        changed(row("host", 100500L));
+        poll.run();
+
+        verify(listener).invalidate("host");
+    }
+
+    @Test
+    public void publishesToTheListenersOfThisNodeOnly() throws Throwable {
+        channel.publish("host");
+        channel.publishAll();
+
+        verify(listener).invalidate("host");
+        verify(listener).invalidateAll();
+        verify(connection, never()).prepareStatement(anyString());
+    }
+
+    @Test
+    public void stopsPollingOnClose() {
+        channel.close();
+
+        verify(polling).cancel(false);
+    }
+
+    private void changed(Object[]... rows) throws SQLException {
+        doReturn(resultSet(rows)).when(changedStatement).executeQuery();
+    }
+
+    private static Object[] row(String key, long version) {
+        return new Object[]{key, version};
+    }
+
+    private static ResultSet resultSet(Object[]... rows) throws SQLException {
+        final ResultSet resultSet = mock(ResultSet.class);
+        // true once for each row, then false
+        final Boolean[] moreRows = new Boolean[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            moreRows[i] = i + 1 < rows.length;
+        }
+        when(resultSet.next()).thenReturn(rows.length > 0, moreRows);
+        if (rows.length > 0) {
+            final String[] keys = new String[rows.length - 1];
+            final Long[] versions = new Long[rows.length - 1];
+            for (int i = 1; i < rows.length; i++) {
+                keys[i - 1] = (String) rows[i][0];
+                versions[i - 1] = (Long) rows[i][1];
+            }
+            when(resultSet.getString(1)).thenReturn((String) rows[0][0], keys);
+            when(resultSet.getLong(2)).thenReturn((Long) rows[0][1], versions);
+        }
+        return resultSet;
+    }
+}
@@ -0,0 +1,215 @@
+package com.atlassian.connect.play.java.service;
+
+import com.google.common.collect.ImmutableMap;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import play.Configuration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PostgresAcHostInvalidationChannelTest {
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+    @Mock
+    private ScheduledFuture polling;
+    @Mock
+    private Connection pooledConnection;
+    @Mock
+    private PreparedStatement notifyStatement;
+    @Mock
+    private Statement listenStatement;
+    @Mock
+    private AcHostInvalidationChannel.Listener listener;
+
+    private Connection listenConnection;
+    private String listenUrl;
+    private Properties listenProperties;
+    private int connects;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void init() throws SQLException {
+        when(scheduler.scheduleWithFixedDelay(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class))).thenReturn(polling);
+        when(pooledConnection.prepareStatement(anyString())).thenReturn(notifyStatement);
+        listenConnection = mock(Connection.class, withSettings().extraInterfaces(PGConnection.class));
+        when(listenConnection.createStatement()).thenReturn(listenStatement);
+        when(listenStatement.executeQuery(anyString())).thenReturn(mock(ResultSet.class));
+    }
+
+    @Test
+    public void publishesKeysWithPgNotify() throws Throwable {
+        channel("postgres://user:secret@db:5433/hosts").publish("host");
+
+        verify(pooledConnection).prepareStatement("SELECT pg_notify('" + PostgresAcHostInvalidationChannel.CHANNEL + "', ?)");
+        verify(notifyStatement).setString(1, "host");
+        verify(notifyStatement).execute();
+        verify(pooledConnection).close();
+    }
+
+    @Test
+    public void publishesAnEmptyNotificationToInvalidateEverything() throws Throwable {
+        channel("postgres://user:secret@db/hosts").publishAll();
+
+        verify(notifyStatement).setString(1, "");
+        verify(notifyStatement).execute();
+    }
+
+    @Test
+    public void listensWithTheDatasourcesCredentialsAndTimeouts() throws SQLException {
+        poll(channel("postgres://user:secret@db:5433/hosts"));
+
+        assertThat(listenUrl, equalTo("jdbc:postgresql://db:5433/hosts"));
+        assertThat(listenProperties.getProperty("user"), equalTo("user"));
+        assertThat(listenProperties.getProperty("password"), equalTo("secret"));
+        assertThat(listenProperties.getProperty("loginTimeout"), equalTo("10"));
+        assertThat(listenProperties.getProperty("connectTimeout"), equalTo("10"));
+        assertThat(listenProperties.getProperty("socketTimeout"), equalTo("10"));
+        verify(listenStatement).execute("LISTEN " + PostgresAcHostInvalidationChannel.CHANNEL);
+    }
+
+    @Test
+    public void listensWithoutCredentialsInTheUrl() throws SQLException {
+        poll(channel("postgres://db/hosts"));
+
+        assertThat(listenUrl, equalTo("jdbc:postgresql://db/hosts"));
+        assertThat(listenProperties.getProperty("user"), nullValue());
+        assertThat(listenProperties.getProperty("password"), nullValue());
+    }
+
+    @Test
+    public void listensWithJdbcUrls() throws SQLException {
+        poll(channel(ImmutableMap.of("url", "jdbc:postgresql://db/hosts", "user", "user", "password", "secret")));
+
+        assertThat(listenUrl, equalTo("jdbc:postgresql://db/hosts"));
+        assertThat(listenProperties.getProperty("user"), equalTo("user"));
+        assertThat(listenProperties.getProperty("password"), equalTo("secret"));
+    }
+
+    @Test
+    public void invalidatesEverythingOnceListening() throws SQLException {
+        final Runnable poll = poll(channel("postgres://db/hosts"));
+        verify(listener).invalidateAll();
+
+        poll.run();
+        verify(listener).invalidateAll();
+        assertThat(connects, equalTo(1));
+    }
+
+    @Test
+    public void deliversNotifications() throws SQLException {
+        final PGNotification[] notifications = {notification("host"), notification("")};
+        when(((PGConnection) listenConnection).getNotifications()).thenReturn(notifications);
+        poll(channel("postgres://db/hosts"));
+
+        verify(listener).invalidate("host");
+        verify(listener, times(2)).invalidateAll();
+    }
+
+    @Test
+    public void reconnectsAndInvalidatesEverythingAfterAFailure() throws SQLException {
+        final Runnable poll = poll(channel("postgres://db/hosts"));
+        doThrow(new SQLException("connection reset", "08006")).when(listenStatement).executeQuery(anyString());
+        poll.run();
+        verify(listenConnection).close();
+
+        doReturn(mock(ResultSet.class)).when(listenStatement).executeQuery(anyString());
+        poll.run();
+        assertThat(connects, equalTo(2));
+        verify(listener, times(2)).invalidateAll();
+    }
+
+    @Test
+    public void stopsListeningOnClose() throws SQLException {
+        final PostgresAcHostInvalidationChannel channel = channel("postgres://db/hosts");
+        final Runnable poll = poll(channel);
+
+        channel.close();
+        verify(polling).cancel(false);
+        verify(listenConnection).close();
+
+        poll.run();
+        assertThat(connects, equalTo(1));
+    }
+
+    @Test
+    public void doesNotListenUntilPolled() throws SQLException {
+        channel("postgres://db/hosts");
+
+        assertThat(connects, equalTo(0));
+        verify(listener, never()).invalidateAll();
+    }
+
+    private PostgresAcHostInvalidationChannel channel(String url) {
+        return channel(ImmutableMap.of("url", url));
+    }
+
+    private PostgresAcHostInvalidationChannel channel(Map<String, String> datasource) {
+        final PostgresAcHostInvalidationChannel channel = new PostgresAcHostInvalidationChannel("default",
+                new Configuration(ConfigFactory.parseMap(datasource)), scheduler, 1000, 10) {
+            @Override
+            Connection getConnection(String datasourceName) {
+                return pooledConnection;
+            }
+
+            @Override
+            Connection connectListener(String url, Properties properties) {
+                listenUrl = url;
+                listenProperties = properties;
+                connects++;
+                return listenConnection;
+            }
+        };
+        channel.subscribe(listener);
+        return channel;
+    }
+
+    /**
+     * Runs the channel's first poll
+     */
+    private Runnable poll(PostgresAcHostInvalidationChannel channel) {
+        final ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(1)).scheduleWithFixedDelay(task.capture(), eq(0L), eq(1000L), eq(TimeUnit.MILLISECONDS));
+        task.getValue().run();
+        return task.getValue();
+    }
+
+    private static PGNotification notification(String parameter) {
+        final PGNotification notification = mock(PGNotification.class);
+        when(notification.getParameter()).thenReturn(parameter);
+        return notification;
+    }
+}
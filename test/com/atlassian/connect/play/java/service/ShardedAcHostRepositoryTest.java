@@ -0,0 +1,134 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.List;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedAcHostRepositoryTest {
+    private static final List<String> UNITS = ImmutableList.of("shard0", "shard1");
+
+    @Mock
+    private AcHostRepository shard0;
+    @Mock
+    private AcHostRepository shard1;
+
+    private ShardedAcHostRepository repository;
+
+    @Before
+    public void init() throws Throwable {
+        repository = new ShardedAcHostRepository(UNITS, ImmutableList.of(shard0, shard1));
+        when(shard0.findByUrl(anyString())).thenReturn(none(AcHost.class));
+        when(shard1.findByUrl(anyString())).thenReturn(none(AcHost.class));
+        when(shard0.findByKey(anyString())).thenReturn(none(AcHost.class));
+        when(shard1.findByKey(anyString())).thenReturn(none(AcHost.class));
+    }
+
+    @Test
+    public void shardsByConsistentHashOfKey() {
+        final String key = "client-key";
+        assertThat(repository.persistenceUnitFor(key), equalTo(ShardedAcHostRepository.persistenceUnitFor(key, UNITS)));
+        // adding a shard moves a host either nowhere or to the new shard
+        final String moved = ShardedAcHostRepository.persistenceUnitFor(key, ImmutableList.of("shard0", "shard1", "shard2"));
+        assertThat(moved.equals(repository.persistenceUnitFor(key)) || moved.equals("shard2"), equalTo(true));
+    }
+
+    @Test
+    public void savesAndFindsHostInShardOfKey() throws Throwable {
+        final AcHost acHost = host(1L, keyInShard(1), "http://example.com");
+        repository.save(acHost);
+        repository.findByKey(acHost.getKey());
+
+        verify(shard1).save(acHost);
+        verify(shard1).findByKey(acHost.getKey());
+        verify(shard0, never()).save(acHost);
+        verify(shard0, never()).findByKey(acHost.getKey());
+    }
+
+    @Test
+    public void remembersShardOfBaseUrl() throws Throwable {
+        final AcHost acHost = host(1L, keyInShard(1), "http://example.com");
+        when(shard1.findByUrl("http://example.com")).thenReturn(some(acHost));
+
+        assertThat(repository.findByUrl("http://example.com").get().getKey(), equalTo(acHost.getKey()));
+        assertThat(repository.findByUrl("http://example.com").get().getKey(), equalTo(acHost.getKey()));
+        verify(shard0, times(1)).findByUrl("http://example.com");
+        verify(shard1, times(2)).findByUrl("http://example.com");
+    }
+
+    @Test
+    public void upsertDeletesHostMovedFromAnotherShard() throws Throwable {
+        final AcHost registered = host(7L, keyInShard(0), "http://example.com");
+        when(shard0.findByUrl("http://example.com")).thenReturn(some(registered));
+
+        final AcHost acHost = host(null, keyInShard(1), "http://example.com");
+        repository.upsert(acHost);
+
+        final InOrder inOrder = inOrder(shard0, shard1);
+        inOrder.verify(shard1).upsert(acHost);
+        inOrder.verify(shard0).delete(7L);
+    }
+
+    @Test
+    public void keepsHostInPreviousShardWhenUpsertFails() throws Throwable {
+        final AcHost registered = host(7L, keyInShard(0), "http://example.com");
+        when(shard0.findByUrl("http://example.com")).thenReturn(some(registered));
+        final AcHost acHost = host(null, keyInShard(1), "http://example.com");
+        doThrow(new IllegalStateException("shard1 is down")).when(shard1).upsert(acHost);
+
+        try {
+            repository.upsert(acHost);
+            fail("expected the upsert to fail");
+        } catch (IllegalStateException expected) {
+            verify(shard0, never()).delete(anyLong());
+        }
+    }
+
+    @Test
+    public void mergesPagesOfAllShardsInIdOrder() throws Throwable {
+        when(shard0.findPage(null, 3)).thenReturn(ImmutableList.of(host(1L, "a", "http://a"), host(4L, "d", "http://d")));
+        when(shard1.findPage(null, 3)).thenReturn(ImmutableList.of(host(2L, "b", "http://b"), host(3L, "c", "http://c")));
+
+        final List<AcHost> page = repository.findPage(null, 3);
+        assertThat(page.size(), equalTo(3));
+        assertThat(ImmutableList.of(page.get(0).getId(), page.get(1).getId(), page.get(2).getId()), contains(1L, 2L, 3L));
+    }
+
+    private static String keyInShard(int shard) {
+        for (int i = 0; ; i++) {
+            if (ShardedAcHostRepository.shardFor("key-" + i, UNITS.size()) == shard) {
+                return "key-" + i;
+            }
+        }
+    }
+
+    private static AcHost host(Long id, String key, String baseUrl) {
+        final AcHost acHost = new AcHost();
+        acHost.setId(id);
+        acHost.setKey(key);
+        acHost.setBaseUrl(baseUrl);
+        return acHost;
+    }
+}
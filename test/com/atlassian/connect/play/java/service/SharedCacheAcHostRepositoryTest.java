@@ -0,0 +1,151 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SharedCacheAcHostRepositoryTest {
+    private static final String KEY = "client-key";
+    private static final String BASE_URL = "http://example.atlassian.net";
+
+    @Mock
+    private AcHostRepository delegate;
+    @Mock
+    private AcHostRepository otherDelegate;
+
+    private final InMemorySharedCache sharedCache = new InMemorySharedCache();
+
+    private SharedCacheAcHostRepository repository;
+    private SharedCacheAcHostRepository otherNode;
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        repository = new SharedCacheAcHostRepository(delegate, sharedCache, 60, 100, 60);
+        otherNode = new SharedCacheAcHostRepository(otherDelegate, sharedCache, 60, 100, 60);
+        acHost = host(1L, KEY);
+        when(delegate.findByKey(KEY)).thenReturn(some(acHost));
+        when(otherDelegate.findByKey(KEY)).thenReturn(some(acHost));
+    }
+
+    @Test
+    public void sharesLoadedHostsWithOtherNodes() throws Throwable {
+        repository.findByKey(KEY);
+        assertThat(otherNode.findByKey(KEY).get().getBaseUrl(), equalTo(BASE_URL));
+        verify(otherDelegate, never()).findByKey(anyString());
+    }
+
+    @Test
+    public void servesNearCacheWithoutReadingSharedCache() throws Throwable {
+        repository.findByKey(KEY);
+        sharedCache.failing = true;
+        assertThat(repository.findByKey(KEY).get().getKey(), equalTo(KEY));
+        verify(delegate, times(1)).findByKey(KEY);
+    }
+
+    @Test
+    public void treatsSharedCacheFailureAsMiss() throws Throwable {
+        sharedCache.failing = true;
+        assertThat(repository.findByKey(KEY).get().getKey(), equalTo(KEY));
+        verify(delegate).findByKey(KEY);
+    }
+
+    @Test
+    public void holdsOnlyNearCachedHostsInMemory() throws Throwable {
+        repository.findByKey(KEY);
+        assertThat(repository.getIfPresent(KEY).getKey(), equalTo(KEY));
+        assertThat(otherNode.getIfPresent(KEY), nullValue());
+    }
+
+    @Test
+    public void evictsHostOnSave() throws Throwable {
+        repository.findByKey(KEY);
+        repository.save(acHost);
+        otherNode.findByKey(KEY);
+        sharedCache.failing = true;
+        repository.findByKey(KEY);
+        verify(delegate, times(2)).findByKey(KEY);
+        verify(otherDelegate).findByKey(KEY);
+    }
+
+    @Test
+    public void evictsHostReplacedByBaseUrlWithoutLookingItUp() throws Throwable {
+        repository.findByKey(KEY);
+        otherNode.upsert(host(2L, "new-client-key"));
+
+        otherNode.findByKey(KEY);
+        verify(otherDelegate).findByKey(KEY);
+        verify(otherDelegate, never()).findByUrl(anyString());
+        verify(delegate, never()).findByUrl(anyString());
+    }
+
+    @Test
+    public void dropsAllHostsOnDelete() throws Throwable {
+        repository.findByKey(KEY);
+        otherNode.findByKey(KEY);
+
+        repository.delete(acHost.getId());
+        otherNode.invalidateAll();
+        otherNode.findByKey(KEY);
+        verify(otherDelegate).findByKey(KEY);
+
+        repository.findByKey(KEY);
+        verify(delegate, times(1)).findByKey(KEY);
+    }
+
+    private static AcHost host(Long id, String key) {
+        final AcHost host = new AcHost();
+        host.setId(id);
+        host.setKey(key);
+        host.setBaseUrl(BASE_URL);
+        host.setPublicKey("public-key");
+        host.setSharedSecret("shared-secret");
+        return host;
+    }
+
+    private static final class InMemorySharedCache implements SharedCacheAcHostRepository.SharedCache {
+        private final Map<String, Object> entries = new ConcurrentHashMap<String, Object>();
+        private volatile boolean failing;
+
+        @Override
+        public Object get(String key) {
+            check();
+            return entries.get(key);
+        }
+
+        @Override
+        public void set(String key, Object value, int expirySeconds) {
+            check();
+            entries.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            check();
+            entries.remove(key);
+        }
+
+        private void check() {
+            if (failing) {
+                throw new IllegalStateException("cache unavailable");
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SnapshotAcHostRepositoryTest {
+    private static final String KEY = "client-key";
+    private static final String BASE_URL = "http://example.com";
+
+    @Mock
+    private AcHostRepository delegate;
+
+    private SnapshotAcHostRepository repository;
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        repository = new SnapshotAcHostRepository(delegate, 100, MoreExecutors.sameThreadExecutor());
+        acHost = host(1L, KEY, BASE_URL);
+        when(delegate.iterate(anyInt())).thenReturn(ImmutableList.of(acHost));
+        when(delegate.findByKey("unknown")).thenReturn(none(AcHost.class));
+    }
+
+    @Test
+    public void readsReconciledHostsWithoutDelegate() throws Throwable {
+        repository.reconcile();
+
+        assertThat(repository.findByKey(KEY).get(), sameInstance(acHost));
+        assertThat(repository.findByUrl(BASE_URL).get(), sameInstance(acHost));
+        verify(delegate, never()).findByKey(KEY);
+        verify(delegate, never()).findByUrl(BASE_URL);
+    }
+
+    @Test
+    public void addsHostsFoundInDelegate() throws Throwable {
+        when(delegate.findByKey(KEY)).thenReturn(some(acHost));
+
+        repository.findByKey(KEY);
+        assertThat(repository.findByKey(KEY).get(), sameInstance(acHost));
+        assertThat(repository.findByKey("unknown").isEmpty(), equalTo(true));
+        verify(delegate, times(1)).findByKey(KEY);
+    }
+
+    @Test
+    public void replacesHostWithSameBaseUrlOnUpsert() throws Throwable {
+        repository.reconcile();
+        repository.upsert(host(1L, "new-key", BASE_URL));
+
+        assertThat(repository.getIfPresent(KEY), equalTo(null));
+        assertThat(repository.getIfPresent("new-key").getBaseUrl(), equalTo(BASE_URL));
+        assertThat(repository.size(), equalTo(1));
+    }
+
+    @Test
+    public void addsAndReplacesHostsOnUpsertAll() throws Throwable {
+        repository.reconcile();
+        repository.upsertAll(ImmutableList.of(host(1L, "new-key", BASE_URL), host(2L, "other", "http://other"),
+                host(3L, "later", "http://other")));
+
+        assertThat(repository.getIfPresent(KEY), equalTo(null));
+        assertThat(repository.getIfPresent("new-key").getId(), equalTo(1L));
+        assertThat(repository.getIfPresent("other"), equalTo(null));
+        assertThat(repository.findByUrl("http://other").get().getKey(), equalTo("later"));
+        assertThat(repository.size(), equalTo(2));
+        verify(delegate).upsertAll(anyListOf(AcHost.class));
+    }
+
+    @Test
+    public void removesHostOnDelete() throws Throwable {
+        repository.reconcile();
+        repository.delete(1L);
+
+        assertThat(repository.getIfPresent(KEY), equalTo(null));
+        verify(delegate).delete(1L);
+    }
+
+    @Test
+    public void keepsHostsWrittenWhileReconciling() throws Throwable {
+        final AcHost saved = host(2L, "saved", "http://saved");
+        when(delegate.iterate(anyInt())).thenAnswer(invocation -> {
+            // written after the delegate was read, so it isn't part of what was loaded
+            repository.save(saved);
+            return ImmutableList.of(acHost);
+        });
+
+        repository.reconcile();
+        assertThat(repository.getIfPresent("saved").getId(), equalTo(2L));
+        assertThat(repository.getIfPresent(KEY), sameInstance(acHost));
+    }
+
+    @Test
+    public void reloadsHostInvalidatedByAnotherNode() throws Throwable {
+        repository.reconcile();
+        final AcHost changed = host(1L, KEY, BASE_URL);
+        changed.setSharedSecret("changed");
+        when(delegate.findByKey(KEY)).thenReturn(some(changed));
+
+        repository.invalidate(KEY);
+        assertThat(repository.getIfPresent(KEY).getSharedSecret(), equalTo("changed"));
+    }
+
+    private static AcHost host(Long id, String key, String baseUrl) {
+        final AcHost acHost = new AcHost();
+        acHost.setId(id);
+        acHost.setKey(key);
+        acHost.setBaseUrl(baseUrl);
+        return acHost;
+    }
+}
@@ -0,0 +1,109 @@
+package com.atlassian.connect.play.java.service;
+
+import com.atlassian.connect.play.java.AcHost;
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import static com.atlassian.fugue.Option.none;
+import static com.atlassian.fugue.Option.some;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UnknownHostFilteringAcHostRepositoryTest {
+    private static final String KNOWN_KEY = "known";
+    private static final String UNKNOWN_KEY = "unknown";
+
+    @Mock
+    private AcHostRepository delegate;
+
+    private AcHost acHost;
+
+    @Before
+    public void init() throws Throwable {
+        acHost = new AcHost();
+        acHost.setKey(KNOWN_KEY);
+        when(delegate.findByKey(KNOWN_KEY)).thenReturn(some(acHost));
+        when(delegate.findByKey(UNKNOWN_KEY)).thenReturn(none(AcHost.class));
+        when(delegate.iterate(anyInt())).thenReturn(ImmutableList.of(acHost));
+    }
+
+    @Test
+    public void remembersMissingKeys() throws Throwable {
+        final UnknownHostFilteringAcHostRepository repository = newRepository(false);
+        repository.findByKey(UNKNOWN_KEY);
+        assertThat(repository.findByKey(UNKNOWN_KEY).isEmpty(), equalTo(true));
+        verify(delegate, times(1)).findByKey(UNKNOWN_KEY);
+        assertThat(repository.rejectedCount(), equalTo(1L));
+    }
+
+    @Test
+    public void forgetsMissingKeyOnceSaved() throws Throwable {
+        final UnknownHostFilteringAcHostRepository repository = newRepository(false);
+        repository.findByKey(UNKNOWN_KEY);
+
+        final AcHost registered = new AcHost();
+        registered.setKey(UNKNOWN_KEY);
+        repository.save(registered);
+        when(delegate.findByKey(UNKNOWN_KEY)).thenReturn(some(registered));
+
+        assertThat(repository.findByKey(UNKNOWN_KEY).isDefined(), equalTo(true));
+    }
+
+    @Test
+    public void rejectsKeysNotInKnownKeysWithoutLookup() throws Throwable {
+        final UnknownHostFilteringAcHostRepository repository = newRepository(true);
+        repository.rebuildKnownKeys();
+
+        assertThat(repository.findByKey(UNKNOWN_KEY).isEmpty(), equalTo(true));
+        assertThat(repository.findByKey(KNOWN_KEY).isDefined(), equalTo(true));
+        verify(delegate, never()).findByKey(UNKNOWN_KEY);
+    }
+
+    @Test
+    public void addsSavedKeysToKnownKeys() throws Throwable {
+        final UnknownHostFilteringAcHostRepository repository = newRepository(true);
+        repository.rebuildKnownKeys();
+
+        final AcHost registered = new AcHost();
+        registered.setKey(UNKNOWN_KEY);
+        repository.save(registered);
+        repository.findByKey(UNKNOWN_KEY);
+
+        verify(delegate).findByKey(UNKNOWN_KEY);
+    }
+
+    @Test
+    public void addsKeysPublishedOnChannelToKnownKeys() throws Throwable {
+        final UnknownHostFilteringAcHostRepository repository = newRepository(true);
+        final LocalAcHostInvalidationChannel channel = new LocalAcHostInvalidationChannel();
+        channel.subscribe(repository);
+        repository.rebuildKnownKeys();
+        repository.findByKey(UNKNOWN_KEY);
+
+        channel.publish(UNKNOWN_KEY);
+        repository.findByKey(UNKNOWN_KEY);
+
+        verify(delegate).findByKey(UNKNOWN_KEY);
+    }
+
+    @Test
+    public void looksUpEveryKeyUntilKnownKeysAreBuilt() throws Throwable {
+        newRepository(true).findByKey(UNKNOWN_KEY);
+        verify(delegate).findByKey(anyString());
+    }
+
+    private UnknownHostFilteringAcHostRepository newRepository(boolean knownKeysEnabled) {
+        return new UnknownHostFilteringAcHostRepository(delegate, 100, 60, knownKeysEnabled, 100);
+    }
+}
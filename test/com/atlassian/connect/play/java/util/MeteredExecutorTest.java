@@ -0,0 +1,121 @@
+package com.atlassian.connect.play.java.util;
+
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.libs.F;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static play.libs.F.Promise;
+
+public class MeteredExecutorTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private MeteredExecutor executor;
+
+    @Before
+    public void init() {
+        executor = new MeteredExecutor("test-executor", 1, 1);
+    }
+
+    @After
+    public void shutdown() {
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void runsFunctions() {
+        assertThat(executor.promise(constant("done")).get(1000), equalTo("done"));
+    }
+
+    @Test
+    public void rejectsWorkWhileTheQueueIsFull() throws Exception {
+        final Promise<String> running = executor.promise(blocked());
+        final Promise<String> queued = executor.promise(constant("queued"));
+        final Promise<String> rejected = executor.promise(constant("rejected"));
+
+        try {
+            rejected.get(1000);
+            fail("expected the work to be rejected");
+        } catch (Exception e) {
+            assertThat(e, instanceOf(RejectedExecutionException.class));
+        }
+        assertThat(executor.stats().getRejected(), equalTo(1L));
+        assertThat(executor.stats().getSubmitted(), equalTo(2L));
+
+        release.countDown();
+        assertThat(running.get(1000), equalTo("released"));
+        assertThat(queued.get(1000), equalTo("queued"));
+    }
+
+    @Test
+    public void recordsQueueAndRunTimes() throws Exception {
+        final Promise<String> running = executor.promise(blocked());
+        final Promise<String> queued = executor.promise(constant("queued"));
+        Thread.sleep(50);
+        release.countDown();
+        running.get(1000);
+        queued.get(1000);
+
+        final MeteredExecutor.Stats stats = executor.stats();
+        assertThat(stats.getCompleted(), equalTo(2L));
+        // the queued function waited for the blocked one, which ran for as long
+        assertThat(stats.getAverageQueueMillis(), greaterThan(5.0));
+        assertThat(stats.getAverageRunMillis(), greaterThan(5.0));
+    }
+
+    @Test
+    public void listsTheStatsOfExecutorsUntilTheyAreShutDown() {
+        assertThat(MeteredExecutor.allStats(), hasItem(statsOf("test-executor")));
+
+        executor.shutdown();
+        assertThat(MeteredExecutor.allStats(), not(hasItem(statsOf("test-executor"))));
+    }
+
+    private F.Function0<String> blocked() {
+        return new F.Function0<String>() {
+            @Override
+            public String apply() throws Throwable {
+                release.await(1, TimeUnit.SECONDS);
+                return "released";
+            }
+        };
+    }
+
+    private static F.Function0<String> constant(final String value) {
+        return new F.Function0<String>() {
+            @Override
+            public String apply() {
+                return value;
+            }
+        };
+    }
+
+    private static Matcher<MeteredExecutor.Stats> statsOf(final String name) {
+        return new TypeSafeMatcher<MeteredExecutor.Stats>() {
+            @Override
+            protected boolean matchesSafely(MeteredExecutor.Stats stats) {
+                return stats.getName().equals(name);
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("the stats of " + name);
+            }
+        };
+    }
+}